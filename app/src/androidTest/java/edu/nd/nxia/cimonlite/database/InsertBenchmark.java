@@ -0,0 +1,152 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Insert rate of batches of 1k, 10k and 100k readings, through SQLiteDatabase.insert
+ * with ContentValues (the former batch path) and through a compiled, reused
+ * SQLiteStatement (the current batch path of {@link CimonDatabaseAdapter}).
+ * Both run in a single transaction per batch, on a scratch database with the
+ * layout of the Data table. Rates are logged under tag NDroid.
+ *
+ * @author ningxia
+ *
+ */
+public class InsertBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "NDroid";
+    private static final String INSERT_DATA = "INSERT INTO " + DataTable.TABLE_DATA + " ("
+            + DataTable.COLUMN_METRIC_ID + ", " + DataTable.COLUMN_MONITOR_ID + ", "
+            + DataTable.COLUMN_TIMESTAMP + ", " + DataTable.COLUMN_VALUE + ") VALUES (?, ?, ?, ?)";
+    private static final int MONITOR = 1;
+    private static final int METRIC = 2;
+
+    private File file;
+    private SQLiteDatabase database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "insert_benchmark.db");
+        deleteDatabase();
+        database = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+        database.enableWriteAheadLogging();
+        DataTable.createTable(database, DataTable.TABLE_DATA);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.close();
+        deleteDatabase();
+        super.tearDown();
+    }
+
+    private void deleteDatabase() {
+        for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    public void testInsertRate1k() {
+        compare(1000);
+    }
+
+    public void testInsertRate10k() {
+        compare(10 * 1000);
+    }
+
+    public void testInsertRate100k() {
+        compare(100 * 1000);
+    }
+
+    private void compare(int rows) {
+        // each path starts from an empty table
+        double contentValuesRate = insertContentValues(rows);
+        assertEquals(rows, clear());
+        double statementRate = insertStatement(rows);
+        assertEquals(rows, clear());
+        Log.i(TAG, String.format("InsertBenchmark - %d rows: ContentValues %.0f rows/s, "
+                + "statement %.0f rows/s (%.1fx)", rows, contentValuesRate, statementRate,
+                statementRate / contentValuesRate));
+    }
+
+    /**
+     * Insert batch as the former batch path did, one ContentValues per row.
+     *
+     * @return    rows per second
+     */
+    private double insertContentValues(int rows) {
+        long startTime = System.nanoTime();
+        ContentValues values = new ContentValues();
+        values.put(DataTable.COLUMN_METRIC_ID, METRIC);
+        values.put(DataTable.COLUMN_MONITOR_ID, MONITOR);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                ContentValues contentValues = new ContentValues(values);
+                contentValues.put(DataTable.COLUMN_TIMESTAMP, timestamp(i));
+                contentValues.put(DataTable.COLUMN_VALUE, value(i));
+                assertTrue(database.insert(DataTable.TABLE_DATA, null, contentValues) >= 0);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rate(rows, startTime);
+    }
+
+    /**
+     * Insert batch as the current batch path does, binding into a compiled statement.
+     *
+     * @return    rows per second
+     */
+    private double insertStatement(int rows) {
+        long startTime = System.nanoTime();
+        SQLiteStatement statement = database.compileStatement(INSERT_DATA);
+        statement.bindLong(1, METRIC);
+        statement.bindLong(2, MONITOR);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                statement.bindLong(3, timestamp(i));
+                statement.bindDouble(4, value(i));
+                assertTrue(statement.executeInsert() >= 0);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+        return rate(rows, startTime);
+    }
+
+    private static long timestamp(int i) {
+        // 200 Hz readings
+        return i * 5000000L;
+    }
+
+    private static float value(int i) {
+        return (float) Math.sin(i / 100.0) * 9.81f;
+    }
+
+    private static double rate(int rows, long startTime) {
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        return rows * 1e9 / elapsed;
+    }
+
+    /**
+     * Delete all rows inserted by a run.
+     *
+     * @return    number of rows deleted
+     */
+    private int clear() {
+        return database.delete(DataTable.TABLE_DATA, "1", null);
+    }
+
+}
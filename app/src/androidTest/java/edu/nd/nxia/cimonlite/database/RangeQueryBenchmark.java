@@ -0,0 +1,254 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Time of range queries on readings of one series (monitor, metric and time window),
+ * as run by the content provider and uploads, with the composite
+ * (monitorid, metricid, timestamp) index of the Data table, with an index on
+ * timestamp only, and without index. All three run the same queries on the same
+ * scratch database of interleaved series. Latency of the same queries through
+ * the views of {@link DataView} is measured as the table grows. Times are logged
+ * under tag NDroid. Query plans through the views are checked to search the
+ * index of each partition, with quantized values restored without a join.
+ *
+ * @author ningxia
+ *
+ */
+public class RangeQueryBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "NDroid";
+    private static final String INDEX = DataTable.TABLE_DATA + "_key";
+    private static final int MONITORS = 2;
+    private static final int METRICS = 4;
+    /** Readings of each series, 200 Hz for about 4 minutes. */
+    private static final int READINGS = 50 * 1000;
+    private static final long PERIOD = 5000000L;
+    /** Window of each query, 10 s of readings. */
+    private static final long WINDOW = 2000 * PERIOD;
+    private static final int QUERIES = 100;
+    /** Readings of each series at which latency through the views is measured. */
+    private static final int[] SIZES = {2500, 10 * 1000, READINGS};
+    private static final String RANGE_QUERY = rangeQuery(DataTable.TABLE_DATA);
+    /** Step of quantized series, metric 1 of monitor 1. */
+    private static final double STEP = 0.5;
+
+    private File file;
+    private SQLiteDatabase database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "range_benchmark.db");
+        deleteDatabase();
+        database = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+        database.enableWriteAheadLogging();
+        DataTable.createTable(database, DataTable.TABLE_DATA);
+        VectorDataTable.onCreate(database);
+        PartitionTable.onCreate(database);
+        QuantizationTable.onCreate(database);
+        DataView.rebuild(database);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.close();
+        deleteDatabase();
+        super.tearDown();
+    }
+
+    private void deleteDatabase() {
+        for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    private static String rangeQuery(String source) {
+        return "SELECT " + DataTable.COLUMN_TIMESTAMP + ", " + DataTable.COLUMN_VALUE
+                + " FROM " + source + " WHERE " + DataTable.COLUMN_MONITOR_ID + " = ? AND "
+                + DataTable.COLUMN_METRIC_ID + " = ? AND " + DataTable.COLUMN_TIMESTAMP
+                + " BETWEEN ? AND ? ORDER BY " + DataTable.COLUMN_TIMESTAMP;
+    }
+
+    /**
+     * Insert readings of series interleaved in time, as they arrive from the sensors.
+     *
+     * @param from    index of first reading of each series
+     * @param to      index after last reading of each series
+     */
+    private void fill(int from, int to) {
+        SQLiteStatement statement = database.compileStatement("INSERT INTO "
+                + DataTable.TABLE_DATA + " (" + DataTable.COLUMN_METRIC_ID + ", "
+                + DataTable.COLUMN_MONITOR_ID + ", " + DataTable.COLUMN_TIMESTAMP + ", "
+                + DataTable.COLUMN_VALUE + ") VALUES (?, ?, ?, ?)");
+        database.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                for (int monitor = 1; monitor <= MONITORS; monitor++) {
+                    for (int metric = 1; metric <= METRICS; metric++) {
+                        statement.bindLong(1, metric);
+                        statement.bindLong(2, monitor);
+                        statement.bindLong(3, i * PERIOD);
+                        statement.bindDouble(4, Math.sin(i / 100.0) * metric);
+                        statement.executeInsert();
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+    }
+
+    public void testRangeQueries() {
+        fill(0, READINGS);
+        assertTrue(queryPlan(RANGE_QUERY).contains(INDEX));
+        long[] composite = run(RANGE_QUERY, READINGS);
+
+        database.execSQL("DROP INDEX " + INDEX);
+        database.execSQL("CREATE INDEX " + INDEX + " ON " + DataTable.TABLE_DATA + "("
+                + DataTable.COLUMN_TIMESTAMP + ")");
+        long[] timestamp = run(RANGE_QUERY, READINGS);
+
+        database.execSQL("DROP INDEX " + INDEX);
+        long[] none = run(RANGE_QUERY, READINGS);
+
+        // same rows whichever way they are found
+        assertEquals(composite[1], timestamp[1]);
+        assertEquals(composite[1], none[1]);
+        Log.i(TAG, String.format("RangeQueryBenchmark - %d queries, %d rows of %d: "
+                + "composite index %.1fms, timestamp index %.1fms, no index %.1fms",
+                QUERIES, composite[1], MONITORS * METRICS * READINGS,
+                composite[0] / 1e6, timestamp[0] / 1e6, none[0] / 1e6));
+        assertTrue("composite index slower than full scan", composite[0] < none[0]);
+    }
+
+    /**
+     * Latency of range queries through the views grows with the number of rows
+     * returned, not with the size of the table, as the index of the table is searched.
+     */
+    public void testViewLatencyVersusTableSize() {
+        String[] views = {DataView.VIEW_SCALAR_DATA, DataView.VIEW_DATA};
+        // time per query at each size, through each view (nanoseconds)
+        double[][] latency = new double[views.length][SIZES.length];
+        int filled = 0;
+        for (int size = 0; size < SIZES.length; size++) {
+            fill(filled, SIZES[size]);
+            filled = SIZES[size];
+            for (int view = 0; view < views.length; view++) {
+                String query = rangeQuery(views[view]);
+                // warm up page cache, as queries of a running service do
+                run(query, filled);
+                long[] result = run(query, filled);
+                latency[view][size] = (double) result[0] / QUERIES;
+                Log.i(TAG, String.format("RangeQueryBenchmark - %s, %d rows: %.3fms per query, "
+                        + "%d rows per query", views[view], MONITORS * METRICS * filled,
+                        latency[view][size] / 1e6, result[1] / QUERIES));
+            }
+        }
+        double growth = (double) SIZES[SIZES.length - 1] / SIZES[0];
+        for (int view = 0; view < views.length; view++) {
+            assertTrue(views[view] + " latency grows with table size",
+                    latency[view][SIZES.length - 1] < latency[view][0] * growth / 2);
+        }
+    }
+
+    /**
+     * Run the same range queries, reading all returned rows.
+     *
+     * @param query       range query with monitor, metric and window as arguments
+     * @param readings    readings of each series in table, windows start among them
+     * @return    elapsed time (nanoseconds) and number of rows returned
+     */
+    private long[] run(String query, int readings) {
+        Random random = new Random(42);
+        long rows = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            long from = (long) random.nextInt(readings) * PERIOD;
+            Cursor cursor = database.rawQuery(query, new String[] {
+                    String.valueOf(1 + random.nextInt(MONITORS)),
+                    String.valueOf(1 + random.nextInt(METRICS)),
+                    String.valueOf(from), String.valueOf(from + WINDOW)});
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getDouble(1);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new long[] {System.nanoTime() - startTime, rows};
+    }
+
+    /**
+     * Range queries through the views search the index of the Data table, as
+     * queries of the table do, and restore quantized values without a join.
+     */
+    public void testViewQueryPlans() {
+        fill(0, READINGS);
+        ContentValues values = new ContentValues();
+        values.put(QuantizationTable.COLUMN_MONITOR_ID, 1);
+        values.put(QuantizationTable.COLUMN_METRIC_ID, 1);
+        values.put(QuantizationTable.COLUMN_STEP, STEP);
+        database.insert(QuantizationTable.TABLE_QUANTIZATION, null, values);
+        DataView.rebuild(database);
+
+        for (String view : new String[] {DataView.VIEW_SCALAR_DATA, DataView.VIEW_DATA}) {
+            String plan = queryPlan(rangeQuery(view));
+            Log.i(TAG, "RangeQueryBenchmark - plan through " + view + ":\n" + plan);
+            assertTrue(view + " does not search index", plan.contains(INDEX));
+            assertFalse(view + " joins steps", plan.contains(QuantizationTable.TABLE_QUANTIZATION));
+        }
+
+        // quantized series is scaled, others are returned as stored
+        String[] args = {"1", "1", "0", String.valueOf(WINDOW)};
+        Cursor table = database.rawQuery(RANGE_QUERY, args);
+        Cursor view = database.rawQuery(rangeQuery(DataView.VIEW_SCALAR_DATA), args);
+        try {
+            assertEquals(table.getCount(), view.getCount());
+            while (table.moveToNext() && view.moveToNext()) {
+                assertEquals(table.getDouble(1) * STEP, view.getDouble(1), 1e-9);
+            }
+        } finally {
+            table.close();
+            view.close();
+        }
+        args[0] = "2";
+        assertEquals(count(RANGE_QUERY, args), count(rangeQuery(DataView.VIEW_DATA), args));
+    }
+
+    private int count(String query, String[] args) {
+        Cursor cursor = database.rawQuery(query, args);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryPlan(String query) {
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query,
+                new String[] {"1", "1", "0", String.valueOf(WINDOW)});
+        StringBuilder plan = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+}
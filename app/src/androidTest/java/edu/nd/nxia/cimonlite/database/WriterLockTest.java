@@ -0,0 +1,183 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+/**
+ * Mixed read/write load on {@link CimonDatabaseAdapter}: writer threads insert
+ * batches of readings while reader threads query them, on a database of the
+ * test's own. Queries take no writer lock, so they complete while a batch is
+ * being inserted, and see whole batches only. Writers running together wait
+ * for each other, which the lock statistics count as contention. Statistics
+ * are logged under tag NDroid.
+ *
+ * @author ningxia
+ *
+ */
+public class WriterLockTest extends AndroidTestCase {
+
+    private static final String TAG = "NDroid";
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 5000;
+    /** Period of readings, 200 Hz (nanoseconds). */
+    private static final long PERIOD = 5000000L;
+
+    private RenamingDelegatingContext context;
+    private CimonDatabaseAdapter adapter;
+    private int monitor;
+
+    /** Start and end (nanoseconds) of each batch insert. */
+    private final List<long[]> batches = Collections.synchronizedList(new ArrayList<long[]>());
+    /** Start and end (nanoseconds) of each query. */
+    private final List<long[]> reads = Collections.synchronizedList(new ArrayList<long[]>());
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = new RenamingDelegatingContext(getContext(), "test.");
+        context.deleteDatabase(CimonDatabaseHelper.DATABASE_NAME);
+        adapter = new CimonDatabaseAdapter(context);
+        monitor = adapter.insertMonitor(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        adapter.close();
+        context.deleteDatabase(CimonDatabaseHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadsDuringWrites() throws Exception {
+        long acquisitions = adapter.getLockAcquisitions();
+        long contentions = adapter.getLockContentions();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(WRITERS);
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++) {
+            final int metric = i + 1;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        write(metric);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        written.countDown();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (written.getCount() > 0) {
+                            read();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        assertEquals(WRITERS * BATCHES * BATCH_SIZE, count());
+        int overlapping = readsDuringBatches();
+        Log.i(TAG, "WriterLockTest - " + reads.size() + " queries, " + overlapping
+                + " while a batch was inserted; " + adapter.getLockStatistics());
+        assertTrue("no query completed while a batch was inserted", overlapping > 0);
+        // maintenance may take the lock as well
+        assertTrue(adapter.getLockAcquisitions() - acquisitions >= WRITERS * BATCHES);
+        assertTrue("concurrent writers not counted as contention",
+                adapter.getLockContentions() > contentions);
+    }
+
+    /**
+     * Insert batches of readings of metric, recording when each batch runs.
+     */
+    private void write(int metric) {
+        SampleBuffer batch = new SampleBuffer(BATCH_SIZE);
+        for (int i = 0; i < BATCHES; i++) {
+            batch.clear();
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                long reading = (long) i * BATCH_SIZE + j;
+                batch.append(metric, reading * PERIOD, (float) Math.sin(reading / 100.0));
+            }
+            long startTime = System.nanoTime();
+            long rows = adapter.insertBatchGroupData(monitor, batch);
+            batches.add(new long[] {startTime, System.nanoTime()});
+            assertEquals(BATCH_SIZE, rows);
+        }
+    }
+
+    /**
+     * Query readings of monitor, recording when the query ran.
+     */
+    private void read() {
+        long startTime = System.nanoTime();
+        int rows = count();
+        reads.add(new long[] {startTime, System.nanoTime()});
+        // batches are committed as a whole
+        assertEquals(0, rows % BATCH_SIZE);
+    }
+
+    private int count() {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(DataView.VIEW_SCALAR_DATA);
+        Cursor cursor = adapter.query(queryBuilder, new String[] {"count(*)"},
+                DataTable.COLUMN_MONITOR_ID + " = ?", new String[] {String.valueOf(monitor)},
+                null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Count queries which started and completed within a single batch insert,
+     * so did not wait for the writer lock held by it.
+     */
+    private int readsDuringBatches() {
+        int overlapping = 0;
+        for (long[] read : reads) {
+            for (long[] batch : batches) {
+                if (read[0] >= batch[0] && read[1] <= batch[1]) {
+                    overlapping++;
+                    break;
+                }
+            }
+        }
+        return overlapping;
+    }
+
+}
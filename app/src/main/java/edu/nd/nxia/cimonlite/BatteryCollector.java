@@ -0,0 +1,106 @@
+package edu.nd.nxia.cimonlite;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Collects battery readings independently of sensor events.
+ * Readings are taken on every battery broadcast, and at least once per
+ * period from a timer, then appended to the monitor's ingest pipeline.
+ * Receiver and timer both run on the sampling thread.
+ *
+ * @author ningxia
+ *
+ * @see MetricService
+ *
+ */
+public class BatteryCollector {
+
+    private static final String TAG = "NDroid";
+    private static final IntentFilter batteryIntentFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    private final Context context;
+    private final Handler handler;
+    private final MetricService metricService;
+    private final long period;
+    private boolean isActive;
+
+    /**
+     * Collects battery readings on sampling thread.
+     *
+     * @param context          application context
+     * @param handler          handler of sampling thread
+     * @param metricService    service readings are appended to
+     * @param period           maximum interval between readings (milliseconds)
+     */
+    public BatteryCollector(Context context, Handler handler, MetricService metricService,
+                            long period) {
+        this.context = context;
+        this.handler = handler;
+        this.metricService = metricService;
+        this.period = period;
+    }
+
+    public void start() {
+        isActive = true;
+        // sticky broadcast provides first reading
+        context.registerReceiver(batteryReceiver, batteryIntentFilter, null, handler);
+        handler.postDelayed(batteryTimer, period);
+    }
+
+    public void stop() {
+        isActive = false;
+        handler.removeCallbacks(batteryTimer);
+        context.unregisterReceiver(batteryReceiver);
+    }
+
+    /**
+     * Get current battery status without registering a receiver.
+     *
+     * @param context    application context
+     * @return    sticky battery intent, or null if not available
+     */
+    public static Intent getBatteryStatus(Context context) {
+        return context.registerReceiver(null, batteryIntentFilter);
+    }
+
+    private void getBatteryData(long timestamp, Intent intent) {
+        if (DebugLog.DEBUG) Log.d(TAG, "BatteryCollector.getBatteryData - updating battery values: " + timestamp);
+        if (intent == null) return;
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) return;
+        metricService.appendSample(Metrics.BATTERY_PERCENT, timestamp, level * 100 / scale);
+    }
+
+    /**
+     * Periodic reading, so that battery data keeps flowing between broadcasts.
+     */
+    private Runnable batteryTimer = new Runnable() {
+        @Override
+        public void run() {
+            if (isActive) {
+                getBatteryData(MetricService.elapsedRealtimeNanos(), getBatteryStatus(context));
+                handler.postDelayed(this, period);
+            }
+        }
+    };
+
+    /**
+     * BroadcastReceiver for receiving battery data updates.
+     */
+    private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isActive) {
+                getBatteryData(MetricService.elapsedRealtimeNanos(), intent);
+            }
+        }
+    };
+
+}
@@ -1,7 +1,5 @@
 package edu.nd.nxia.cimonlite;
 
-import android.os.SystemClock;
-
 import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
 
 /**
@@ -22,12 +20,12 @@ public class DataEntry<T> {
      * Time and value pair for a single data entry in the Data table.
      * Used to batch inserts for efficiency.
      *
-     * @param timestamp    timestamp of data acquisition
+     * @param timestamp    timestamp of data acquisition (nanoseconds, sensor event time base)
      * @param value    value acquired for metric
      */
     public DataEntry(int metricId, long timestamp, T value) {
         this.metricId = metricId;
-        this.timestamp = SystemClock.elapsedRealtime();
+        this.timestamp = timestamp;
         this.value = value;
     }
 
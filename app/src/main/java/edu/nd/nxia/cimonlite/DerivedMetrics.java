@@ -0,0 +1,176 @@
+package edu.nd.nxia.cimonlite;
+
+/**
+ * Registry of metrics which are computed from other metrics instead of stored.
+ * A derived metric is a pure function of the x, y and z values of a multi-axis
+ * metric group, so it is materialized when data is read.
+ * <p>
+ * The data view computes derived metrics in SQL, up to a final step SQLite
+ * cannot do, which is applied by {@link #finish} when rows are read. The SQL
+ * value of a magnitude is its square, which orders rows the same way.
+ *
+ * @author ningxia
+ *
+ * @see Metrics
+ *
+ */
+public final class DerivedMetrics {
+
+    /** Euclidean norm of x, y and z values. */
+    public static final int FUNCTION_MAGNITUDE = 0;
+
+    /** Derived metric ids, as defined in {@link Metrics}. */
+    private static final int[] METRICS = {
+            Metrics.ACCEL_MAGNITUDE,
+            Metrics.GYRO_MAGNITUDE
+    };
+    /** Metric group whose readings each derived metric is computed from. */
+    private static final int[] GROUPS = {
+            Metrics.ACCELEROMETER,
+            Metrics.GYROSCOPE
+    };
+    /** Function computing each derived metric. */
+    private static final int[] FUNCTIONS = {
+            FUNCTION_MAGNITUDE,
+            FUNCTION_MAGNITUDE
+    };
+    /** Column name used for each derived metric when exported alongside its group. */
+    private static final String[] NAMES = {
+            "magnitude",
+            "magnitude"
+    };
+
+    private DerivedMetrics() {
+    }
+
+    private static int indexOf(int metric) {
+        for (int i = 0; i < METRICS.length; i++) {
+            if (METRICS[i] == metric) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get all derived metrics.
+     *
+     * @return    ids of derived metrics
+     */
+    public static int[] getMetrics() {
+        return METRICS.clone();
+    }
+
+    /**
+     * Check if metric is computed on read rather than stored.
+     *
+     * @param metric    id of metric
+     * @return    true if metric is derived
+     */
+    public static boolean isDerived(int metric) {
+        return indexOf(metric) >= 0;
+    }
+
+    /**
+     * Get metric group a derived metric is computed from.
+     *
+     * @param metric    id of derived metric
+     * @return    id of source metric group, -1 if metric is not derived
+     */
+    public static int getGroup(int metric) {
+        int index = indexOf(metric);
+        return index < 0 ? -1 : GROUPS[index];
+    }
+
+    /**
+     * Get name of derived metric, used as column name when exporting group readings.
+     *
+     * @param metric    id of derived metric
+     * @return    name of derived metric, null if metric is not derived
+     */
+    public static String getName(int metric) {
+        int index = indexOf(metric);
+        return index < 0 ? null : NAMES[index];
+    }
+
+    /**
+     * Get all derived metrics computed from a metric group.
+     *
+     * @param group    id of metric group
+     * @return    ids of derived metrics, empty if there are none
+     */
+    public static int[] getDerived(int group) {
+        int count = 0;
+        for (int i = 0; i < GROUPS.length; i++) {
+            if (GROUPS[i] == group) count++;
+        }
+        int[] derived = new int[count];
+        count = 0;
+        for (int i = 0; i < GROUPS.length; i++) {
+            if (GROUPS[i] == group) derived[count++] = METRICS[i];
+        }
+        return derived;
+    }
+
+    /**
+     * Get SQL expression computing derived metric up to its final step.
+     *
+     * @param metric    id of derived metric
+     * @param x         x-axis column
+     * @param y         y-axis column
+     * @param z         z-axis column
+     * @return    expression on the columns, finished by {@link #finish}
+     */
+    public static String getExpression(int metric, String x, String y, String z) {
+        int index = indexOf(metric);
+        if (index < 0) {
+            throw new IllegalArgumentException("Metric is not derived: " + metric);
+        }
+        switch (FUNCTIONS[index]) {
+            case FUNCTION_MAGNITUDE:
+            default:
+                return x + " * " + x + " + " + y + " * " + y + " + " + z + " * " + z;
+        }
+    }
+
+    /**
+     * Finish value of derived metric computed by its SQL expression.
+     *
+     * @param metric    id of derived metric
+     * @param value     value of expression of {@link #getExpression}
+     * @return    value of derived metric
+     */
+    public static float finish(int metric, double value) {
+        int index = indexOf(metric);
+        if (index < 0) {
+            throw new IllegalArgumentException("Metric is not derived: " + metric);
+        }
+        switch (FUNCTIONS[index]) {
+            case FUNCTION_MAGNITUDE:
+            default:
+                return (float) Math.sqrt(value);
+        }
+    }
+
+    /**
+     * Compute value of derived metric from a reading of its metric group.
+     *
+     * @param metric    id of derived metric
+     * @param x         x-axis value of reading
+     * @param y         y-axis value of reading
+     * @param z         z-axis value of reading
+     * @return    value of derived metric
+     */
+    public static float compute(int metric, float x, float y, float z) {
+        int index = indexOf(metric);
+        if (index < 0) {
+            throw new IllegalArgumentException("Metric is not derived: " + metric);
+        }
+        switch (FUNCTIONS[index]) {
+            case FUNCTION_MAGNITUDE:
+            default:
+                return (float) Math.sqrt(x * x + y * y + z * z);
+        }
+    }
+
+}
@@ -36,6 +36,7 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 
 import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
+import edu.nd.nxia.cimonlite.database.DataStoreFactory;
 import edu.nd.nxia.cimonlite.database.DataTable;
 import edu.nd.nxia.cimonlite.database.LabelingDB;
 import edu.nd.nxia.cimonlite.database.LabelingHistory;
@@ -108,7 +109,7 @@ public class LabelingInterface extends Activity {
         // It is necessary, otherwise LabelingDB cannot be opened.
         CimonDatabaseAdapter.getInstance(MyApplication.getAppContext());
 
-        this.labelDB = new LabelingHistory();
+        this.labelDB = LabelingHistory.getInstance(this);
         this.statesDB = new LabelingDB();
         startService(new Intent(this, UploadingService.class));
         startService(new Intent(this, LabelingReminderService.class));
@@ -255,7 +256,11 @@ public class LabelingInterface extends Activity {
                     LoginButton.setEnabled(true);
                     if (!curWork.equals("Select Activity")) {
                         labelingStart = false;
-                        labelDB.insertData(work, startTime, endTime);
+                        DataStoreFactory.getInstance(getApplicationContext()).append(
+                                LabelingHistory.TABLE_NAME,
+                                new String[]{LabelingHistory.COLUMN_STATE,
+                                        LabelingHistory.COLUMN_START, LabelingHistory.COLUMN_END},
+                                new Object[]{work, startTime, endTime});
                     }
                     workSpinner.setSelection(0);
                 }
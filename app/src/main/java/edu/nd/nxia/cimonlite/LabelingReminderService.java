@@ -9,7 +9,6 @@ package edu.nd.nxia.cimonlite;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Vibrator;
@@ -18,6 +17,7 @@ import android.widget.Toast;
 
 import java.util.Calendar;
 
+import edu.nd.nxia.cimonlite.database.DataStoreFactory;
 import edu.nd.nxia.cimonlite.database.LabelingHistory;
 
 
@@ -82,11 +82,7 @@ public class LabelingReminderService extends Service {
         Calendar timeConverter = Calendar.getInstance();
         timeConverter.set(Calendar.HOUR_OF_DAY, 0);
         long startTime = timeConverter.getTimeInMillis();
-        if (LabelingHistory.db == null) {
-            LabelingHistory.open();
-        }
-        Cursor cursor = LabelingHistory.db.rawQuery("SELECT * FROM " + LabelingHistory.TABLE_NAME +
-                " WHERE " + LabelingHistory.COLUMN_START + " >= " + Long.toString(startTime) + ";", null);
-        return cursor.getCount();
+        return DataStoreFactory.getInstance(getApplicationContext()).count(
+                LabelingHistory.TABLE_NAME, LabelingHistory.COLUMN_START, startTime, Long.MAX_VALUE);
     }
 }
@@ -0,0 +1,79 @@
+package edu.nd.nxia.cimonlite;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Measures how late messages are dispatched on a looper thread.
+ * A probe message is scheduled periodically, and the delay between its
+ * scheduled and actual run time is recorded. A busy thread shows up as a
+ * growing mean and maximum delay.
+ *
+ * @author ningxia
+ *
+ */
+public class LooperLatencyProbe implements Runnable {
+
+    private final String name;
+    private final Handler handler;
+    private final long period;
+
+    private boolean running;
+    private long expected;
+    private long samples;
+    private long totalDelay;
+    private long maxDelay;
+
+    /**
+     * Measures dispatch delay of looper thread.
+     *
+     * @param name      name of thread, used in summary
+     * @param looper    looper of thread to measure
+     * @param period    interval between probe messages (milliseconds)
+     */
+    public LooperLatencyProbe(String name, Looper looper, long period) {
+        this.name = name;
+        this.handler = new Handler(looper);
+        this.period = period;
+    }
+
+    public synchronized void start() {
+        running = true;
+        samples = 0;
+        totalDelay = 0;
+        maxDelay = 0;
+        expected = SystemClock.uptimeMillis() + period;
+        handler.postAtTime(this, expected);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        handler.removeCallbacks(this);
+    }
+
+    @Override
+    public synchronized void run() {
+        if (!running) return;
+        long now = SystemClock.uptimeMillis();
+        long delay = now - expected;
+        samples++;
+        totalDelay += delay;
+        if (delay > maxDelay) {
+            maxDelay = delay;
+        }
+        expected = now + period;
+        handler.postAtTime(this, expected);
+    }
+
+    /**
+     * Get string summarizing dispatch delay of looper thread.
+     *
+     * @return    mean and maximum dispatch delay in milliseconds
+     */
+    public synchronized String getStatistics() {
+        double mean = samples > 0 ? (double) totalDelay / samples : 0;
+        return String.format("%s Thread Delay: %.2fms avg, %dms max", name, mean, maxDelay);
+    }
+
+}
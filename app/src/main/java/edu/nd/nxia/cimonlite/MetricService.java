@@ -1,9 +1,7 @@
 package edu.nd.nxia.cimonlite;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.hardware.Sensor;
@@ -11,68 +9,171 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
-import android.util.FloatMath;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
+import edu.nd.nxia.cimonlite.database.DataStoreFactory;
+import edu.nd.nxia.cimonlite.database.NotificationCoalescer;
 
 
 /**
- * Class for managing sensors
+ * Class for managing sensors.
+ * Sensors are registered once, at the fastest period requested by any running
+ * monitor, and each reading is fanned out to all monitors.
+ * <p>
+ * Besides the monitor selected in the sampling interface, monitors of other study
+ * protocols may be added with {@link #addMonitor(int)}. Their ids and sampling
+ * modes are kept in preferences, so they are resumed when monitoring is started
+ * again, until they are removed with {@link #removeMonitor(int)}.
  *
  * @author ningxia
+ *
+ * @see MonitorSession
  */
-public class MetricService implements SensorEventListener {
+public class MetricService implements SensorEventListener, SamplingGovernor.RateListener {
     private static final String TAG = "NDroid";
     private static final String SHARED_PREFS = "CimonSharedPrefs";
     private static final String PREF_VERSION = "version";
     private static final String SENSOR_RESULT = "sensor_result";
     private static final String RUNNING_MONITOR = "running_monitor";
+    /** Ids of monitors added by {@link #addMonitor(int)}, resumed on restart. */
+    private static final String ADDED_MONITORS = "added_monitors";
+    /** Prefix of sampling mode preference, followed by id of added monitor. */
+    private static final String MONITOR_MODE = "monitor_mode_";
     private static final String SENSOR_DELAY_MODE = "sensor_delay_mode";
+    private static final String WRITER_OVERFLOW_POLICY = "writer_overflow_policy";
+    private static final String MAX_REPORT_LATENCY = "max_report_latency";
+    private static final String ADAPTIVE_SAMPLING = "adaptive_sampling";
+    /** Prefix of sampling period preference, followed by id of metric group (microseconds). */
+    private static final String SAMPLING_PERIOD = "sampling_period_";
+    /**
+     * Drop readings arriving faster than requested even when the sensor is registered at
+     * the requested period, off by default; shared faster registrations are always decimated.
+     */
+    private static final String SAMPLING_DECIMATION = "sampling_decimation";
+    /** Minimum time between change notifications of the same content URI (milliseconds). */
+    private static final String NOTIFICATION_INTERVAL = "notification_interval";
+    /** Age after which raw readings are purged, keeping their rollups (days), 0 to keep. */
+    private static final String RAW_RETENTION_DAYS = "raw_retention_days";
+    /** Storage budget of database (megabytes), 0 for no limit. */
+    private static final String STORAGE_BUDGET_MB = "storage_budget_mb";
+    private static final int DEFAULT_STORAGE_BUDGET_MB = 1024;
+    /** Store sensor readings as integer multiples of sensor resolution. */
+    private static final String QUANTIZED_STORAGE = "quantized_storage";
+    /** Spool readings to a memory-mapped file until they are stored, for crash safety. */
+    private static final String SAMPLE_SPOOL = "sample_spool";
+    /** Readings held by spool, above what the storage writer queue and buffers can hold. */
+    private static final int SPOOL_CAPACITY = 32 * 1024;
     private static final int SUPPORTED = 1;
 
+    private static final long PROBE_PERIOD = 100;
+    /** Time without sensor events which ends a batched burst (milliseconds). */
+    private static final long BURST_GAP = 20;
+
     private Context context;
+    private Handler handler;
+    private LooperLatencyProbe mainProbe;
+    private LooperLatencyProbe samplingProbe;
 
     private static final int sensorDelay = SensorManager.SENSOR_DELAY_FASTEST;
+    /** Sampling mode which lets the sensor hub FIFO batch events (API 19+). */
+    public static final int SENSOR_DELAY_BATCH = 100;
+    /** Default maximum delay of batched events, in microseconds. */
+    private static final int DEFAULT_MAX_REPORT_LATENCY = 10 * 1000 * 1000;
+    /** Sensor delay of motion sensors while device is stationary, with adaptive sampling. */
+    private static final int STATIONARY_SENSOR_DELAY = SensorManager.SENSOR_DELAY_NORMAL;
     private static final int ACCEL_METRICS = 4;
     private static final int GYRO_METRICS = 4;
     private static final int BARO_METRICS = 1;
-    private static final int BATTERY_METRICS = 6;
     private SensorManager mSensorManager;
     private Sensor mAccelerometer;
     private Sensor mGyroscope;
     private Sensor mBarometer;
 
+    private static final int SENSORS = 3;
+    private static final int ACCELEROMETER = 0;
+    private static final int GYROSCOPE = 1;
+    private static final int BAROMETER = 2;
+    private static final int[] SENSOR_GROUPS = {
+            Metrics.ACCELEROMETER, Metrics.GYROSCOPE, Metrics.ATMOSPHERIC_PRESSURE};
+    /** Sensors whose rate follows the sampling governor. */
+    private static final boolean[] MOTION_SENSORS = {true, true, false};
+    /** Default minimum sampling period of each sensor (microseconds). */
+    private static final int[] DEFAULT_PERIODS = {0, 0, 1000 * 1000};
+    private final Sensor[] sensors = new Sensor[SENSORS];
+    /** Period each sensor is registered at, -1 if not registered (microseconds). */
+    private final int[] activePeriods = {-1, -1, -1};
+    /**
+     * Offset added to event timestamps of each sensor, moving them onto the elapsed
+     * realtime base, measured from the first event of the sensor (nanoseconds).
+     */
+    private final long[] timeOffsets = new long[SENSORS];
+    private final boolean[] timeOffsetsKnown = new boolean[SENSORS];
+    /** Delivery delay below which event timestamps are taken to be on elapsed realtime base. */
+    private static final long TIME_BASE_TOLERANCE = 1000L * 1000 * 1000;
+
+    /** Running monitors, by monitor id, owned by sampling thread. */
+    private final Map<Integer, MonitorSession> monitors = new HashMap<Integer, MonitorSession>();
+    /** Monitors readings are fanned out to, owned by sampling thread. */
+    private MonitorSession[] sessions = new MonitorSession[0];
+
     private long startTime;
-    private long endTime;
-    private long batteryTimer;
-    private boolean isActive;
-    private int numAccelerometer;
-    private int numGyroscope;
-    private int numBarometer;
+    private volatile boolean isActive;
+    private boolean batching;
+    /** True while looper latency probes run. */
+    private boolean probing;
+    private int maxLatency;
+    private SamplingGovernor governor;
+    private boolean stationary;
+    private boolean burstPending;
+    private int numBursts;
+    /** Uptime of last sensor event delivery (milliseconds). */
+    private long lastDelivery;
 
     CimonDatabaseAdapter database;
-    private static final int BATCH_SIZE = 1000;
-    private List<DataEntry> dataList;
-    private int monitorId;
 
     SharedPreferences appPrefs;
     SharedPreferences.Editor editor;
 
-    private static final IntentFilter batteryIntentFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-    private static Intent batteryStatus = null;
-    private static final int BATTERY_PERIOD = 1000 * 60;
+    private static final long BATTERY_PERIOD = 1000 * 60;
+    private BatteryCollector batteryCollector;
 
     public MetricService(Context ctx) {
+        this(ctx, Looper.getMainLooper());
+    }
+
+    /**
+     * Class for managing sensors, delivering sensor and battery callbacks on given looper.
+     *
+     * @param ctx       application context
+     * @param looper    looper of sampling thread
+     */
+    public MetricService(Context ctx, Looper looper) {
         this.context = ctx;
+        this.handler = new Handler(looper);
+        this.mainProbe = new LooperLatencyProbe("Main", Looper.getMainLooper(), PROBE_PERIOD);
+        this.samplingProbe = new LooperLatencyProbe("Sampling", looper, PROBE_PERIOD);
         initSensors();
 //        registerSensors(mode);
         database = CimonDatabaseAdapter.getInstance(context);
         appPrefs = context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+        database.setNotificationInterval(appPrefs.getLong(NOTIFICATION_INTERVAL,
+                NotificationCoalescer.DEFAULT_INTERVAL));
+        database.setRawRetention(appPrefs.getInt(RAW_RETENTION_DAYS, 0));
+        database.setStorageBudget(appPrefs.getInt(STORAGE_BUDGET_MB, DEFAULT_STORAGE_BUDGET_MB)
+                * 1024L * 1024L);
+        batteryCollector = new BatteryCollector(context, handler, this, BATTERY_PERIOD);
     }
 
     private void initSensors() {
@@ -80,73 +181,457 @@ public class MetricService implements SensorEventListener {
         mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         mGyroscope = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
         mBarometer = mSensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
-        batteryStatus = context.registerReceiver(batteryReceiver, batteryIntentFilter);
+        sensors[ACCELEROMETER] = mAccelerometer;
+        sensors[GYROSCOPE] = mGyroscope;
+        sensors[BAROMETER] = mBarometer;
     }
 
-    private void registerSensors(int mode) {
-        mSensorManager.registerListener(this, mAccelerometer, mode);
-        mSensorManager.registerListener(this, mGyroscope, mode);
-        mSensorManager.registerListener(this, mBarometer, mode);
+    /**
+     * Choose sampling period of each sensor for a monitor. An explicit period set in
+     * preferences is used as is. Otherwise the period of the selected mode is used, at
+     * least the default period of the sensor and the minimum interval of its metric group.
+     *
+     * @param mode    sampling mode selected for monitor
+     * @return    sampling period of each sensor (microseconds)
+     */
+    private int[] configurePeriods(int mode) {
+        int modePeriod = getDelayPeriod(mode == SENSOR_DELAY_BATCH ? SensorManager.SENSOR_DELAY_GAME : mode);
+        int[] periods = new int[SENSORS];
+        for (int i = 0; i < SENSORS; i++) {
+            int period = appPrefs.getInt(SAMPLING_PERIOD + SENSOR_GROUPS[i], -1);
+            if (period < 0) {
+                int minInterval = database.getMinInterval(SENSOR_GROUPS[i]);
+                period = Math.max(Math.max(modePeriod, DEFAULT_PERIODS[i]), minInterval * 1000);
+            }
+            periods[i] = period;
+            if (DebugLog.DEBUG) Log.d(TAG, "MetricService.configurePeriods - group:" + SENSOR_GROUPS[i] +
+                    " period:" + period + "us");
+        }
+        return periods;
     }
 
-    public void startMonitoring(int mode) {
-        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.startMonitoring - started");
-        //dataList = new ArrayList<>();
-        dataList = new ArrayList();
-        registerSensors(mode);
-        numAccelerometer = 0;
-        numGyroscope = 0;
-        numBarometer = 0;
-        isActive = true;
-        final long curTime = System.currentTimeMillis();
-        final long upTime = SystemClock.uptimeMillis();
-        int runningMonitor = appPrefs.getInt(RUNNING_MONITOR, -1);
-        if (runningMonitor == -1) {
-            monitorId = database.insertMonitor(curTime - upTime);
-            editor = appPrefs.edit();
-            editor.putInt(RUNNING_MONITOR, monitorId);
-            editor.commit();
+    /**
+     * Register each sensor at the fastest period requested by running monitors,
+     * re-registering only sensors whose period changed. Effective period of each
+     * monitor is recorded when it changes. Runs on sampling thread.
+     *
+     * @param timestamp    time of change (nanoseconds, elapsed realtime)
+     */
+    private void updateRegistrations(long timestamp) {
+        // delayed delivery only if every monitor accepts it
+        boolean batch = sessions.length > 0;
+        for (MonitorSession session : sessions) {
+            batch &= session.isBatching();
+        }
+        boolean batchChanged = batch != batching;
+        batching = batch;
+        updateProbes();
+        maxLatency = appPrefs.getInt(MAX_REPORT_LATENCY, DEFAULT_MAX_REPORT_LATENCY);
+        int stationaryPeriod = getDelayPeriod(STATIONARY_SENSOR_DELAY);
+        for (int i = 0; i < SENSORS; i++) {
+            if (sensors[i] == null) continue;
+            int period = -1;
+            for (MonitorSession session : sessions) {
+                period = period < 0 ? session.getPeriod(i) : Math.min(period, session.getPeriod(i));
+            }
+            if (period >= 0 && stationary && MOTION_SENSORS[i]) {
+                period = Math.max(period, stationaryPeriod);
+            }
+            if (period != activePeriods[i] || batchChanged) {
+                if (activePeriods[i] >= 0) {
+                    mSensorManager.unregisterListener(this, sensors[i]);
+                }
+                activePeriods[i] = period;
+                if (period >= 0) {
+                    registerSensor(sensors[i], period);
+                }
+            }
+            if (period < 0) continue;
+            for (MonitorSession session : sessions) {
+                if (session.setSharedPeriod(i, period)) {
+                    // sampling thread never waits for the writer lock
+                    database.postRateChange(session.getMonitorId(), SENSOR_GROUPS[i], timestamp,
+                            session.getActivePeriod(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Probe looper latency while monitors run unbatched. Batched monitors let the
+     * CPU sleep between bursts, which probe messages every {@value #PROBE_PERIOD}ms
+     * would prevent. Runs on sampling thread.
+     */
+    private void updateProbes() {
+        boolean probe = sessions.length > 0 && !batching;
+        if (probe == probing) return;
+        probing = probe;
+        if (probe) {
+            mainProbe.start();
+            samplingProbe.start();
+        }
+        else {
+            mainProbe.stop();
+            samplingProbe.stop();
+        }
+    }
+
+    /**
+     * Register sensor at given sampling period.
+     *
+     * @param sensor    sensor to register
+     * @param period    sampling period (microseconds)
+     */
+    private void registerSensor(Sensor sensor, int period) {
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.registerSensor - " + sensor.getName() +
+                " period:" + period + "us");
+        // periods 1 to 3 would be read as SensorManager delay constants
+        int samplingPeriod = period <= SensorManager.SENSOR_DELAY_NORMAL ? 0 : period;
+        if (batching) {
+            registerBatchedSensor(sensor, samplingPeriod);
         }
         else {
-            monitorId = runningMonitor;
+            mSensorManager.registerListener(this, sensor, samplingPeriod, handler);
+        }
+    }
+
+    /**
+     * Register sensor with maximum report latency, so that events are queued in
+     * the hardware FIFO and delivered in bursts. Falls back to regular delivery
+     * on systems without batching support.
+     *
+     * @param sensor    sensor to register
+     * @param period    sampling period (microseconds)
+     */
+    private void registerBatchedSensor(Sensor sensor, int period) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            if (DebugLog.DEBUG) Log.d(TAG, "MetricService.registerBatchedSensor - " + sensor.getName() +
+                    " fifo:" + sensor.getFifoMaxEventCount() + " latency:" + maxLatency);
+            mSensorManager.registerListener(this, sensor, period, maxLatency, handler);
+        }
+        else {
+            if (DebugLog.INFO) Log.i(TAG, "MetricService.registerBatchedSensor - batching not supported on this system");
+            mSensorManager.registerListener(this, sensor, period, handler);
+        }
+    }
+
+    /**
+     * Get sampling period requested by a sensor delay.
+     *
+     * @param delay    SensorManager delay constant, or period in microseconds
+     * @return    sampling period (microseconds)
+     */
+    static int getDelayPeriod(int delay) {
+        switch (delay) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return 0;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200000;
+            default:
+                return delay;
+        }
+    }
+
+    /**
+     * Switch motion sensors to rate chosen by sampling governor.
+     * While stationary, sensors requested slower than the stationary period keep their period.
+     * Runs on sampling thread, from within sensor callback.
+     */
+    @Override
+    public void onRateChanged(boolean stationary, long timestamp) {
+        if (!isActive) return;
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.onRateChanged - stationary:" + stationary);
+        this.stationary = stationary;
+        updateRegistrations(timestamp);
+    }
+
+    /**
+     * Start the monitor selected in the sampling interface, resuming the running
+     * monitor if the service was restarted, and resume added monitors. Monitors
+     * are inserted and started on the sampling thread, so the caller does not
+     * wait for the database or spool replay.
+     *
+     * @param mode    sampling mode
+     */
+    public void startMonitoring(final int mode) {
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.startMonitoring - started");
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                int runningMonitor = appPrefs.getInt(RUNNING_MONITOR, -1);
+                if (runningMonitor == -1) {
+                    int monitorId = insertMonitor();
+                    startSession(mode, monitorId, false);
+                    editor = appPrefs.edit();
+                    editor.putInt(RUNNING_MONITOR, monitorId);
+                    editor.commit();
+                }
+                else {
+                    startSession(mode, runningMonitor, true);
+                }
+                for (int monitorId : getAddedMonitors()) {
+                    if (!monitors.containsKey(monitorId)) {
+                        startSession(appPrefs.getInt(MONITOR_MODE + monitorId,
+                                SensorManager.SENSOR_DELAY_FASTEST), monitorId, true);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the running monitor, after pending callbacks and a pending start on the
+     * sampling thread. Summary of sampling rates is stored in preferences. Added
+     * monitors are stopped as well, and resumed by the next start.
+     */
+    public void stopMonitoring() {
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.stopMonitoring - stopped");
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                String result = stopSession(appPrefs.getInt(RUNNING_MONITOR, -1));
+                for (int monitorId : getAddedMonitors()) {
+                    stopSession(monitorId);
+                }
+
+                editor = appPrefs.edit();
+                editor.remove(RUNNING_MONITOR);
+                editor.remove(SENSOR_DELAY_MODE);
+                editor.remove(ADAPTIVE_SAMPLING);
+                editor.putString(SENSOR_RESULT, result);
+                editor.commit();
+            }
+        });
+    }
+
+    /**
+     * Start an additional monitor, sharing sensor registrations with running monitors.
+     * The monitor keeps running, and is resumed when monitoring is started again,
+     * until it is removed.
+     *
+     * @param mode    sampling mode of monitor
+     * @return    id of new monitor
+     */
+    public int addMonitor(final int mode) {
+        final int monitorId = insertMonitor();
+        synchronized (this) {
+            Set<String> added = new HashSet<String>(
+                    appPrefs.getStringSet(ADDED_MONITORS, new HashSet<String>()));
+            added.add(Integer.toString(monitorId));
+            appPrefs.edit()
+                    .putStringSet(ADDED_MONITORS, added)
+                    .putInt(MONITOR_MODE + monitorId, mode)
+                    .commit();
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                startSession(mode, monitorId, false);
+            }
+        });
+        return monitorId;
+    }
+
+    /**
+     * Stop monitor started by {@link #addMonitor(int)}, after pending callbacks, and
+     * forget it. The monitor selected in the sampling interface is stopped by
+     * {@link #stopMonitoring()} instead.
+     *
+     * @param monitorId    id of added monitor
+     * @return    true if monitor was an added monitor
+     */
+    public boolean removeMonitor(final int monitorId) {
+        synchronized (this) {
+            Set<String> added = new HashSet<String>(
+                    appPrefs.getStringSet(ADDED_MONITORS, new HashSet<String>()));
+            if (!added.remove(Integer.toString(monitorId))) {
+                if (DebugLog.WARNING) Log.w(TAG, "MetricService.removeMonitor - monitor "
+                        + monitorId + " was not added");
+                return false;
+            }
+            appPrefs.edit()
+                    .putStringSet(ADDED_MONITORS, added)
+                    .remove(MONITOR_MODE + monitorId)
+                    .commit();
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopSession(monitorId);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Get ids of monitors added by {@link #addMonitor(int)} and not removed.
+     */
+    private synchronized int[] getAddedMonitors() {
+        Set<String> added = appPrefs.getStringSet(ADDED_MONITORS, new HashSet<String>());
+        int[] ids = new int[added.size()];
+        int i = 0;
+        for (String id : added) {
+            ids[i++] = Integer.parseInt(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Insert new monitor into Monitor table.
+     *
+     * @return    id of monitor
+     */
+    private int insertMonitor() {
+        // anchor converting timestamps on elapsed realtime base to nanoseconds from epoch,
+        // sensor timestamps are moved onto that base, see getTimeOffset
+        int monitorId = database.insertMonitor(System.currentTimeMillis() * 1000000L
+                - elapsedRealtimeNanos());
+        if (appPrefs.getBoolean(QUANTIZED_STORAGE, false)) {
+            // steps are fixed for the lifetime of the monitor
+            database.quantizeMonitor(monitorId);
+        }
+        return monitorId;
+    }
+
+    /**
+     * Start session of monitor, fanning readings out to it. Runs on sampling thread.
+     *
+     * @param mode         sampling mode of monitor
+     * @param monitorId    id of monitor
+     * @param resumed      true if monitor was running before the service was restarted
+     */
+    private void startSession(int mode, int monitorId, boolean resumed) {
+        SampleSpool spool = null;
+        if (appPrefs.getBoolean(SAMPLE_SPOOL, true)) {
+            File file = new File(context.getFilesDir(), "spool_" + monitorId);
+            if (!resumed) {
+                file.delete();
+            }
+            try {
+                // readings of a resumed monitor left by the killed process are replayed
+                spool = new SampleSpool(file, monitorId, SPOOL_CAPACITY);
+            } catch (IOException e) {
+                if (DebugLog.WARNING) Log.w(TAG, "MetricService.startSession - spool disabled: "
+                        + e.toString());
+            }
+        }
+        StorageWriter.OverflowPolicy policy = getOverflowPolicy();
+        MonitorSession session = new MonitorSession(
+                DataStoreFactory.getInstance(context), monitorId,
+                mode == SENSOR_DELAY_BATCH, configurePeriods(mode),
+                appPrefs.getBoolean(SAMPLING_DECIMATION, false), policy, spool);
+        session.start();
+        monitors.put(monitorId, session);
+        attachSession(session);
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.startSession - monitor " + monitorId
+                + " resumed:" + resumed);
+    }
+
+    /**
+     * Get overflow policy of storage writer set in preferences.
+     *
+     * @return    selected policy, {@link StorageWriter.OverflowPolicy#BLOCK} if unset or invalid
+     */
+    private StorageWriter.OverflowPolicy getOverflowPolicy() {
+        String name = appPrefs.getString(WRITER_OVERFLOW_POLICY,
+                StorageWriter.OverflowPolicy.BLOCK.name());
+        try {
+            return StorageWriter.OverflowPolicy.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            if (DebugLog.WARNING) Log.w(TAG, "MetricService.getOverflowPolicy - invalid policy: "
+                    + name);
+        } catch (NullPointerException e) {
+            if (DebugLog.WARNING) Log.w(TAG, "MetricService.getOverflowPolicy - policy not set");
         }
-        startTime = System.currentTimeMillis();
-        batteryTimer = startTime;
+        return StorageWriter.OverflowPolicy.BLOCK;
     }
 
-    public String stopMonitoring() {
-        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.startMonitoring - stopped");
-        mSensorManager.unregisterListener(this);
-        context.unregisterReceiver(batteryReceiver);
-        endTime = System.currentTimeMillis();
-        double offset = (endTime - startTime) / 1000.0;
-        double rateAccelerometer = numAccelerometer / offset;
-        double rateGyroscope = numGyroscope / offset;
-        double rateBarometer = numBarometer / offset;
-        isActive = false;
+    /**
+     * Stop monitor and store its remaining readings. Runs on sampling thread.
+     *
+     * @param monitorId    id of monitor
+     * @return    summary of sampling rates, empty if monitor is not running
+     */
+    private String stopSession(int monitorId) {
+        if (DebugLog.DEBUG) Log.d(TAG, "MetricService.stopSession - monitor " + monitorId);
+        MonitorSession session = monitors.remove(monitorId);
+        if (session == null) return "";
+        double offset = (System.currentTimeMillis() - startTime) / 1000.0;
+        double rateWakeups = numBursts / (offset / 60.0);
         String result = String.format(
                 "Accelerometer Sampling Rate: %.2fHz\n" +
                         "Gyroscope Sampling Rate: %.2fHz\n" +
-                        "Barometer Sampling Rate: %.2fHz",
-                rateAccelerometer, rateGyroscope, rateBarometer
+                        "Barometer Sampling Rate: %.2fHz\n" +
+                        "Wake-ups: %.2f/min\n" +
+                        "Decimated: %d\n" +
+                        "%s\n%s",
+                session.getRate(ACCELEROMETER), session.getRate(GYROSCOPE),
+                session.getRate(BAROMETER), rateWakeups, session.getDecimated(),
+                mainProbe.getStatistics(), samplingProbe.getStatistics()
         );
-        if (dataList.size() > 0) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    database.insertBatchGroupData(monitorId, (ArrayList<DataEntry>) dataList);
-                }
-            }).start();
+        SamplingGovernor samplingGovernor = governor;
+        if (samplingGovernor != null) {
+            result += "\n" + samplingGovernor.getStatistics(elapsedRealtimeNanos());
         }
-
-        editor = appPrefs.edit();
-        editor.remove(RUNNING_MONITOR);
-        editor.remove(SENSOR_DELAY_MODE);
-        editor.putString(SENSOR_RESULT, result);
-        editor.commit();
+        detachSession(session);
         return result;
     }
 
+    /**
+     * Start fanning readings out to monitor. Runs on sampling thread.
+     */
+    private void attachSession(MonitorSession session) {
+        MonitorSession[] attached = new MonitorSession[sessions.length + 1];
+        System.arraycopy(sessions, 0, attached, 0, sessions.length);
+        attached[sessions.length] = session;
+        if (sessions.length == 0) {
+            numBursts = 0;
+            burstPending = false;
+            stationary = false;
+            startTime = System.currentTimeMillis();
+            if (appPrefs.getBoolean(ADAPTIVE_SAMPLING, false) && mAccelerometer != null) {
+                governor = new SamplingGovernor(this);
+            }
+            else {
+                governor = null;
+            }
+            for (int i = 0; i < SENSORS; i++) {
+                timeOffsetsKnown[i] = false;
+            }
+            isActive = true;
+            batteryCollector.start();
+        }
+        sessions = attached;
+        updateRegistrations(elapsedRealtimeNanos());
+    }
+
+    /**
+     * Stop fanning readings out to monitor, and store its remaining readings.
+     * Runs on sampling thread.
+     */
+    private void detachSession(MonitorSession session) {
+        int index = -1;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session) index = i;
+        }
+        if (index < 0) return;
+        MonitorSession[] attached = new MonitorSession[sessions.length - 1];
+        System.arraycopy(sessions, 0, attached, 0, index);
+        System.arraycopy(sessions, index + 1, attached, index, attached.length - index);
+        sessions = attached;
+        if (sessions.length == 0) {
+            isActive = false;
+            handler.removeCallbacks(burstCompleted);
+            batteryCollector.stop();
+        }
+        updateRegistrations(elapsedRealtimeNanos());
+        session.close();
+    }
+
     public void insertDatabaseEntries() {
         int storedVersion = appPrefs.getInt(PREF_VERSION, -1);
         int appVersion = -1;
@@ -160,80 +645,13 @@ public class MetricService implements SensorEventListener {
         if (appVersion > storedVersion) {
             new Thread(new Runnable() {
                 public void run() {
-                    String[] metrics = {"X", "Y", "Z", "Magnitude"};
-
-                    // Accelerometer
-                    // insert metric group information in database
-                    if (mAccelerometer == null) {
-                        if (DebugLog.INFO) Log.i(TAG, "AccelerometerService - sensor not supported on this system");
-                    }
-                    else {
-                        if (DebugLog.DEBUG) Log.d(TAG, "AccelerometerService.insertDatabaseEntries - insert entries");
-                        database.insertOrReplaceMetricInfo(Metrics.ACCELEROMETER, "Accelerometer", mAccelerometer.getName(),
-                                SUPPORTED, mAccelerometer.getPower(), mAccelerometer.getMinDelay()/1000,
-                                mAccelerometer.getMaximumRange() + " " + context.getString(R.string.units_ms2),
-                                mAccelerometer.getResolution() + " " + context.getString(R.string.units_ms2),
-                                Metrics.TYPE_SENSOR);
-                        // insert information for metrics in group into database
-                        for (int i = 0; i < ACCEL_METRICS; i++) {
-                            database.insertOrReplaceMetrics(Metrics.ACCELEROMETER + i, Metrics.ACCELEROMETER, metrics[i],
-                                    context.getString(R.string.units_ms2), mAccelerometer.getMaximumRange());
-                        }
+                    // observers are notified once, after all metrics are loaded
+                    database.beginBulkLoad();
+                    try {
+                        insertMetricEntries();
+                    } finally {
+                        database.endBulkLoad();
                     }
-
-                    // Gyroscope
-                    // insert metric group information in database
-                    if (mGyroscope == null) {
-                        if (DebugLog.INFO) Log.i(TAG, "GyroscopeService - sensor not supported on this system");
-                    }
-                    else {
-                        if (DebugLog.DEBUG) Log.d(TAG, "GyroscopeService.insertDatabaseEntries - insert entries");
-                        database.insertOrReplaceMetricInfo(Metrics.GYROSCOPE, "Gyroscope", mGyroscope.getName(),
-                                SUPPORTED, mGyroscope.getPower(), mGyroscope.getMinDelay() / 1000,
-                                mGyroscope.getMaximumRange() + " " + context.getString(R.string.units_rads),
-                                mGyroscope.getResolution() + " " + context.getString(R.string.units_rads),
-                                Metrics.TYPE_SENSOR);
-                        // insert information for metrics in group into database
-                        for (int i = 0; i < GYRO_METRICS; i++) {
-                            database.insertOrReplaceMetrics(Metrics.GYROSCOPE + i, Metrics.GYROSCOPE, metrics[i],
-                                    context.getString(R.string.units_rads), mGyroscope.getMaximumRange());
-                        }
-                    }
-
-                    // Barometer
-                    // insert metric group information in database
-                    if (mBarometer == null) {
-                        if (DebugLog.INFO) Log.i(TAG, "BarometerService - sensor not supported on this system");
-                    }
-                    else {
-                        if (DebugLog.DEBUG) Log.d(TAG, "BarometerService.insertDatabaseEntries - insert entries");
-                        database.insertOrReplaceMetricInfo(Metrics.ATMOSPHERIC_PRESSURE, "Pressure", mBarometer.getName(),
-                                SUPPORTED, mBarometer.getPower(), mBarometer.getMinDelay() / 1000,
-                                mBarometer.getMaximumRange() + " " + context.getString(R.string.units_hpa),
-                                mBarometer.getResolution() + " " + context.getString(R.string.units_hpa),
-                                Metrics.TYPE_SENSOR);
-                        // insert information for metrics in group into database
-                        database.insertOrReplaceMetrics(Metrics.ATMOSPHERIC_PRESSURE, Metrics.ATMOSPHERIC_PRESSURE, "Atmosphere pressure",
-                                context.getString(R.string.units_hpa), mBarometer.getMaximumRange());
-                    }
-
-                    // Battery
-                    // insert metric group information in database
-                    database.insertOrReplaceMetricInfo(Metrics.BATTERY_CATEGORY, "Battery", getTechnology(),
-                            SUPPORTED, 0, 0, "100 %", "1 %", Metrics.TYPE_SYSTEM);
-                    // insert information for metrics in group into database
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_PERCENT, Metrics.BATTERY_CATEGORY,
-                            "Battery level", context.getString(R.string.units_percent), 100);
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_STATUS, Metrics.BATTERY_CATEGORY,
-                            "Status", "", 5);
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_PLUGGED, Metrics.BATTERY_CATEGORY,
-                            "Plugged status", "", 2);
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_HEALTH, Metrics.BATTERY_CATEGORY,
-                            "Health", "", 7);
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_TEMPERATURE, Metrics.BATTERY_CATEGORY,
-                            "Temperature", context.getString(R.string.units_celcius), 100);
-                    database.insertOrReplaceMetrics(Metrics.BATTERY_VOLTAGE, Metrics.BATTERY_CATEGORY,
-                            "Voltage", context.getString(R.string.units_volts), 10);
                 }
             }).start();
             SharedPreferences.Editor editor = appPrefs.edit();
@@ -242,34 +660,96 @@ public class MetricService implements SensorEventListener {
         }
     }
 
-    private void getAccelData(SensorEvent event, long timestamp) {
-        float magnitude = 0;
-        Float values[] = new Float[ACCEL_METRICS];
-        for (int i = 0; i < (ACCEL_METRICS - 1); i++) {
-            values[i] = event.values[i];
-            magnitude += event.values[i] * event.values[i];
+    /**
+     * Insert information of metric groups and their metrics into database.
+     */
+    private void insertMetricEntries() {
+        String[] metrics = {"X", "Y", "Z", "Magnitude"};
+
+        // Accelerometer
+        // insert metric group information in database
+        if (mAccelerometer == null) {
+            if (DebugLog.INFO) Log.i(TAG, "AccelerometerService - sensor not supported on this system");
+        }
+        else {
+            if (DebugLog.DEBUG) Log.d(TAG, "AccelerometerService.insertDatabaseEntries - insert entries");
+            database.insertOrReplaceMetricInfo(Metrics.ACCELEROMETER, "Accelerometer", mAccelerometer.getName(),
+                    SUPPORTED, mAccelerometer.getPower(), mAccelerometer.getMinDelay()/1000,
+                    mAccelerometer.getMaximumRange() + " " + context.getString(R.string.units_ms2),
+                    mAccelerometer.getResolution() + " " + context.getString(R.string.units_ms2),
+                    Metrics.TYPE_SENSOR);
+            // insert information for metrics in group into database
+            for (int i = 0; i < ACCEL_METRICS; i++) {
+                database.insertOrReplaceMetrics(Metrics.ACCELEROMETER + i, Metrics.ACCELEROMETER, metrics[i],
+                        context.getString(R.string.units_ms2), mAccelerometer.getMaximumRange());
+            }
+        }
+
+        // Gyroscope
+        // insert metric group information in database
+        if (mGyroscope == null) {
+            if (DebugLog.INFO) Log.i(TAG, "GyroscopeService - sensor not supported on this system");
         }
-        values[ACCEL_METRICS - 1] = FloatMath.sqrt(magnitude);
-        for (int i = 0; i < ACCEL_METRICS; i ++) {
-            dataList.add(new DataEntry(Metrics.ACCELEROMETER + i, timestamp, values[i]));
+        else {
+            if (DebugLog.DEBUG) Log.d(TAG, "GyroscopeService.insertDatabaseEntries - insert entries");
+            database.insertOrReplaceMetricInfo(Metrics.GYROSCOPE, "Gyroscope", mGyroscope.getName(),
+                    SUPPORTED, mGyroscope.getPower(), mGyroscope.getMinDelay() / 1000,
+                    mGyroscope.getMaximumRange() + " " + context.getString(R.string.units_rads),
+                    mGyroscope.getResolution() + " " + context.getString(R.string.units_rads),
+                    Metrics.TYPE_SENSOR);
+            // insert information for metrics in group into database
+            for (int i = 0; i < GYRO_METRICS; i++) {
+                database.insertOrReplaceMetrics(Metrics.GYROSCOPE + i, Metrics.GYROSCOPE, metrics[i],
+                        context.getString(R.string.units_rads), mGyroscope.getMaximumRange());
+            }
         }
-    }
 
-    private void getGyroData(SensorEvent event, long timestamp) {
-        float magnitude = 0;
-        Float values[] = new Float[GYRO_METRICS];
-        for (int i = 0; i < (GYRO_METRICS - 1); i++) {
-            values[i] = event.values[i];
-            magnitude += event.values[i] * event.values[i];
+        // Barometer
+        // insert metric group information in database
+        if (mBarometer == null) {
+            if (DebugLog.INFO) Log.i(TAG, "BarometerService - sensor not supported on this system");
         }
-        values[GYRO_METRICS - 1] = FloatMath.sqrt(magnitude);
-        for (int i = 0; i < GYRO_METRICS; i ++) {
-            dataList.add(new DataEntry(Metrics.GYROSCOPE + i, timestamp, values[i]));
+        else {
+            if (DebugLog.DEBUG) Log.d(TAG, "BarometerService.insertDatabaseEntries - insert entries");
+            database.insertOrReplaceMetricInfo(Metrics.ATMOSPHERIC_PRESSURE, "Pressure", mBarometer.getName(),
+                    SUPPORTED, mBarometer.getPower(), mBarometer.getMinDelay() / 1000,
+                    mBarometer.getMaximumRange() + " " + context.getString(R.string.units_hpa),
+                    mBarometer.getResolution() + " " + context.getString(R.string.units_hpa),
+                    Metrics.TYPE_SENSOR);
+            // insert information for metrics in group into database
+            database.insertOrReplaceMetrics(Metrics.ATMOSPHERIC_PRESSURE, Metrics.ATMOSPHERIC_PRESSURE, "Atmosphere pressure",
+                    context.getString(R.string.units_hpa), mBarometer.getMaximumRange());
         }
+
+        // Battery
+        // insert metric group information in database
+        database.insertOrReplaceMetricInfo(Metrics.BATTERY_CATEGORY, "Battery", getTechnology(),
+                SUPPORTED, 0, 0, "100 %", "1 %", Metrics.TYPE_SYSTEM);
+        // insert information for metrics in group into database
+        database.insertOrReplaceMetrics(Metrics.BATTERY_PERCENT, Metrics.BATTERY_CATEGORY,
+                "Battery level", context.getString(R.string.units_percent), 100);
+        database.insertOrReplaceMetrics(Metrics.BATTERY_STATUS, Metrics.BATTERY_CATEGORY,
+                "Status", "", 5);
+        database.insertOrReplaceMetrics(Metrics.BATTERY_PLUGGED, Metrics.BATTERY_CATEGORY,
+                "Plugged status", "", 2);
+        database.insertOrReplaceMetrics(Metrics.BATTERY_HEALTH, Metrics.BATTERY_CATEGORY,
+                "Health", "", 7);
+        database.insertOrReplaceMetrics(Metrics.BATTERY_TEMPERATURE, Metrics.BATTERY_CATEGORY,
+                "Temperature", context.getString(R.string.units_celcius), 100);
+        database.insertOrReplaceMetrics(Metrics.BATTERY_VOLTAGE, Metrics.BATTERY_CATEGORY,
+                "Voltage", context.getString(R.string.units_volts), 10);
     }
 
-    private void getBaroData(SensorEvent event, long timestamp) {
-        dataList.add(new DataEntry(Metrics.ATMOSPHERIC_PRESSURE + 0, timestamp, event.values[0]));
+    /**
+     * Get time since boot in nanoseconds, the time base of sensor event timestamps.
+     *
+     * @return    elapsed realtime (nanoseconds)
+     */
+    static long elapsedRealtimeNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
     }
 
     /**
@@ -278,90 +758,123 @@ public class MetricService implements SensorEventListener {
      * @return    technology description of battery
      */
     private String getTechnology() {
+        Intent batteryStatus = BatteryCollector.getBatteryStatus(context);
+        if (batteryStatus == null)
+            return " ";
         String technology = batteryStatus.getStringExtra(BatteryManager.EXTRA_TECHNOLOGY);
         if (technology == null)
             return " ";
         return technology;
     }
 
-    private void getBatteryData(long timestamp, Intent intent) {
-        if (DebugLog.DEBUG) Log.d(TAG, "BatteryService.batteryReceiver - updating battery values: " + timestamp);
-        Integer values[] = new Integer[BATTERY_METRICS];
-        if (intent == null) return;
-        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        values[Metrics.BATTERY_STATUS - Metrics.BATTERY_CATEGORY] = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-        values[Metrics.BATTERY_PLUGGED - Metrics.BATTERY_CATEGORY] = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-        values[Metrics.BATTERY_HEALTH - Metrics.BATTERY_CATEGORY] = intent.getIntExtra(BatteryManager.EXTRA_HEALTH, -1);
-        // temperature returned is tenths of a degree centigrade.
-        //  temp = value / 10 (degrees celcius)
-        float temp = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1);
-        float temperature = temp / 10.0f;
-        // voltage returned is millivolts
-        float volt = intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, -1);
-        float voltage = volt / 1000.0f;
-        values[Metrics.BATTERY_PERCENT - Metrics.BATTERY_CATEGORY] = level * 100 / scale;
-//        for (int i = 0; i < BATTERY_METRICS; i ++) {
-//            dataList.add(new DataEntry(Metrics.BATTERY_PERCENT, timestamp, values[i]));
-//        }
-        dataList.add(new DataEntry(Metrics.BATTERY_PERCENT, timestamp, values[0]));
+
+    /**
+     * Append reading collected outside of sensor callbacks, such as battery data,
+     * to all running monitors. Must be called on sampling thread.
+     *
+     * @param metric       id of metric
+     * @param timestamp    timestamp of data acquisition (nanoseconds, elapsed realtime)
+     * @param value        value acquired for metric
+     */
+    void appendSample(int metric, long timestamp, float value) {
+        if (!isActive) return;
+        for (MonitorSession session : sessions) {
+            session.append(metric, timestamp, value, true);
+        }
     }
 
     /**
-     * BroadcastReceiver for receiving battery data updates.
+     * Runs once all sensor events delivered in the same burst have been appended,
+     * that is once no event was delivered for {@link #BURST_GAP}.
+     * Posted once per burst, and again only while events keep arriving.
      */
-    private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+    private Runnable burstCompleted = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (isActive) {
-                long upTime = SystemClock.uptimeMillis();
-                getBatteryData(upTime, intent);
+        public void run() {
+            long quiet = SystemClock.uptimeMillis() - lastDelivery;
+            if (quiet < BURST_GAP) {
+                handler.postDelayed(this, BURST_GAP - quiet);
+                return;
+            }
+            burstPending = false;
+            for (MonitorSession session : sessions) {
+                session.onBurstCompleted();
             }
         }
     };
 
+    private static int getSensorIndex(int type) {
+        switch (type) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return ACCELEROMETER;
+            case Sensor.TYPE_GYROSCOPE:
+                return GYROSCOPE;
+            case Sensor.TYPE_PRESSURE:
+                return BAROMETER;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Get offset moving event timestamps of sensor onto elapsed realtime base.
+     * Before API 24 event timestamps are not guaranteed to use elapsed realtime,
+     * many devices use uptime or a clock of the sensor hub. The offset is measured
+     * once, as the elapsed realtime at delivery of the first event minus its timestamp.
+     * Offsets within the delivery delay (including the report latency of batched
+     * events) are taken as zero, so events of sensors already on elapsed realtime
+     * are not skewed by the delivery delay.
+     *
+     * @param sensor       index of sensor
+     * @param timestamp    timestamp of event (nanoseconds)
+     * @return    offset added to event timestamps (nanoseconds)
+     */
+    private long getTimeOffset(int sensor, long timestamp) {
+        if (!timeOffsetsKnown[sensor]) {
+            long offset = elapsedRealtimeNanos() - timestamp;
+            long tolerance = TIME_BASE_TOLERANCE + (batching ? maxLatency * 1000L : 0);
+            timeOffsets[sensor] = Math.abs(offset) <= tolerance ? 0 : offset;
+            timeOffsetsKnown[sensor] = true;
+            if (timeOffsets[sensor] != 0 && DebugLog.INFO) Log.i(TAG,
+                    "MetricService.getTimeOffset - sensor " + sensor + " timestamps offset by "
+                    + timeOffsets[sensor] + "ns");
+        }
+        return timeOffsets[sensor];
+    }
+
     @Override
     public void onSensorChanged(SensorEvent event) {
-        Sensor sensor = event.sensor;
-
-        if (isActive) {
-            long upTime = SystemClock.uptimeMillis();
-            switch (sensor.getType()) {
-                case Sensor.TYPE_ACCELEROMETER:
-                    getAccelData(event, upTime);
-                    numAccelerometer ++;
-//                    Log.d(TAG, "Accelerometer: " + curTime);
-                    break;
-                case Sensor.TYPE_GYROSCOPE:
-                    getGyroData(event, upTime);
-                    numGyroscope ++;
-//                    Log.d(TAG, "Gyroscope: " + curTime);
-                    break;
-                case Sensor.TYPE_PRESSURE:
-                    getBaroData(event, upTime);
-                    numBarometer ++;
-//                    Log.d(TAG, "Barometer: " + curTime);
-                    break;
-                default:
-            }
+        if (!isActive) return;
+        int index = getSensorIndex(event.sensor.getType());
+        if (index < 0) return;
 
-            long curTime = System.currentTimeMillis();
-            if (curTime - batteryTimer >= BATTERY_PERIOD) {
-                batteryStatus = context.registerReceiver(null, batteryIntentFilter);
-                getBatteryData(upTime, batteryStatus);
-                batteryTimer = curTime;
+        if (!batching) {
+            // each event is delivered on its own
+            numBursts ++;
+        }
+        else {
+            // events drained from the sensor FIFO together form one burst (one wake-up)
+            lastDelivery = SystemClock.uptimeMillis();
+            if (!burstPending) {
+                burstPending = true;
+                numBursts ++;
+                handler.postDelayed(burstCompleted, BURST_GAP);
             }
-
-            if (dataList.size() >= BATCH_SIZE) {
-                //final ArrayList<DataEntry> dl = new ArrayList<>(dataList);
-                final ArrayList<DataEntry> dl = new ArrayList(dataList);
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        database.insertBatchGroupData(monitorId, dl);
-                    }
-                }).start();
-                dataList.clear();
+        }
+        long timestamp = event.timestamp + getTimeOffset(index, event.timestamp);
+        float[] values = event.values;
+        if (index == ACCELEROMETER && governor != null) {
+            governor.onAccelerometer(timestamp, values[0], values[1], values[2]);
+        }
+        // magnitude is derived on read, see DerivedMetrics
+        for (MonitorSession session : sessions) {
+            if (!session.accept(index, timestamp)) continue;
+            if (index == BAROMETER) {
+                session.append(SENSOR_GROUPS[index], timestamp, values[0], batching);
+            }
+            else {
+                session.append(SENSOR_GROUPS[index], timestamp, values[0], values[1], values[2],
+                        batching);
             }
         }
     }
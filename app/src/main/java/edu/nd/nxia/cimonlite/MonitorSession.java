@@ -0,0 +1,248 @@
+package edu.nd.nxia.cimonlite;
+
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.database.DataStore;
+
+/**
+ * State of a single logical monitor fed from shared sensor registrations.
+ * Each session has its own monitor id, sampling periods, decimation, sample
+ * buffer and storage writer. Readings are delivered by {@link MetricService}
+ * at the rate of the fastest session, and every session decimates them down
+ * to its own period.
+ * <p>
+ * Except for construction, {@link #start()} and statistics getters, methods
+ * must be called on the sampling thread.
+ * <p>
+ * If the session has a {@link SampleSpool}, every reading is spooled before
+ * it is batched, and readings left in the spool by a previous process are
+ * stored by the storage writer when the session starts.
+ *
+ * @author ningxia
+ *
+ * @see MetricService
+ * @see StorageWriter
+ *
+ */
+public class MonitorSession {
+
+    private static final String TAG = "NDroid";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int WRITER_QUEUE_SIZE = 16;
+    private static final int WRITER_POOL_SIZE = 3;
+    /** Rows appended to sample buffer by a single event (vector sensors use one row). */
+    private static final int MAX_EVENT_METRICS = 1;
+
+    private final int monitorId;
+    private final boolean batching;
+    private final boolean decimation;
+    /** Requested sampling period of each sensor (microseconds). */
+    private final int[] periods;
+    /** Effective sampling period of each sensor, -1 if not registered (microseconds). */
+    private final int[] activePeriods;
+    /** Minimum time between stored readings of each sensor, 0 to store all (nanoseconds). */
+    private final long[] minGaps;
+    private final long[] lastTimestamps;
+    private final int[] counts;
+    private int numDecimated;
+    private long startTime;
+
+    private final StorageWriter storageWriter;
+    private final SampleSpool spool;
+    private SampleBuffer sampleBuffer;
+
+    /**
+     * State of a single logical monitor.
+     *
+     * @param store         data store readings are appended to
+     * @param monitorId     id of monitor
+     * @param batching      true if monitor accepts batched (delayed) delivery
+     * @param periods       requested sampling period of each sensor (microseconds)
+     * @param decimation    true to drop readings arriving faster than requested,
+     *                      even when the shared registration matches the requested period
+     * @param policy        action taken when storage writer queue is full
+     * @param spool         spool of readings not yet stored, owned by session,
+     *                      null to keep them only in memory
+     */
+    public MonitorSession(DataStore store, int monitorId, boolean batching,
+                          int[] periods, boolean decimation, StorageWriter.OverflowPolicy policy,
+                          SampleSpool spool) {
+        this.monitorId = monitorId;
+        this.batching = batching;
+        this.decimation = decimation;
+        this.periods = periods;
+        this.activePeriods = new int[periods.length];
+        this.minGaps = new long[periods.length];
+        this.lastTimestamps = new long[periods.length];
+        this.counts = new int[periods.length];
+        for (int i = 0; i < periods.length; i++) {
+            activePeriods[i] = -1;
+        }
+        this.spool = spool;
+        this.storageWriter = new StorageWriter(store, monitorId, WRITER_QUEUE_SIZE, policy,
+                BATCH_SIZE + MAX_EVENT_METRICS, WRITER_POOL_SIZE, spool);
+    }
+
+    public void start() {
+        storageWriter.start();
+        sampleBuffer = storageWriter.obtain();
+        if (spool != null) {
+            sampleBuffer.spoolStart = spool.getWriteCursor();
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    public int getMonitorId() {
+        return monitorId;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public int getPeriod(int sensor) {
+        return periods[sensor];
+    }
+
+    public int getActivePeriod(int sensor) {
+        return activePeriods[sensor];
+    }
+
+    /**
+     * Update effective period of sensor after its shared registration changed.
+     *
+     * @param sensor          index of sensor
+     * @param sharedPeriod    period of shared registration (microseconds)
+     * @return    true if effective period of this session changed
+     */
+    public boolean setSharedPeriod(int sensor, int sharedPeriod) {
+        int period = Math.max(periods[sensor], sharedPeriod);
+        // decimate only faster shared registrations unless requested, events closer
+        // than 90% of the period are dropped, to allow for jitter
+        minGaps[sensor] = decimation || period > sharedPeriod ? period * 900L : 0;
+        if (period == activePeriods[sensor]) {
+            return false;
+        }
+        activePeriods[sensor] = period;
+        lastTimestamps[sensor] = 0;
+        return true;
+    }
+
+    /**
+     * Check if reading of sensor should be stored by this session.
+     *
+     * @param sensor       index of sensor
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @return    false if reading is decimated
+     */
+    public boolean accept(int sensor, long timestamp) {
+        if (minGaps[sensor] > 0 && timestamp - lastTimestamps[sensor] < minGaps[sensor]) {
+            numDecimated++;
+            return false;
+        }
+        lastTimestamps[sensor] = timestamp;
+        counts[sensor]++;
+        return true;
+    }
+
+    /**
+     * Append reading of single metric sensor.
+     *
+     * @param metric       id of metric
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param value        value of reading
+     * @param burst        true if reading is part of a batched burst, flushed when burst completes
+     */
+    public void append(int metric, long timestamp, float value, boolean burst) {
+        sampleBuffer.append(metric, timestamp, value);
+        if (spool != null) {
+            spool.append(metric, timestamp, value, 0, 0, false);
+        }
+        flushIfNeeded(burst);
+    }
+
+    /**
+     * Append reading of multi-axis sensor.
+     *
+     * @param group        id of metric group
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param x            x-axis value
+     * @param y            y-axis value
+     * @param z            z-axis value
+     * @param burst        true if reading is part of a batched burst, flushed when burst completes
+     */
+    public void append(int group, long timestamp, float x, float y, float z, boolean burst) {
+        sampleBuffer.append(group, timestamp, x, y, z);
+        if (spool != null) {
+            spool.append(group, timestamp, x, y, z, true);
+        }
+        flushIfNeeded(burst);
+    }
+
+    private void flushIfNeeded(boolean burst) {
+        // in batching mode the whole burst is appended before flushing
+        if (burst ? sampleBuffer.remaining() <= MAX_EVENT_METRICS
+                : sampleBuffer.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * All readings delivered in the same burst have been appended.
+     */
+    public void onBurstCompleted() {
+        if (sampleBuffer.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand filled buffer over to storage writer and continue with a recycled one.
+     */
+    private void flush() {
+        SampleBuffer batch = sampleBuffer;
+        sampleBuffer = storageWriter.obtain();
+        if (spool != null) {
+            batch.spoolEnd = spool.getWriteCursor();
+            sampleBuffer.spoolStart = batch.spoolEnd;
+        }
+        storageWriter.submit(batch);
+    }
+
+    /**
+     * Store remaining readings and stop storage writer.
+     */
+    public void close() {
+        if (!sampleBuffer.isEmpty()) {
+            flush();
+        }
+        storageWriter.shutdown();
+        if (DebugLog.DEBUG) Log.d(TAG, "MonitorSession.close - monitor " + monitorId + ": "
+                + storageWriter.getStatistics());
+    }
+
+    /**
+     * Get rate of stored readings of sensor since session started.
+     *
+     * @param sensor    index of sensor
+     * @return    readings per second
+     */
+    public double getRate(int sensor) {
+        return counts[sensor] / getDuration();
+    }
+
+    public int getDecimated() {
+        return numDecimated;
+    }
+
+    /**
+     * Get time since session started.
+     *
+     * @return    duration (seconds)
+     */
+    public double getDuration() {
+        return (System.currentTimeMillis() - startTime) / 1000.0;
+    }
+
+}
@@ -63,7 +63,8 @@ public class NDroidService extends Service {
         appPrefs = getSharedPreferences(SHARED_PREFS, MODE_PRIVATE);
         powerManager = (PowerManager) context.getSystemService(POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK);
-        wakeLock.acquire();
+        // acquired once however often the service is started
+        wakeLock.setReferenceCounted(false);
         if (!serviceThread.isAlive()) {
             serviceThread.start();
         }
@@ -72,8 +73,19 @@ public class NDroidService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (DebugLog.DEBUG) Log.d(TAG, "NDroidService.onStartCommand - started");
-        metricService = new MetricService(context);
+        metricService = new MetricService(context, serviceThread.getLooper());
         int mode = appPrefs.getInt(SENSOR_DELAY_MODE, SensorManager.SENSOR_DELAY_FASTEST);
+        if (mode == MetricService.SENSOR_DELAY_BATCH) {
+            // sensor hub FIFO holds readings while CPU sleeps, and wakes it to flush them
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        }
+        else {
+            wakeLock.acquire();
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "NDroidService.onStartCommand - wake lock held: "
+                + wakeLock.isHeld());
         metricService.startMonitoring(mode);
         return super.onStartCommand(intent, flags, startId);
     }
@@ -82,7 +94,9 @@ public class NDroidService extends Service {
     public void onDestroy() {
         if (DebugLog.DEBUG) Log.d(TAG, "NDroidService.onDestroy - stopped");
         metricService.stopMonitoring();
-        wakeLock.release();
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
         super.onDestroy();
     }
 }
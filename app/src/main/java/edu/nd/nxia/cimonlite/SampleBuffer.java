@@ -0,0 +1,121 @@
+package edu.nd.nxia.cimonlite;
+
+import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
+import edu.nd.nxia.cimonlite.database.VectorDataTable;
+
+/**
+ * Preallocated buffer of readings for the Data and VectorData tables.
+ * Readings are kept in parallel primitive arrays, so that appending from
+ * the sensor callback does not allocate any objects.
+ * <p>
+ * A row is either a single metric reading (stored in {@link #value}), or a
+ * reading of a multi-axis sensor group (stored in {@link #value}, {@link #valueY}
+ * and {@link #valueZ}, with {@link #vector} set).
+ *
+ * @author ningxia
+ *
+ * @see CimonDatabaseAdapter
+ * @see VectorDataTable
+ *
+ */
+public class SampleBuffer {
+
+    /** Id of metric, or id of metric group for vector rows. */
+    public final int[] metricId;
+    public final long[] timestamp;
+    /** Value of metric, or x-axis value for vector rows. */
+    public final float[] value;
+    public final float[] valueY;
+    public final float[] valueZ;
+    public final boolean[] vector;
+    /** Write cursor of {@link SampleSpool} before first row, -1 if rows are not spooled. */
+    public long spoolStart = -1;
+    /** Write cursor of {@link SampleSpool} after last row, -1 if rows are not spooled. */
+    public long spoolEnd = -1;
+    private int size;
+
+    /**
+     * Preallocated buffer of readings for the Data and VectorData tables.
+     *
+     * @param capacity    maximum number of rows held by buffer
+     */
+    public SampleBuffer(int capacity) {
+        metricId = new int[capacity];
+        timestamp = new long[capacity];
+        value = new float[capacity];
+        valueY = new float[capacity];
+        valueZ = new float[capacity];
+        vector = new boolean[capacity];
+        size = 0;
+    }
+
+    /**
+     * Append single reading to buffer.
+     *
+     * @param metric       id of metric
+     * @param time         timestamp of data acquisition (nanoseconds, sensor event time base)
+     * @param reading      value acquired for metric
+     * @return false if buffer is already full, true otherwise
+     */
+    public boolean append(int metric, long time, float reading) {
+        if (size == metricId.length) {
+            return false;
+        }
+        metricId[size] = metric;
+        timestamp[size] = time;
+        value[size] = reading;
+        vector[size] = false;
+        size++;
+        return true;
+    }
+
+    /**
+     * Append reading of multi-axis sensor to buffer, as a single row.
+     *
+     * @param group        id of metric group
+     * @param time         timestamp of data acquisition (nanoseconds, sensor event time base)
+     * @param x            x-axis value
+     * @param y            y-axis value
+     * @param z            z-axis value
+     * @return false if buffer is already full, true otherwise
+     */
+    public boolean append(int group, long time, float x, float y, float z) {
+        if (size == metricId.length) {
+            return false;
+        }
+        metricId[size] = group;
+        timestamp[size] = time;
+        value[size] = x;
+        valueY[size] = y;
+        valueZ[size] = z;
+        vector[size] = true;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return metricId.length;
+    }
+
+    public int remaining() {
+        return metricId.length - size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Reset fill cursor. Arrays are reused by following appends.
+     */
+    public void clear() {
+        size = 0;
+        spoolStart = -1;
+        spoolEnd = -1;
+    }
+
+}
@@ -0,0 +1,220 @@
+package edu.nd.nxia.cimonlite;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped spool of readings not yet stored in the database.
+ * Every reading is written to a ring of fixed-size records in a mapped file
+ * before it is batched, and the storage writer advances the drained cursor
+ * once the batch holding it is committed. If the process dies, or a batch
+ * is dropped or fails, readings between the drained and write cursors are
+ * still in the file, and are read back by the storage writer.
+ * <p>
+ * Writes are plain memory stores, flushed to storage by the kernel. Readings
+ * survive the death of the process, but not loss of power before the kernel
+ * writes the pages back.
+ * <p>
+ * Header layout (32 bytes): magic, version, monitor id, capacity (ints),
+ * write cursor, drained cursor (longs). Record layout (32 bytes): metric id,
+ * flags (ints), timestamp (long), x, y, z (floats), reserved int. Cursors
+ * count records since the spool was created.
+ *
+ * @author ningxia
+ *
+ * @see MonitorSession
+ * @see StorageWriter
+ *
+ */
+public class SampleSpool {
+
+    private static final String TAG = "NDroid";
+
+    private static final int MAGIC = 0x4e445350;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_MONITOR_ID = 8;
+    private static final int HEADER_CAPACITY = 12;
+    private static final int HEADER_WRITE_CURSOR = 16;
+    private static final int HEADER_DRAINED_CURSOR = 24;
+
+    private static final int RECORD_METRIC_ID = 0;
+    private static final int RECORD_FLAGS = 4;
+    private static final int RECORD_TIMESTAMP = 8;
+    private static final int RECORD_X = 16;
+    private static final int RECORD_Y = 20;
+    private static final int RECORD_Z = 24;
+
+    private static final int FLAG_VECTOR = 1;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    /** Written by sampling thread only. */
+    private long writeCursor;
+    /** Written by storage writer thread only. */
+    private volatile long drainedCursor;
+    private long overflows;
+
+    /**
+     * Open spool of monitor, keeping readings left by a previous process if
+     * the file belongs to the same monitor.
+     *
+     * @param file         spool file
+     * @param monitorId    id of monitor
+     * @param capacity     maximum number of readings not yet drained
+     * @throws IOException if file cannot be mapped
+     */
+    public SampleSpool(File file, int monitorId, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean valid = raf.length() == size;
+        raf.setLength(size);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        valid = valid && buffer.getInt(HEADER_MAGIC) == MAGIC
+                && buffer.getInt(HEADER_VERSION) == VERSION
+                && buffer.getInt(HEADER_MONITOR_ID) == monitorId
+                && buffer.getInt(HEADER_CAPACITY) == capacity;
+        if (valid) {
+            writeCursor = buffer.getLong(HEADER_WRITE_CURSOR);
+            drainedCursor = buffer.getLong(HEADER_DRAINED_CURSOR);
+            valid = drainedCursor <= writeCursor && writeCursor - drainedCursor <= capacity;
+        }
+        if (!valid) {
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_MONITOR_ID, monitorId);
+            buffer.putInt(HEADER_CAPACITY, capacity);
+            writeCursor = 0;
+            drainedCursor = 0;
+            buffer.putLong(HEADER_WRITE_CURSOR, 0);
+            buffer.putLong(HEADER_DRAINED_CURSOR, 0);
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "SampleSpool - monitor " + monitorId + ": "
+                + getPending() + " readings to replay");
+    }
+
+    public long getWriteCursor() {
+        return writeCursor;
+    }
+
+    public long getDrainedCursor() {
+        return drainedCursor;
+    }
+
+    /**
+     * Get number of readings written but not yet drained.
+     */
+    public long getPending() {
+        return writeCursor - drainedCursor;
+    }
+
+    /**
+     * Get number of readings not spooled because the spool was full.
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    /**
+     * Append reading. Called on sampling thread.
+     *
+     * @param metric       id of metric, or of metric group for vector readings
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param x            value, or x-axis value
+     * @param y            y-axis value, ignored unless vector
+     * @param z            z-axis value, ignored unless vector
+     * @param vector       true for reading of multi-axis sensor
+     * @return false if spool is full, reading is then only kept in memory
+     */
+    public boolean append(int metric, long timestamp, float x, float y, float z,
+                          boolean vector) {
+        if (writeCursor - drainedCursor >= capacity) {
+            overflows++;
+            return false;
+        }
+        int offset = offsetOf(writeCursor);
+        buffer.putInt(offset + RECORD_METRIC_ID, metric);
+        buffer.putInt(offset + RECORD_FLAGS, vector ? FLAG_VECTOR : 0);
+        buffer.putLong(offset + RECORD_TIMESTAMP, timestamp);
+        buffer.putFloat(offset + RECORD_X, x);
+        buffer.putFloat(offset + RECORD_Y, y);
+        buffer.putFloat(offset + RECORD_Z, z);
+        // record is complete before cursor covers it
+        writeCursor++;
+        buffer.putLong(HEADER_WRITE_CURSOR, writeCursor);
+        return true;
+    }
+
+    /**
+     * Mark readings before cursor as stored. Called on storage writer thread.
+     *
+     * @param cursor    write cursor after last stored reading
+     */
+    public void markDrained(long cursor) {
+        if (cursor <= drainedCursor) {
+            return;
+        }
+        buffer.putLong(HEADER_DRAINED_CURSOR, cursor);
+        drainedCursor = cursor;
+    }
+
+    /**
+     * Read spooled readings into buffer, for replay. Called on storage writer thread.
+     *
+     * @param cursor    cursor of first reading to read
+     * @param end       cursor after last reading to read, not beyond the write cursor
+     * @param batch     buffer receiving readings
+     * @return    cursor after last reading read
+     */
+    public long read(long cursor, long end, SampleBuffer batch) {
+        while (cursor < end && batch.remaining() > 0) {
+            int offset = offsetOf(cursor);
+            int metric = buffer.getInt(offset + RECORD_METRIC_ID);
+            long timestamp = buffer.getLong(offset + RECORD_TIMESTAMP);
+            float x = buffer.getFloat(offset + RECORD_X);
+            if ((buffer.getInt(offset + RECORD_FLAGS) & FLAG_VECTOR) != 0) {
+                batch.append(metric, timestamp, x, buffer.getFloat(offset + RECORD_Y),
+                        buffer.getFloat(offset + RECORD_Z));
+            }
+            else {
+                batch.append(metric, timestamp, x);
+            }
+            cursor++;
+        }
+        return cursor;
+    }
+
+    private int offsetOf(long cursor) {
+        return HEADER_SIZE + (int) (cursor % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Close spool, deleting its file if all readings have been drained.
+     */
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            if (DebugLog.WARNING) Log.w(TAG, "SampleSpool.close - " + e.toString());
+        }
+        if (getPending() == 0 && !file.delete()) {
+            if (DebugLog.WARNING) Log.w(TAG, "SampleSpool.close - failed to delete " + file);
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "SampleSpool.close - pending:" + getPending()
+                + " overflows:" + overflows);
+    }
+
+}
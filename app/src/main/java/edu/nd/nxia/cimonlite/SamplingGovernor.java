@@ -0,0 +1,158 @@
+package edu.nd.nxia.cimonlite;
+
+import android.util.Log;
+
+/**
+ * Chooses the sampling rate of motion sensors from recent accelerometer readings.
+ * Variance of acceleration magnitude is computed over consecutive windows of
+ * {@link #WINDOW} nanoseconds. Once the variance stays below the stationary
+ * threshold for {@link #STATIONARY_DELAY}, the governor steps down to the low rate.
+ * A single window above the motion threshold steps back up to the high rate, so
+ * motion is detected within one window plus one low rate sampling period.
+ * <p>
+ * Readings are processed in place on the sampling thread, no objects are allocated.
+ *
+ * @author ningxia
+ *
+ * @see MetricService
+ *
+ */
+public class SamplingGovernor {
+
+    private static final String TAG = "NDroid";
+
+    /** Length of variance window (nanoseconds). */
+    private static final long WINDOW = 1000L * 1000 * 1000;
+    /** Time of stillness required before stepping down (nanoseconds). */
+    private static final long STATIONARY_DELAY = 30L * 1000 * 1000 * 1000;
+    /** Variance of magnitude below which device is still ((m/s^2)^2). */
+    private static final double STATIONARY_VARIANCE = 0.05;
+    /** Variance of magnitude above which device is moving ((m/s^2)^2). */
+    private static final double MOTION_VARIANCE = 0.2;
+    /** Minimum readings in a window for its variance to be used. */
+    private static final int MIN_WINDOW_SAMPLES = 3;
+
+    /**
+     * Interface notified when the governor changes sampling rate.
+     */
+    public interface RateListener {
+        /**
+         * Sampling rate of motion sensors should change.
+         *
+         * @param stationary    true to step down to low rate, false to return to high rate
+         * @param timestamp     timestamp of reading which triggered change (nanoseconds)
+         */
+        void onRateChanged(boolean stationary, long timestamp);
+    }
+
+    private final RateListener listener;
+
+    private boolean stationary;
+    private long windowStart;
+    private long stillSince;
+    private int count;
+    private double sum;
+    private double sumSquares;
+    private int transitions;
+    private long stationaryTime;
+
+    /**
+     * Chooses the sampling rate of motion sensors.
+     *
+     * @param listener    listener notified of rate changes
+     */
+    public SamplingGovernor(RateListener listener) {
+        this.listener = listener;
+        reset();
+    }
+
+    public void reset() {
+        stationary = false;
+        windowStart = -1;
+        stillSince = -1;
+        count = 0;
+        sum = 0;
+        sumSquares = 0;
+        transitions = 0;
+        stationaryTime = 0;
+    }
+
+    /**
+     * Process accelerometer reading.
+     *
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param x            x-axis acceleration
+     * @param y            y-axis acceleration
+     * @param z            z-axis acceleration
+     */
+    public void onAccelerometer(long timestamp, float x, float y, float z) {
+        if (windowStart < 0) {
+            windowStart = timestamp;
+        }
+        else if (timestamp - windowStart >= WINDOW) {
+            endWindow(timestamp);
+            windowStart = timestamp;
+        }
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        count++;
+        sum += magnitude;
+        sumSquares += magnitude * magnitude;
+    }
+
+    private void endWindow(long timestamp) {
+        if (count >= MIN_WINDOW_SAMPLES) {
+            double mean = sum / count;
+            double variance = sumSquares / count - mean * mean;
+            if (stationary) {
+                if (variance > MOTION_VARIANCE) {
+                    stationaryTime += timestamp - stillSince;
+                    stillSince = -1;
+                    setStationary(false, timestamp, variance);
+                }
+            }
+            else if (variance < STATIONARY_VARIANCE) {
+                if (stillSince < 0) {
+                    stillSince = windowStart;
+                }
+                else if (timestamp - stillSince >= STATIONARY_DELAY) {
+                    stillSince = timestamp;
+                    setStationary(true, timestamp, variance);
+                }
+            }
+            else {
+                stillSince = -1;
+            }
+        }
+        count = 0;
+        sum = 0;
+        sumSquares = 0;
+    }
+
+    private void setStationary(boolean stationary, long timestamp, double variance) {
+        if (DebugLog.DEBUG) Log.d(TAG, "SamplingGovernor.setStationary - " + stationary +
+                " variance:" + variance);
+        this.stationary = stationary;
+        transitions++;
+        listener.onRateChanged(stationary, timestamp);
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    /**
+     * Get string summarizing rate changes.
+     *
+     * @param now    current time (nanoseconds, sensor event time base)
+     * @return    number of rate changes and time spent at low rate
+     */
+    public String getStatistics(long now) {
+        long still = stationaryTime;
+        if (stationary && stillSince >= 0) {
+            still += now - stillSince;
+        }
+        return String.format("Rate Changes: %d, Stationary: %.1fs", transitions,
+                still / 1000000000.0);
+    }
+
+}
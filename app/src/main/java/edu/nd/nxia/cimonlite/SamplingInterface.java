@@ -11,6 +11,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
@@ -25,9 +26,11 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
     private static final String SENSOR_RESULT = "sensor_result";
     private static final String SENSOR_DELAY_MODE = "sensor_delay_mode";
     private static final String RUNNING_MONITOR = "running_monitor";
+    private static final String ADAPTIVE_SAMPLING = "adaptive_sampling";
 
     private Context context;
     private RadioGroup radioGroup;
+    private CheckBox adaptiveCheckBox;
     private TextView textView;
     private Button button;
 
@@ -44,6 +47,7 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
 
         context = getApplicationContext();
         radioGroup = (RadioGroup) findViewById(R.id.radio_group);
+        adaptiveCheckBox = (CheckBox) findViewById(R.id.adaptive_checkbox);
         textView = (TextView) findViewById(R.id.text_view);
         button = (Button) findViewById(R.id.start_button);
         button.setOnClickListener(this);
@@ -104,6 +108,10 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
                 if (checked)
                     this.sensorDelayMode = SensorManager.SENSOR_DELAY_GAME;
                 break;
+            case R.id.radio_batch:
+                if (checked)
+                    this.sensorDelayMode = MetricService.SENSOR_DELAY_BATCH;
+                break;
         }
     }
 
@@ -138,6 +146,7 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
     private void startNDroidService() {
         Intent intent = new Intent(context, NDroidService.class);
         editor.putInt(SENSOR_DELAY_MODE, sensorDelayMode);
+        editor.putBoolean(ADAPTIVE_SAMPLING, adaptiveCheckBox.isChecked());
         editor.commit();
         startService(intent);
         if (DebugLog.DEBUG) Log.d(TAG, "MainActivity.startNDroidService - started");
@@ -156,7 +165,11 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
                 case SensorManager.SENSOR_DELAY_GAME:
                     radioGroup.check(R.id.radio_game);
                     break;
+                case MetricService.SENSOR_DELAY_BATCH:
+                    radioGroup.check(R.id.radio_batch);
+                    break;
             }
+            adaptiveCheckBox.setChecked(appPrefs.getBoolean(ADAPTIVE_SAMPLING, false));
             setRadioGroupEnabled(false);
         }
     }
@@ -165,6 +178,7 @@ public class SamplingInterface extends Activity implements View.OnClickListener,
         for (int i = 0; i < radioGroup.getChildCount(); i ++) {
             radioGroup.getChildAt(i).setEnabled(enabled);
         }
+        adaptiveCheckBox.setEnabled(enabled);
     }
 
     @Override
@@ -0,0 +1,320 @@
+package edu.nd.nxia.cimonlite;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.nd.nxia.cimonlite.database.DataStore;
+
+/**
+ * Long-lived writer thread which stores batches of readings for a single monitor.
+ * Batches are handed off through a bounded queue, so memory stays bounded
+ * when the store stalls. Behavior on a full queue is chosen by {@link OverflowPolicy}.
+ * Drained buffers are returned to a pool, from which the sampling thread
+ * obtains its next buffer without copying or allocating.
+ * <p>
+ * If readings are spooled, the spool is drained only up to the last reading
+ * stored. Readings of a batch which was dropped or failed stay in the spool,
+ * and are read back from it and stored before the next batch, which is
+ * itself left in the spool until they are, so no reading is stored twice.
+ * Readings left by a previous process are stored when the writer starts.
+ *
+ * @author ningxia
+ *
+ * @see DataStore#appendBatch
+ *
+ */
+public class StorageWriter implements Runnable {
+
+    private static final String TAG = "NDroid";
+    private static final String THREADTAG = "NDroidStorageWriter";
+
+    /**
+     * Action taken when a batch is submitted while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Block submitting thread until writer frees a slot. */
+        BLOCK,
+        /** Discard oldest queued batch to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the submitted batch. */
+        DROP_NEWEST
+    }
+
+    /** Marker batch which tells the writer thread to exit. */
+    private static final SampleBuffer END_OF_STREAM = new SampleBuffer(0);
+
+    private final DataStore store;
+    private final int monitorId;
+    private final OverflowPolicy policy;
+    private final BlockingQueue<SampleBuffer> queue;
+    private final BlockingQueue<SampleBuffer> pool;
+    private final int bufferCapacity;
+    private final SampleSpool spool;
+    private final Thread thread;
+    /** Set once shutdown is requested, writer exits when queue is empty. */
+    private volatile boolean stopping;
+    /** Write cursor of spool when writer started, readings before it are replayed. */
+    private long replayEnd;
+
+    private final AtomicLong queuedBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong spooledRows = new AtomicLong();
+
+    /**
+     * Long-lived writer thread for a single monitor.
+     *
+     * @param store       data store batches are appended to
+     * @param monitorId   id of monitor batches belong to
+     * @param capacity    maximum number of batches waiting to be stored
+     * @param policy      action taken when queue is full
+     * @param bufferCapacity    number of readings held by each pooled buffer
+     * @param poolSize    number of drained buffers kept for reuse
+     * @param spool       spool drained as batches are stored, closed when writer stops,
+     *                    null if readings are not spooled. Batches must carry the spool
+     *                    cursors of their readings, starting at the write cursor the spool
+     *                    has when the writer is started
+     */
+    public StorageWriter(DataStore store, int monitorId, int capacity,
+                         OverflowPolicy policy, int bufferCapacity, int poolSize,
+                         SampleSpool spool) {
+        this.store = store;
+        this.monitorId = monitorId;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<SampleBuffer>(capacity);
+        this.pool = new ArrayBlockingQueue<SampleBuffer>(poolSize);
+        this.bufferCapacity = bufferCapacity;
+        this.spool = spool;
+        for (int i = 0; i < poolSize; i++) {
+            pool.offer(new SampleBuffer(bufferCapacity));
+        }
+        this.thread = new Thread(this, THREADTAG + "-" + monitorId);
+    }
+
+    public void start() {
+        if (spool != null) {
+            replayEnd = spool.getWriteCursor();
+        }
+        thread.start();
+    }
+
+    /**
+     * Get empty buffer for collecting readings.
+     * Recycled buffers are preferred, a new one is only allocated if the pool is empty.
+     *
+     * @return    empty buffer of readings
+     */
+    public SampleBuffer obtain() {
+        SampleBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new SampleBuffer(bufferCapacity);
+        }
+        return buffer;
+    }
+
+    /**
+     * Return drained buffer to pool. Buffer is discarded if pool is already full.
+     *
+     * @param buffer    buffer which is no longer referenced by caller
+     */
+    private void recycle(SampleBuffer buffer) {
+        buffer.clear();
+        pool.offer(buffer);
+    }
+
+    /**
+     * Queue batch of readings for storage, applying overflow policy if queue is full.
+     *
+     * @param batch    buffer of readings, owned by writer after this call
+     * @return true if batch was queued, false if batch (or an older one) was dropped
+     */
+    public boolean submit(SampleBuffer batch) {
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedBatches.incrementAndGet();
+                    recycle(batch);
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                boolean dropped = false;
+                while (!queue.offer(batch)) {
+                    SampleBuffer oldest = queue.poll();
+                    if (oldest != null) {
+                        droppedBatches.incrementAndGet();
+                        dropped = true;
+                        recycle(oldest);
+                    }
+                }
+                queuedBatches.incrementAndGet();
+                return !dropped;
+            case DROP_NEWEST:
+                if (!queue.offer(batch)) {
+                    droppedBatches.incrementAndGet();
+                    recycle(batch);
+                    return false;
+                }
+                break;
+        }
+        queuedBatches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Store all batches queued so far, then terminate writer thread.
+     * Never blocks: if the queue is full, the writer exits once it has drained it.
+     */
+    public void shutdown() {
+        stopping = true;
+        // wakes writer waiting on an empty queue
+        queue.offer(END_OF_STREAM);
+    }
+
+    @Override
+    public void run() {
+        if (DebugLog.DEBUG) Log.d(TAG, "StorageWriter.run - started: monitor " + monitorId);
+        if (spool != null && storeSpooled(replayEnd) && spooledRows.get() > 0
+                && DebugLog.INFO) {
+            Log.i(TAG, "StorageWriter.run - monitor " + monitorId + ": "
+                    + spooledRows.get() + " spooled readings replayed");
+        }
+        while (true) {
+            SampleBuffer batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                if (DebugLog.WARNING) Log.w(TAG, "StorageWriter.run - interrupted: monitor " + monitorId);
+                break;
+            }
+            if (batch == END_OF_STREAM) {
+                break;
+            }
+            store(batch);
+            recycle(batch);
+            if (stopping && queue.isEmpty()) {
+                break;
+            }
+        }
+        if (spool != null) {
+            // readings of a failed or dropped last batch, left for next start if still failing
+            storeSpooled(spool.getWriteCursor());
+            spool.close();
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "StorageWriter.run - stopped: " + getStatistics() + "; "
+                + store.getStatistics());
+    }
+
+    /**
+     * Store batch, after readings of earlier batches left in the spool.
+     *
+     * @param batch    batch taken from queue
+     */
+    private void store(SampleBuffer batch) {
+        boolean spooled = spool != null && batch.spoolEnd >= 0;
+        if (spooled && !storeSpooled(batch.spoolStart)) {
+            // batch is read back from the spool with the earlier readings
+            if (DebugLog.WARNING) Log.w(TAG, "StorageWriter.store - batch of "
+                    + batch.size() + " readings deferred: monitor " + monitorId);
+            return;
+        }
+        long rows = store.appendBatch(monitorId, batch);
+        if (rows >= 0) {
+            writtenRows.addAndGet(rows);
+            writtenBatches.incrementAndGet();
+            if (spooled) {
+                spool.markDrained(batch.spoolEnd);
+            }
+        }
+        else {
+            failedBatches.incrementAndGet();
+            if (DebugLog.WARNING) Log.w(TAG, "StorageWriter.store - batch of "
+                    + batch.size() + " readings not stored: monitor " + monitorId);
+        }
+    }
+
+    /**
+     * Store readings left in spool before a cursor, reading them back in batches.
+     * Drained cursor advances as each batch is committed.
+     *
+     * @param end    spool cursor after last reading to store
+     * @return    true if all readings before cursor are stored
+     */
+    private boolean storeSpooled(long end) {
+        long cursor = spool.getDrainedCursor();
+        if (cursor >= end) {
+            return true;
+        }
+        SampleBuffer batch = obtain();
+        try {
+            while (cursor < end) {
+                batch.clear();
+                long next = spool.read(cursor, end, batch);
+                long rows = store.appendBatch(monitorId, batch);
+                if (rows < 0) {
+                    failedBatches.incrementAndGet();
+                    if (DebugLog.WARNING) Log.w(TAG, "StorageWriter.storeSpooled - "
+                            + (end - cursor) + " spooled readings not stored: monitor "
+                            + monitorId);
+                    return false;
+                }
+                writtenRows.addAndGet(rows);
+                writtenBatches.incrementAndGet();
+                spooledRows.addAndGet(next - cursor);
+                spool.markDrained(next);
+                cursor = next;
+            }
+            return true;
+        } finally {
+            recycle(batch);
+        }
+    }
+
+    public long getQueuedBatches() {
+        return queuedBatches.get();
+    }
+
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    public long getWrittenBatches() {
+        return writtenBatches.get();
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Get number of readings stored from the spool rather than from a queued batch.
+     */
+    public long getSpooledRows() {
+        return spooledRows.get();
+    }
+
+    /**
+     * Get string summarizing writer counters.
+     *
+     * @return    description of queued, dropped, written and failed batches
+     */
+    public String getStatistics() {
+        return String.format("Monitor %d batches queued: %d, dropped: %d, written: %d (%d rows), "
+                + "failed: %d, rows from spool: %d", monitorId, getQueuedBatches(),
+                getDroppedBatches(), getWrittenBatches(), getWrittenRows(), getFailedBatches(),
+                getSpooledRows());
+    }
+
+}
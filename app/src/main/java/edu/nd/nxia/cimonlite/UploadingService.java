@@ -4,8 +4,6 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
@@ -19,12 +17,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.MalformedURLException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
 import edu.nd.nxia.cimonlite.database.DataCommunicator;
+import edu.nd.nxia.cimonlite.database.DataStore;
+import edu.nd.nxia.cimonlite.database.DataStoreFactory;
 import edu.nd.nxia.cimonlite.database.DataTable;
+import edu.nd.nxia.cimonlite.database.SQLiteDataStore;
+import edu.nd.nxia.cimonlite.database.VectorDataTable;
 import edu.nd.nxia.cimonlite.database.LabelingDB;
 import edu.nd.nxia.cimonlite.database.LabelingHistory;
 import edu.nd.nxia.cimonlite.database.MetricInfoTable;
@@ -39,13 +44,19 @@ import edu.nd.nxia.cimonlite.database.MetricsTable;
 public class UploadingService extends Service {
     private static final String TAG = "CimonUploadingService";
     //private static final String[] uploadTables = {MetricInfoTable.TABLE_METRICINFO, LabelingHistory.TABLE_NAME, MetricsTable.TABLE_METRICS, DataTable.TABLE_DATA};
-    private static final String[] uploadTables = {MetricInfoTable.TABLE_METRICINFO, LabelingHistory.TABLE_NAME, MetricsTable.TABLE_METRICS};
+    private static final String[] uploadTables = {MetricInfoTable.TABLE_METRICINFO, LabelingHistory.TABLE_NAME, MetricsTable.TABLE_METRICS,
+            DataTable.TABLE_DATA, VectorDataTable.TABLE_VECTOR_DATA};
     private static final int period = 1000 * 10;
     private static int count;
     private static int MAXRECORDS = 3000;
     private static int curWindow = 5 * MAXRECORDS;
     private static int startHour = 0;
     private static int endHour = 8;
+    /** Prefix of metadata key of watermark, followed by name of table. */
+    private static final String WATERMARK_KEY = "watermark.";
+    /** Highest _id uploaded from each table. Ids are autoincrement, so every row
+     *  at or below the watermark has been uploaded. Kept in store metadata across restarts. */
+    private static final Map<String, Long> watermarks = new ConcurrentHashMap<String, Long>();
     private static Context context;
 
     @Override
@@ -102,8 +113,7 @@ public class UploadingService extends Service {
         long endTime = timeConverter.getTimeInMillis();
         long currentTime = System.currentTimeMillis();
         Log.d(TAG, "curTime:" + Long.toString(currentTime));
-        if (currentTime >= startTime && currentTime <= endTime
-                && CimonDatabaseAdapter.database != null) {
+        if (currentTime >= startTime && currentTime <= endTime) {
             count++;
             new Thread(new Runnable() {
                 public void run() {
@@ -160,71 +170,92 @@ public class UploadingService extends Service {
      *
      */
     private void uploadFromTable(String tableName) {
-        Cursor cursor = this.getCursor(tableName);
-        while (cursor.getCount() > 0) {
-            //Update cursor
+        DataStore.Rows rows = getRows(tableName);
+        while (rows.next()) {
+            //Update rows
             try {
-                cursor.moveToFirst();
-                uploadCursor(cursor, tableName);
+                uploadRows(rows, tableName);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            //Get new cursor
+            rows.close();
+            //Get new rows
             if (tableName.equals(MetricInfoTable.TABLE_METRICINFO) || tableName.equals(MetricsTable.TABLE_METRICS))
-                break;
-            cursor = this.getCursor(tableName);
+                return;
+            rows = this.getRows(tableName);
         }
-        cursor.close();
+        rows.close();
     }
 
     /**
-     * Update from each cursor due to cursor has size limit.
+     * Update from each window of rows due to window has size limit.
      *
+     * @param rows      rows to update, positioned at first row
      * @param tableName table to update
-     * @param cursor    table to update
      * @author Xiao(Sean) Bo
      */
-    private void uploadCursor(Cursor cursor, String tableName) throws JSONException,
+    private void uploadRows(DataStore.Rows rows, String tableName) throws JSONException,
             MalformedURLException {
         JSONArray records = new JSONArray();
-        String[] columnNames = cursor.getColumnNames();
-        ArrayList<Integer> rowIDs = new ArrayList<Integer>();
-        while (!cursor.isAfterLast()) {
+        String[] columnNames = rows.getColumns();
+        int idIndex = Arrays.asList(columnNames).indexOf("_id");
+        long lastID = -1;
+        do {
             JSONObject record = new JSONObject();
-            rowIDs.add(new Integer(cursor.getInt(0)));
-            for (String columnName : columnNames) {
+            // rows are read in _id order
+            lastID = ((Number) rows.get(idIndex)).longValue();
+            for (int columnIndex = 0; columnIndex < columnNames.length; columnIndex++) {
+                String columnName = columnNames[columnIndex];
                 if (columnName.equals("_id") && (!tableName.equals(MetricInfoTable.TABLE_METRICINFO) && !
                         tableName.equals(MetricsTable.TABLE_METRICS)))
                     continue;
-                int columnIndex = cursor.getColumnIndex(columnName);
-                switch (cursor.getType(columnIndex)) {
-                    case Cursor.FIELD_TYPE_STRING:
-                        record.put(columnName, cursor.getString(columnIndex));
-                        break;
-                    case Cursor.FIELD_TYPE_INTEGER:
-                        record.put(columnName,
-                                Long.toString(cursor.getLong(columnIndex)));
-                        break;
-                    case Cursor.FIELD_TYPE_FLOAT:
-                        record.put(columnName,
-                                Float.toString(cursor.getFloat(columnIndex)));
-                        break;
-                    default:
-                        record.put(columnName, "");
-                        break;
+                Object value = rows.get(columnIndex);
+                if (value instanceof String) {
+                    record.put(columnName, value);
+                }
+                else if (value instanceof Long) {
+                    record.put(columnName, value.toString());
+                }
+                else if (value instanceof Double) {
+                    record.put(columnName, Float.toString(((Double) value).floatValue()));
+                }
+                else {
+                    record.put(columnName, "");
                 }
             }
+            if (tableName.equals(VectorDataTable.TABLE_VECTOR_DATA)) {
+                putDerivedMetrics(rows, columnNames, record);
+            }
             records.put(record);
             if (records.length() >= this.MAXRECORDS) {
-                batchUpload(records, tableName, rowIDs);
+                batchUpload(records, tableName, lastID);
                 records = new JSONArray();
             }
-            cursor.moveToNext();
-        }
+        } while (rows.next());
         if (records.length() > 0) {
-            batchUpload(records, tableName, rowIDs);
+            batchUpload(records, tableName, lastID);
+        }
+    }
+
+    /**
+     * Add derived metrics of a VectorData table reading to its record,
+     * since derived metrics are not stored.
+     *
+     * @param rows           rows positioned at VectorData table reading
+     * @param columnNames    names of columns of rows
+     * @param record         record of reading
+     */
+    private void putDerivedMetrics(DataStore.Rows rows, String[] columnNames, JSONObject record)
+            throws JSONException {
+        List<String> columns = Arrays.asList(columnNames);
+        int group = ((Number) rows.get(columns.indexOf(VectorDataTable.COLUMN_METRIC_ID))).intValue();
+        float x = ((Number) rows.get(columns.indexOf(VectorDataTable.COLUMN_X))).floatValue();
+        float y = ((Number) rows.get(columns.indexOf(VectorDataTable.COLUMN_Y))).floatValue();
+        float z = ((Number) rows.get(columns.indexOf(VectorDataTable.COLUMN_Z))).floatValue();
+        for (int metric : DerivedMetrics.getDerived(group)) {
+            record.put(DerivedMetrics.getName(metric),
+                    Float.toString(DerivedMetrics.compute(metric, x, y, z)));
         }
-        cursor.close();
     }
 
     /**
@@ -232,12 +263,12 @@ public class UploadingService extends Service {
      *
      * @param records   Array of JSON
      * @param tableName table to update
-     * @param rowIDs    Corresponding row IDs of JSON
+     * @param lastID    _id of last record, all rows up to it are in records
      * @author Xiao(Sean) Bo
      */
 
     private void batchUpload(JSONArray records, String tableName,
-                             ArrayList<Integer> rowIDs) throws MalformedURLException,
+                             long lastID) throws MalformedURLException,
             JSONException {
         DataCommunicator comm = new DataCommunicator();
         JSONObject mainPackage = new JSONObject();
@@ -254,34 +285,50 @@ public class UploadingService extends Service {
         String deviceID = getDeviceID();
         mainPackage.put("device_id", deviceID);
         String callBack = comm.postData(mainPackage.toString().getBytes());
-        if (callBack.equals("Success")
-                && (tableName.equals(DataTable.TABLE_DATA) || tableName
-                .equals(LabelingHistory.TABLE_NAME))) {
-            garbageCollection(rowIDs, tableName);
+        if (callBack.equals("Success") && isCollected(tableName)) {
+            DataStore store = getStore(tableName);
+            watermarks.put(tableName, lastID);
+            store.putMetadata(WATERMARK_KEY + tableName, Long.toString(lastID));
+            if (!tableName.equals(LabelingHistory.TABLE_NAME)) {
+                // evicted first, from all partitions, if deletion falls behind and
+                // storage runs over budget
+                CimonDatabaseAdapter.getInstance(context).markUploaded(tableName, lastID);
+            }
+            int deleted = store.deleteThrough(tableName, lastID);
+            if (DebugLog.DEBUG) Log.d(TAG, "batchUpload: " + tableName + " deleted " + deleted
+                    + " rows up to _id " + lastID);
         }
     }
 
     /**
-     * Upload batch data to server.
-     *
-     * @param tableName table to update
-     * @param rowIDs    Corresponding row IDs to delete
-     * @author Xiao(Sean) Bo
+     * Check if rows of table are deleted once uploaded.
      */
+    private static boolean isCollected(String tableName) {
+        return tableName.equals(DataTable.TABLE_DATA)
+                || tableName.equals(VectorDataTable.TABLE_VECTOR_DATA)
+                || tableName.equals(LabelingHistory.TABLE_NAME);
+    }
+
+    private static long getWatermark(String tableName) {
+        Long watermark = watermarks.get(tableName);
+        if (watermark == null) {
+            String stored = getStore(tableName).getMetadata(WATERMARK_KEY + tableName);
+            watermark = stored == null ? 0 : Long.parseLong(stored);
+            watermarks.put(tableName, watermark);
+        }
+        return watermark;
+    }
 
-    private static void garbageCollection(ArrayList<Integer> rowIDs,
-                                          String tableName) {
-        SQLiteDatabase curDB = tableName.equals(LabelingHistory.TABLE_NAME) ? LabelingHistory.db
-                : CimonDatabaseAdapter.database;
-        StringBuilder IDs = new StringBuilder();
-        int lastIndex = rowIDs.size() - 1;
-        IDs.append("(");
-        for (int i = 0; i < lastIndex; i++) {
-            IDs.append(rowIDs.get(i).toString() + ",");
+    /**
+     * Get data store holding table. Rows of collected tables are written through
+     * the store selected by preferences, catalog tables are always kept in SQLite.
+     */
+    private static DataStore getStore(String tableName) {
+        if (isCollected(tableName)) {
+            return DataStoreFactory.getInstance(context);
         }
-        IDs.append(rowIDs.get(lastIndex).toString() + ")");
-        curDB.delete(tableName, "_id in " + IDs.toString(), null);
-        rowIDs.clear();
+        return new SQLiteDataStore(CimonDatabaseAdapter.getInstance(context),
+                LabelingHistory.getInstance(context), false);
     }
 
     /**
@@ -296,22 +343,16 @@ public class UploadingService extends Service {
     }
 
     /**
-     * Get top 9000 records from db.
+     * Get next window of rows to upload. Rows of collected tables are read in
+     * _id order above the watermark, so rows still awaiting deletion are not
+     * uploaded again.
      *
      * @author Xiao(Sean) Bo
      */
 
-    private static Cursor getCursor(String tableName) {
-        if (tableName.equals(LabelingHistory.TABLE_NAME)) {
-            if (LabelingHistory.db == null) {
-                LabelingHistory.open();
-            }
-            return LabelingHistory.db.rawQuery("SELECT * FROM " + tableName + " LIMIT " + Integer.toString(curWindow) + ";",
-                    null);
-        } else
-            return CimonDatabaseAdapter.database.rawQuery("SELECT * FROM "
-                    + tableName + " LIMIT " + Integer.toString(curWindow) + ";", null);
-
+    private static DataStore.Rows getRows(String tableName) {
+        long after = isCollected(tableName) ? getWatermark(tableName) : Long.MIN_VALUE;
+        return getStore(tableName).scan(tableName, after, curWindow);
     }
 
     /**
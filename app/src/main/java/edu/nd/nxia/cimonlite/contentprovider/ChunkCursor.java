@@ -0,0 +1,290 @@
+package edu.nd.nxia.cimonlite.contentprovider;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import edu.nd.nxia.cimonlite.DerivedMetrics;
+import edu.nd.nxia.cimonlite.database.ChunkTable;
+import edu.nd.nxia.cimonlite.database.DataTable;
+import edu.nd.nxia.cimonlite.database.SeriesDecoder;
+
+/**
+ * Cursor presenting readings of the Chunk table in the layout of the Data table.
+ * Blocks are decoded one at a time as the cursor is moved, so only a single
+ * block is held in memory. Multi-axis readings are split into one row per axis,
+ * followed by rows of their derived metrics, as in the data view.
+ * <p>
+ * Only readings in a range of timestamps are presented. Blocks within the range
+ * are counted without decoding; blocks across its bounds are decoded to count
+ * the readings within it.
+ * <p>
+ * Row ids are those of the blocks, and are therefore not unique.
+ *
+ * @author ningxia
+ *
+ * @see ChunkTable
+ * @see SeriesDecoder
+ *
+ */
+public class ChunkCursor extends AbstractCursor {
+
+    /** Columns of Chunk table required to decode readings. */
+    public static final String[] SOURCE_COLUMNS = {
+            ChunkTable.COLUMN_ID,
+            ChunkTable.COLUMN_MONITOR_ID,
+            ChunkTable.COLUMN_METRIC_ID,
+            ChunkTable.COLUMN_AXES,
+            ChunkTable.COLUMN_COUNT,
+            ChunkTable.COLUMN_DATA,
+            ChunkTable.COLUMN_START_TIME,
+            ChunkTable.COLUMN_END_TIME
+    };
+    /** Columns presented when no projection is requested, as in Data table. */
+    private static final String[] DEFAULT_COLUMNS = {
+            DataTable.COLUMN_ID,
+            DataTable.COLUMN_METRIC_ID,
+            DataTable.COLUMN_MONITOR_ID,
+            DataTable.COLUMN_TIMESTAMP,
+            DataTable.COLUMN_VALUE
+    };
+
+    private static final int SOURCE_ID = 0;
+    private static final int SOURCE_MONITOR_ID = 1;
+    private static final int SOURCE_METRIC_ID = 2;
+    private static final int SOURCE_AXES = 3;
+    private static final int SOURCE_COUNT = 4;
+    private static final int SOURCE_DATA = 5;
+    private static final int SOURCE_START_TIME = 6;
+    private static final int SOURCE_END_TIME = 7;
+
+    private static final int ID = 0;
+    private static final int METRIC_ID = 1;
+    private static final int MONITOR_ID = 2;
+    private static final int TIMESTAMP = 3;
+    private static final int VALUE = 4;
+
+    private final Cursor source;
+    /** Metric presented, -1 for all metrics of each block. */
+    private final int metric;
+    private final String[] columns;
+    private final int[] mapping;
+    /** First and last timestamp presented, inclusive (nanoseconds). */
+    private final long start;
+    private final long end;
+    /** First row of each block, with total row count at end. */
+    private final int[] offsets;
+
+    private int block = -1;
+    private int group;
+    private int axes;
+    private int[] derived;
+    /** Timestamps of readings of decoded block within range. */
+    private long[] timestamps = new long[0];
+    private float[] values = new float[0];
+    private int rowMetric;
+    private float rowValue;
+    private long rowTimestamp;
+
+    /**
+     * Cursor presenting readings of the Chunk table.
+     *
+     * @param source        cursor over Chunk table with {@link #SOURCE_COLUMNS}, holding
+     *                      only blocks of the presented metric if one is given
+     * @param metric        id of metric presented, -1 for all metrics
+     * @param projection    requested columns of Data table, null for all
+     * @param start         first timestamp presented (nanoseconds)
+     * @param end           last timestamp presented, inclusive (nanoseconds)
+     */
+    public ChunkCursor(Cursor source, int metric, String[] projection, long start, long end) {
+        this.source = source;
+        this.metric = metric;
+        this.start = start;
+        this.end = end;
+        this.columns = projection == null ? DEFAULT_COLUMNS : projection;
+        this.mapping = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i];
+            if (column.equals(DataTable.COLUMN_ID)) {
+                mapping[i] = ID;
+            }
+            else if (column.equals(DataTable.COLUMN_METRIC_ID)) {
+                mapping[i] = METRIC_ID;
+            }
+            else if (column.equals(DataTable.COLUMN_MONITOR_ID)) {
+                mapping[i] = MONITOR_ID;
+            }
+            else if (column.equals(DataTable.COLUMN_TIMESTAMP)) {
+                mapping[i] = TIMESTAMP;
+            }
+            else if (column.equals(DataTable.COLUMN_VALUE)) {
+                mapping[i] = VALUE;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        }
+        int blocks = source.getCount();
+        offsets = new int[blocks + 1];
+        for (int i = 0; i < blocks; i++) {
+            source.moveToPosition(i);
+            int readings;
+            if (source.getLong(SOURCE_START_TIME) >= start
+                    && source.getLong(SOURCE_END_TIME) <= end) {
+                readings = source.getInt(SOURCE_COUNT);
+            }
+            else {
+                readings = decode(i);
+            }
+            offsets[i + 1] = offsets[i] + readings * getRowsPerReading(
+                    source.getInt(SOURCE_METRIC_ID), source.getInt(SOURCE_AXES));
+        }
+    }
+
+    private int getRowsPerReading(int group, int axes) {
+        if (metric >= 0) {
+            return 1;
+        }
+        return axes > 1 ? axes + DerivedMetrics.getDerived(group).length : axes;
+    }
+
+    /**
+     * Decode block, keeping its readings within range.
+     *
+     * @return    number of readings kept
+     */
+    private int decode(int index) {
+        source.moveToPosition(index);
+        group = source.getInt(SOURCE_METRIC_ID);
+        axes = source.getInt(SOURCE_AXES);
+        derived = axes > 1 ? DerivedMetrics.getDerived(group) : new int[0];
+        int count = source.getInt(SOURCE_COUNT);
+        if (timestamps.length < count) {
+            timestamps = new long[count];
+        }
+        if (values.length < count * axes) {
+            values = new float[count * axes];
+        }
+        SeriesDecoder decoder = new SeriesDecoder(source.getBlob(SOURCE_DATA), axes, count);
+        int kept = 0;
+        while (decoder.next()) {
+            long timestamp = decoder.getTimestamp();
+            if (timestamp < start || timestamp > end) {
+                continue;
+            }
+            timestamps[kept] = timestamp;
+            for (int axis = 0; axis < axes; axis++) {
+                values[kept * axes + axis] = decoder.getValue(axis);
+            }
+            kept++;
+        }
+        block = index;
+        return kept;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = block >= 0 && newPosition >= offsets[block] && newPosition < offsets[block + 1]
+                ? block : findBlock(newPosition);
+        if (index != block) {
+            decode(index);
+        }
+        int rows = getRowsPerReading(group, axes);
+        int row = newPosition - offsets[block];
+        int reading = row / rows;
+        int slot = metric >= 0 ? -1 : row % rows;
+        rowTimestamp = timestamps[reading];
+        int base = reading * axes;
+        rowMetric = slot >= 0 ? (slot < axes ? group + slot : derived[slot - axes]) : metric;
+        if (DerivedMetrics.isDerived(rowMetric)) {
+            rowValue = DerivedMetrics.compute(rowMetric, values[base], values[base + 1],
+                    values[base + 2]);
+        }
+        else {
+            rowValue = values[base + rowMetric - group];
+        }
+        return true;
+    }
+
+    private int findBlock(int position) {
+        int low = 0;
+        int high = offsets.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= position) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int getCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mapping[column] == VALUE ? String.valueOf(rowValue) : String.valueOf(getLong(column));
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (mapping[column]) {
+            case ID:
+                return source.getLong(SOURCE_ID);
+            case METRIC_ID:
+                return rowMetric;
+            case MONITOR_ID:
+                return source.getLong(SOURCE_MONITOR_ID);
+            case TIMESTAMP:
+                return rowTimestamp;
+            default:
+                return (long) rowValue;
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mapping[column] == VALUE ? rowValue : getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mapping[column] == VALUE ? rowValue : getLong(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mapping[column] == VALUE ? FIELD_TYPE_FLOAT : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        source.close();
+    }
+
+}
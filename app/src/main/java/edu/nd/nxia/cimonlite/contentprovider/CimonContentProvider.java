@@ -5,18 +5,24 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.util.Log;
 
 import edu.nd.nxia.cimonlite.DebugLog;
+import edu.nd.nxia.cimonlite.DerivedMetrics;
+import edu.nd.nxia.cimonlite.database.ChunkTable;
 import edu.nd.nxia.cimonlite.database.CimonDatabaseAdapter;
 import edu.nd.nxia.cimonlite.database.MetricInfoTable;
 import edu.nd.nxia.cimonlite.database.MetricsTable;
 import edu.nd.nxia.cimonlite.database.MonitorTable;
 import edu.nd.nxia.cimonlite.database.CimonDatabaseHelper;
 import edu.nd.nxia.cimonlite.database.DataTable;
+import edu.nd.nxia.cimonlite.database.DataView;
 import edu.nd.nxia.cimonlite.database.MetricStatusTable;
+import edu.nd.nxia.cimonlite.database.RollupTable;
+import edu.nd.nxia.cimonlite.database.VectorDataTable;
 
 
 /**
@@ -64,6 +70,8 @@ public class CimonContentProvider extends ContentProvider {
     private final static int STATUS = 70;
     /** MetricStatus table item (active status). */
     private final static int STATUS_ID = 75;
+    /** Rollup table, for single metric. */
+    private final static int METRIC_ROLLUP = 80;
 
     private final static String AUTHORITY = "edu.nd.darts.cimon.contentprovider";
     //	private final static String BASE_PATH = "cimon";
@@ -77,6 +85,7 @@ public class CimonContentProvider extends ContentProvider {
     private final static String METRIC_DATA_PATH = "metricdata";
     //	private final static String GROUP_DATA_PATH = "groupdata";
     private final static String MONITOR_DATA_PATH = "monitordata";
+    private final static String METRIC_ROLLUP_PATH = "metricrollup";
     /** Metric group information.
      *  @see MetricInfoTable
      */
@@ -114,19 +123,56 @@ public class CimonContentProvider extends ContentProvider {
      */
     public final static Uri GRP_METRICS_URI = Uri.parse("content://" +
             AUTHORITY + "/" + METRIC_GROUP_PATH);
-    /** Readings data for a specific monitor.
-     *  @see DataTable
+    /** Readings data for a specific monitor, one row per metric.
+     *  Rows of derived metrics are computed by the data view, so selection
+     *  and sort order apply to them as to stored readings. In selection and
+     *  sort order, the value of a magnitude is its square; rows return the
+     *  magnitude.
+     *  <p>
+     *  Readings stored in compressed blocks follow, in timestamp order of
+     *  blocks. Selection and sort order are not applied to them; they are
+     *  restricted to the range of query parameters {@link #PARAM_START} and
+     *  {@link #PARAM_END} only, which applies to all readings.
+     *  <p>
+     *  Multi-axis readings are keyed by monitor, metric group and timestamp.
+     *  Of several events of a group with the same timestamp, only the first
+     *  one stored is kept; the others are dropped, and only counted (see
+     *  {@link CimonDatabaseAdapter#getIgnoredRows()}). Single metric readings
+     *  and readings stored in compressed blocks are all kept.
+     *  @see DataView
+     *  @see DerivedMetrics
+     *  @see ChunkTable
      *  @see MonitorTable
      */
     public final static Uri MONITOR_DATA_URI = Uri.parse("content://" +
             AUTHORITY + "/" + MONITOR_DATA_PATH);
-    /** Readings data for a specific metric.
-     *  @see DataTable
+    /** Readings data for a specific metric, one row per metric.
+     *  Derived metrics are computed from readings of their metric group,
+     *  as for {@link #MONITOR_DATA_URI}. Readings stored in compressed
+     *  blocks are included as for {@link #MONITOR_DATA_URI}.
+     *  @see DataView
+     *  @see DerivedMetrics
+     *  @see ChunkTable
      *  @see MetricsTable
      */
     public final static Uri METRIC_DATA_URI = Uri.parse("content://" +
             AUTHORITY + "/" + METRIC_DATA_PATH);
 
+    /** Aggregates of readings for a specific metric, one row per time bucket.
+     *  Select on resolution for trends at 1 s, 1 min or 1 h granularity.
+     *  @see RollupTable
+     *  @see MetricsTable
+     */
+    public final static Uri METRIC_ROLLUP_URI = Uri.parse("content://" +
+            AUTHORITY + "/" + METRIC_ROLLUP_PATH);
+
+    /** Query parameter of metric and monitor data URIs: first timestamp of readings
+     *  (nanoseconds). */
+    public final static String PARAM_START = "start";
+    /** Query parameter of metric and monitor data URIs: last timestamp of readings,
+     *  inclusive (nanoseconds). */
+    public final static String PARAM_END = "end";
+
     public final static String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
             + "/cimon";
     public final static String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
@@ -147,6 +193,7 @@ public class CimonContentProvider extends ContentProvider {
         sURIMatcher.addURI(AUTHORITY, METRIC_GROUP_PATH + "/#", GRP_METRICS);
         sURIMatcher.addURI(AUTHORITY, MONITOR_DATA_PATH + "/#", MONITOR_DATA);
         sURIMatcher.addURI(AUTHORITY, METRIC_DATA_PATH + "/#", METRIC_DATA);
+        sURIMatcher.addURI(AUTHORITY, METRIC_ROLLUP_PATH + "/#", METRIC_ROLLUP);
     }
 
     @Override
@@ -176,6 +223,7 @@ public class CimonContentProvider extends ContentProvider {
             case METRIC_DATA:
             case DATA:
             case MONITOR_DATA:
+            case METRIC_ROLLUP:
             case STATUS:
                 return CONTENT_TYPE;
             case INFO_ID:
@@ -204,6 +252,9 @@ public class CimonContentProvider extends ContentProvider {
         int uriType = sURIMatcher.match(uri);
         checkColumns(uriType, projection);
 
+        long timeStart = getTimeParameter(uri, PARAM_START, Long.MIN_VALUE);
+        long timeEnd = getTimeParameter(uri, PARAM_END, Long.MAX_VALUE);
+
         switch (uriType) {
             case INFO:
             case INFO_ID:
@@ -217,13 +268,20 @@ public class CimonContentProvider extends ContentProvider {
                 break;
             case DATA:
             case DATA_ID:
+                // readings are partitioned by day, the view combines the partitions
+                queryBuilder.setTables(DataView.VIEW_SCALAR_DATA);
+                break;
             case METRIC_DATA:
             case MONITOR_DATA:
-                queryBuilder.setTables(DataTable.TABLE_DATA);
+                // multi-axis readings are split into per-metric rows by the view
+                queryBuilder.setTables(DataView.VIEW_DATA);
                 break;
             case MONITOR_ID:
                 queryBuilder.setTables(MonitorTable.TABLE_MONITOR);
                 break;
+            case METRIC_ROLLUP:
+                queryBuilder.setTables(RollupTable.TABLE_ROLLUP);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
@@ -257,13 +315,115 @@ public class CimonContentProvider extends ContentProvider {
                 queryBuilder.appendWhere(DataTable.COLUMN_MONITOR_ID + "="
                         + uri.getLastPathSegment());
                 break;
+            case METRIC_ROLLUP:
+                queryBuilder.appendWhere(RollupTable.COLUMN_METRIC_ID + "="
+                        + uri.getLastPathSegment());
+                break;
+        }
+        boolean readings = uriType == METRIC_DATA || uriType == MONITOR_DATA;
+        if (readings && timeStart != Long.MIN_VALUE) {
+            queryBuilder.appendWhere(" AND " + DataTable.COLUMN_TIMESTAMP + ">=" + timeStart);
+        }
+        if (readings && timeEnd != Long.MAX_VALUE) {
+            queryBuilder.appendWhere(" AND " + DataTable.COLUMN_TIMESTAMP + "<=" + timeEnd);
+        }
+        boolean derived = uriType == MONITOR_DATA || (uriType == METRIC_DATA
+                && DerivedMetrics.isDerived(Integer.parseInt(uri.getLastPathSegment())));
+        Cursor cursor = database.query(queryBuilder,
+                derived ? DerivedMetricCursor.getSourceColumns(projection) : projection,
+                selection, selectionArgs, sortOrder);
+        if (derived) {
+            cursor = new DerivedMetricCursor(cursor, projection);
+        }
+        if (uriType == MONITOR_DATA) {
+            cursor = new MergeCursor(new Cursor[] {cursor, queryChunks(-1,
+                    uri.getLastPathSegment(), projection, timeStart, timeEnd)});
+        }
+        else if (uriType == METRIC_DATA) {
+            cursor = new MergeCursor(new Cursor[] {cursor,
+                    queryChunks(Integer.parseInt(uri.getLastPathSegment()), null, projection,
+                            timeStart, timeEnd)});
         }
-        Cursor cursor = database.query(queryBuilder, projection, selection, selectionArgs, sortOrder);
 
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
 
+    /**
+     * Get timestamp bound of metric or monitor data URI.
+     *
+     * @param uri           URI of query
+     * @param name          name of query parameter
+     * @param unbounded     value if parameter is not given
+     * @return    timestamp (nanoseconds)
+     */
+    private static long getTimeParameter(Uri uri, String name, long unbounded) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return unbounded;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter: " + uri);
+        }
+    }
+
+    /**
+     * Query readings stored in compressed blocks of Chunk table. Blocks outside of
+     * the range of timestamps are skipped, and readings outside of it are dropped
+     * as blocks are decoded.
+     *
+     * @param metric        id of metric, -1 for all metrics
+     * @param monitor       id of monitor, null for all monitors
+     * @param projection    requested columns of Data table
+     * @param start         first timestamp (nanoseconds)
+     * @param end           last timestamp, inclusive (nanoseconds)
+     * @return    cursor presenting readings as rows of Data table
+     */
+    private Cursor queryChunks(int metric, String monitor, String[] projection,
+                               long start, long end) {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(ChunkTable.TABLE_CHUNK);
+        StringBuilder where = new StringBuilder();
+        if (metric >= 0) {
+            if (DerivedMetrics.isDerived(metric)) {
+                where.append(ChunkTable.COLUMN_METRIC_ID + "=")
+                        .append(DerivedMetrics.getGroup(metric));
+            }
+            else {
+                // axes of a metric group are stored in the block of the group
+                where.append(ChunkTable.COLUMN_METRIC_ID + "<=").append(metric).append(" AND ")
+                        .append(ChunkTable.COLUMN_METRIC_ID + "+" + ChunkTable.COLUMN_AXES + ">")
+                        .append(metric);
+            }
+        }
+        if (monitor != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(ChunkTable.COLUMN_MONITOR_ID + "=").append(monitor);
+        }
+        if (start != Long.MIN_VALUE) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(ChunkTable.COLUMN_END_TIME + ">=").append(start);
+        }
+        if (end != Long.MAX_VALUE) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(ChunkTable.COLUMN_START_TIME + "<=").append(end);
+        }
+        if (where.length() > 0) {
+            queryBuilder.appendWhere(where);
+        }
+        Cursor source = database.query(queryBuilder, ChunkCursor.SOURCE_COLUMNS, null, null,
+                ChunkTable.COLUMN_START_TIME);
+        return new ChunkCursor(source, metric, projection, start, end);
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection,
                       String[] selectionArgs) {
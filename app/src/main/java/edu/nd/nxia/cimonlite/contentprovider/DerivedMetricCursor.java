@@ -0,0 +1,145 @@
+package edu.nd.nxia.cimonlite.contentprovider;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.nd.nxia.cimonlite.DerivedMetrics;
+import edu.nd.nxia.cimonlite.database.DataTable;
+import edu.nd.nxia.cimonlite.database.DataView;
+
+/**
+ * Cursor presenting rows of the data view with finished values of derived metrics.
+ * The view computes derived metrics up to a final step SQLite cannot do, which
+ * is applied to the current row as it is read, so selection and sort order are
+ * applied by SQLite and rows are never materialized.
+ *
+ * @author ningxia
+ *
+ * @see DerivedMetrics
+ * @see DataView
+ *
+ */
+public class DerivedMetricCursor extends AbstractCursor {
+
+    /** Columns presented when no projection is requested, as in Data table. */
+    static final String[] DEFAULT_COLUMNS = {
+            DataTable.COLUMN_ID,
+            DataTable.COLUMN_METRIC_ID,
+            DataTable.COLUMN_MONITOR_ID,
+            DataTable.COLUMN_TIMESTAMP,
+            DataTable.COLUMN_VALUE
+    };
+
+    private final Cursor source;
+    private final String[] columns;
+    /** Index of presented value column, -1 if value is not presented. */
+    private final int valueColumn;
+    private final int sourceMetricColumn;
+
+    /**
+     * Cursor presenting rows of data view.
+     *
+     * @param source        cursor over data view with columns of {@link #getSourceColumns}
+     * @param projection    requested columns of Data table, null for all
+     */
+    public DerivedMetricCursor(Cursor source, String[] projection) {
+        this.source = source;
+        this.columns = projection == null ? DEFAULT_COLUMNS : projection;
+        this.valueColumn = Arrays.asList(columns).indexOf(DataTable.COLUMN_VALUE);
+        this.sourceMetricColumn = source.getColumnIndex(DataTable.COLUMN_METRIC_ID);
+    }
+
+    /**
+     * Get columns to query from data view for projection, adding the metric id
+     * needed to tell rows of derived metrics.
+     *
+     * @param projection    requested columns of Data table, null for all
+     * @return    columns to query, starting with requested columns, null for all
+     */
+    public static String[] getSourceColumns(String[] projection) {
+        if (projection == null || !Arrays.asList(projection).contains(DataTable.COLUMN_VALUE)
+                || Arrays.asList(projection).contains(DataTable.COLUMN_METRIC_ID)) {
+            return projection;
+        }
+        ArrayList<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        columns.add(DataTable.COLUMN_METRIC_ID);
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        return source.moveToPosition(newPosition);
+    }
+
+    @Override
+    public int getCount() {
+        return source.getCount();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    /**
+     * Check if column holds value of a derived metric in current row.
+     */
+    private boolean isDerived(int column) {
+        return column == valueColumn && !source.isNull(column)
+                && DerivedMetrics.isDerived(source.getInt(sourceMetricColumn));
+    }
+
+    private float getValue(int column) {
+        return DerivedMetrics.finish(source.getInt(sourceMetricColumn), source.getDouble(column));
+    }
+
+    @Override
+    public String getString(int column) {
+        return isDerived(column) ? String.valueOf(getValue(column)) : source.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return isDerived(column) ? (short) getValue(column) : source.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return isDerived(column) ? (int) getValue(column) : source.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return isDerived(column) ? (long) getValue(column) : source.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return isDerived(column) ? getValue(column) : source.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return isDerived(column) ? getValue(column) : source.getDouble(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return isDerived(column) ? FIELD_TYPE_FLOAT : source.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return source.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        source.close();
+    }
+
+}
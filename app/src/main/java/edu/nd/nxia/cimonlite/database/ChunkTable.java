@@ -0,0 +1,75 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the Chunk table of the database.
+ * This table stores readings in compressed blocks, one row per block of
+ * consecutive readings of a single series, instead of one row per reading in
+ * {@link DataTable} and {@link VectorDataTable}. Blocks are encoded with
+ * {@link SeriesEncoder}.
+ *
+ * @author ningxia
+ *
+ * @see SeriesDecoder
+ *
+ */
+public final class ChunkTable {
+
+    private static final String TAG = "NDroid";
+
+    // Database table
+    public static final String TABLE_CHUNK = "chunk";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Index of monitor that registered metric (Long). */
+    public static final String COLUMN_MONITOR_ID = "monitorid";
+    /** Index of metric, or of metric group for multi-axis series (Long).
+     *  Axes of a group use consecutive metric ids. */
+    public static final String COLUMN_METRIC_ID = "metricid";
+    /** Number of values per reading, 1 or 3 (Long). */
+    public static final String COLUMN_AXES = "axes";
+    /** Time of first reading, from elapsed realtime in nanoseconds (Long). */
+    public static final String COLUMN_START_TIME = "starttime";
+    /** Time of last reading, from elapsed realtime in nanoseconds (Long). */
+    public static final String COLUMN_END_TIME = "endtime";
+    /** Number of readings in block (Long). */
+    public static final String COLUMN_COUNT = "count";
+    /** Encoded readings (Blob). */
+    public static final String COLUMN_DATA = "data";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_CHUNK
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_MONITOR_ID + " integer not null,"
+            + COLUMN_METRIC_ID + " integer not null, "
+            + COLUMN_AXES + " integer not null,"
+            + COLUMN_START_TIME + " integer not null,"
+            + COLUMN_END_TIME + " integer not null,"
+            + COLUMN_COUNT + " integer not null,"
+            + COLUMN_DATA + " blob not null"
+            + ");";
+    private static final String INDEX_CREATE = "create index if not exists "
+            + TABLE_CHUNK + "_key on " + TABLE_CHUNK
+            + "(" + COLUMN_MONITOR_ID + ", " + COLUMN_METRIC_ID + ", " + COLUMN_START_TIME + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+        database.execSQL(INDEX_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_CHUNK + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 7) {
+            onCreate(database);
+        }
+    }
+
+}
@@ -6,18 +6,27 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.nd.nxia.cimonlite.DebugLog;
 import edu.nd.nxia.cimonlite.DataEntry;
+import edu.nd.nxia.cimonlite.Metrics;
+import edu.nd.nxia.cimonlite.SampleBuffer;
 import edu.nd.nxia.cimonlite.contentprovider.CimonContentProvider;
 
 /**
  * Adapter for accessing CIMON database.
+ * Writes are serialized on a single writer lock, while queries take no lock
+ * and run concurrently on the connections of the write-ahead log.
  *
  * @author darts
  * @see CimonDatabaseHelper
@@ -27,14 +36,60 @@ public final class CimonDatabaseAdapter {
     private static final String TAG = "NDroid";
 
     private static CimonDatabaseAdapter mInstance = null;
-    public static SQLiteDatabase database;
-    private static CimonDatabaseHelper dbHelper;
-    private static Context context;
+    private SQLiteDatabase database;
+    private final CimonDatabaseHelper dbHelper;
+    private DatabaseMaintenance maintenance;
+    private StorageGovernor governor;
+    /** Change notifications of content provider, coalesced per URI. */
+    private NotificationCoalescer notifier;
+    private final Context context;
 
-    private CimonDatabaseAdapter(Context context) {
+    private static final String INSERT_CHUNK = "INSERT INTO " + ChunkTable.TABLE_CHUNK + " ("
+            + ChunkTable.COLUMN_MONITOR_ID + ", " + ChunkTable.COLUMN_METRIC_ID + ", "
+            + ChunkTable.COLUMN_AXES + ", " + ChunkTable.COLUMN_START_TIME + ", "
+            + ChunkTable.COLUMN_END_TIME + ", " + ChunkTable.COLUMN_COUNT + ", "
+            + ChunkTable.COLUMN_DATA + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    /** Maximum range of ids deleted per statement by {@link #deleteThrough}. */
+    private static final int DELETE_RANGE = 500;
+    /** Maximum number of readings per block of Chunk table. */
+    private static final int CHUNK_CAPACITY = 1024;
+    /** Serializes writes; queries do not take it. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicLong lockAcquisitions = new AtomicLong();
+    private final AtomicLong lockContentions = new AtomicLong();
+    /** Total and maximum time spent waiting for writer lock (nanoseconds). */
+    private final AtomicLong lockWaitTime = new AtomicLong();
+    private final AtomicLong maxLockWaitTime = new AtomicLong();
+    /** Vector readings ignored by the unique key, as another reading has the same timestamp. */
+    private final AtomicLong ignoredRows = new AtomicLong();
+    /** Daily partitions of Data and VectorData tables. Guarded by writer lock. */
+    private PartitionManager partitions;
+    /** Compiled insert statement, reused by batch inserts. Guarded by writer lock. */
+    private SQLiteStatement insertChunkStatement;
+    /** Encoder of each series, reused by chunk inserts. Guarded by writer lock. */
+    private final Map<Integer, SeriesEncoder> encoders = new HashMap<Integer, SeriesEncoder>();
+    private final ArrayList<SeriesEncoder> openEncoders = new ArrayList<SeriesEncoder>();
+    /** Quantization step of each metric of monitor {@link #stepsMonitor}. Guarded by writer lock. */
+    private final Map<Integer, Double> steps = new HashMap<Integer, Double>();
+    private int stepsMonitor = -1;
+    /** Aggregates batches into Rollup table. Guarded by writer lock. */
+    private RollupAccumulator rollups;
+    /** Interval between purges of raw readings past retention (milliseconds). */
+    private static final long RETENTION_PERIOD = 60 * 60 * 1000;
+    /** Age after which raw readings are purged (days), 0 to keep them. */
+    private volatile int retentionDays;
+    private boolean retentionScheduled;
+
+    /**
+     * Adapter of database of context. Tests use it with a renaming context, to get
+     * a database of their own, independent of the shared instance.
+     *
+     * @param context    context database is opened from
+     */
+    CimonDatabaseAdapter(Context context) {
         if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseAdapter - constructor");
         dbHelper = new CimonDatabaseHelper(context);
-        CimonDatabaseAdapter.context = context;
+        this.context = context;
         this.open();
     }
 
@@ -47,14 +102,117 @@ public final class CimonDatabaseAdapter {
     }
 
     public void open() throws SQLException {
-        database = dbHelper.getWritableDatabase();
+        lockWriter();
+        try {
+            database = dbHelper.getWritableDatabase();
+            partitions = new PartitionManager(database);
+            insertChunkStatement = database.compileStatement(INSERT_CHUNK);
+            rollups = new RollupAccumulator(database);
+            maintenance = new DatabaseMaintenance(database);
+            maintenance.start();
+            governor = new StorageGovernor(database, writeLock, maintenance, partitions);
+            maintenance.schedule(governor, StorageGovernor.CHECK_PERIOD);
+            notifier = new NotificationCoalescer(context.getContentResolver(),
+                    NotificationCoalescer.DEFAULT_INTERVAL);
+            notifier.start();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
      * Close open database object.
      */
     public void close() {
-        dbHelper.close();
+        lockWriter();
+        try {
+            maintenance.stop();
+            notifier.stop();
+            partitions.close();
+            insertChunkStatement.close();
+            rollups.close();
+            dbHelper.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Acquire writer lock, recording time spent waiting for it.
+     * Must be released with {@code writeLock.unlock()} in a finally block.
+     */
+    private void lockWriter() {
+        lockAcquisitions.incrementAndGet();
+        if (writeLock.tryLock()) {
+            return;
+        }
+        long start = System.nanoTime();
+        writeLock.lock();
+        long wait = System.nanoTime() - start;
+        lockContentions.incrementAndGet();
+        lockWaitTime.addAndGet(wait);
+        // only updated while holding writer lock
+        if (wait > maxLockWaitTime.get()) {
+            maxLockWaitTime.set(wait);
+        }
+    }
+
+    /**
+     * Get contention statistics of writer lock.
+     *
+     * @return    acquisitions, contended acquisitions, and total/maximum wait time
+     */
+    public String getLockStatistics() {
+        return String.format("Writer lock acquired: %d, contended: %d, wait: %.1fms (max %.1fms)",
+                getLockAcquisitions(), getLockContentions(), lockWaitTime.get() / 1e6,
+                maxLockWaitTime.get() / 1e6);
+    }
+
+    public long getLockAcquisitions() {
+        return lockAcquisitions.get();
+    }
+
+    /**
+     * Get number of acquisitions of writer lock which had to wait for another writer.
+     */
+    public long getLockContentions() {
+        return lockContentions.get();
+    }
+
+    /**
+     * Get number of vector readings ignored because a reading of the same monitor,
+     * metric group and timestamp was already stored.
+     *
+     * @return    ignored readings since adapter was created
+     */
+    public long getIgnoredRows() {
+        return ignoredRows.get();
+    }
+
+    /**
+     * Hold back change notifications while loading many rows, calls must be
+     * matched by {@link #endBulkLoad()}.
+     *
+     * @see NotificationCoalescer#beginQuiet()
+     */
+    public void beginBulkLoad() {
+        notifier.beginQuiet();
+    }
+
+    /**
+     * Send change notifications held back since {@link #beginBulkLoad()}.
+     */
+    public void endBulkLoad() {
+        notifier.endQuiet();
+    }
+
+    /**
+     * Set minimum time between change notifications of the same URI.
+     *
+     * @param interval    interval (milliseconds)
+     */
+    public void setNotificationInterval(long interval) {
+        notifier.setInterval(interval);
     }
 
     /**
@@ -72,32 +230,37 @@ public final class CimonDatabaseAdapter {
      * @return rowid of inserted row, -1 on failure
      * @see MetricInfoTable
      */
-    public synchronized long insertOrReplaceMetricInfo(int id, String title,
+    public long insertOrReplaceMetricInfo(int id, String title,
                                                        String description, int supported, float power, int mininterval,
                                                        String maxrange, String resolution, int type) {
-//        if (DebugLog.DEBUG)
-        Log.d(TAG, "CimonDatabaseAdapter.insertOrReplaceMetricInfo - insert into MetricInfo table: metric-" + title);
-        ContentValues values = new ContentValues();
-        values.put(MetricInfoTable.COLUMN_ID, id);
-        values.put(MetricInfoTable.COLUMN_TITLE, title);
-        values.put(MetricInfoTable.COLUMN_DESCRIPTION, description);
-        values.put(MetricInfoTable.COLUMN_SUPPORTED, supported);
-        values.put(MetricInfoTable.COLUMN_POWER, power);
-        values.put(MetricInfoTable.COLUMN_MININTERVAL, mininterval);
-        values.put(MetricInfoTable.COLUMN_MAXRANGE, maxrange);
-        values.put(MetricInfoTable.COLUMN_RESOLUTION, resolution);
-        values.put(MetricInfoTable.COLUMN_TYPE, type);
-//		SQLiteDatabase sqlDB = database.getWritableDatabase();
-        long rowid = database.replace(MetricInfoTable.TABLE_METRICINFO, null, values);
-        if (rowid >= 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.INFO_URI,
-                    String.valueOf(id));
-            context.getContentResolver().notifyChange(uri, null);
-            uri = Uri.withAppendedPath(CimonContentProvider.CATEGORY_URI,
-                    String.valueOf(type));
-            context.getContentResolver().notifyChange(uri, null);
+        lockWriter();
+        try {
+    //        if (DebugLog.DEBUG)
+            Log.d(TAG, "CimonDatabaseAdapter.insertOrReplaceMetricInfo - insert into MetricInfo table: metric-" + title);
+            ContentValues values = new ContentValues();
+            values.put(MetricInfoTable.COLUMN_ID, id);
+            values.put(MetricInfoTable.COLUMN_TITLE, title);
+            values.put(MetricInfoTable.COLUMN_DESCRIPTION, description);
+            values.put(MetricInfoTable.COLUMN_SUPPORTED, supported);
+            values.put(MetricInfoTable.COLUMN_POWER, power);
+            values.put(MetricInfoTable.COLUMN_MININTERVAL, mininterval);
+            values.put(MetricInfoTable.COLUMN_MAXRANGE, maxrange);
+            values.put(MetricInfoTable.COLUMN_RESOLUTION, resolution);
+            values.put(MetricInfoTable.COLUMN_TYPE, type);
+    //		SQLiteDatabase sqlDB = database.getWritableDatabase();
+            long rowid = database.replace(MetricInfoTable.TABLE_METRICINFO, null, values);
+            if (rowid >= 0) {
+                Uri uri = Uri.withAppendedPath(CimonContentProvider.INFO_URI,
+                        String.valueOf(id));
+                notifier.notifyChange(uri);
+                uri = Uri.withAppendedPath(CimonContentProvider.CATEGORY_URI,
+                        String.valueOf(type));
+                notifier.notifyChange(uri);
+            }
+            return rowid;
+        } finally {
+            writeLock.unlock();
         }
-        return rowid;
     }
 
     /**
@@ -111,24 +274,29 @@ public final class CimonDatabaseAdapter {
      * @return rowid of inserted row, -1 on failure
      * @see MetricsTable
      */
-    public synchronized long insertOrReplaceMetrics(int id, int group, String metric, String units,
+    public long insertOrReplaceMetrics(int id, int group, String metric, String units,
                                                     float max) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.insertOrReplaceMetrics - insert into Metrics table: metric-" + metric);
-        ContentValues values = new ContentValues();
-        values.put(MetricsTable.COLUMN_ID, id);
-        values.put(MetricsTable.COLUMN_INFO_ID, group);
-        values.put(MetricsTable.COLUMN_METRIC, metric);
-        values.put(MetricsTable.COLUMN_UNITS, units);
-        values.put(MetricsTable.COLUMN_MAX, max);
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.insertOrReplaceMetrics - insert into Metrics table: metric-" + metric);
+            ContentValues values = new ContentValues();
+            values.put(MetricsTable.COLUMN_ID, id);
+            values.put(MetricsTable.COLUMN_INFO_ID, group);
+            values.put(MetricsTable.COLUMN_METRIC, metric);
+            values.put(MetricsTable.COLUMN_UNITS, units);
+            values.put(MetricsTable.COLUMN_MAX, max);
 
-        long rowid = database.replace(MetricsTable.TABLE_METRICS, null, values);
-        if (rowid >= 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.METRICS_URI,
-                    String.valueOf(id));
-            context.getContentResolver().notifyChange(uri, null);
+            long rowid = database.replace(MetricsTable.TABLE_METRICS, null, values);
+            if (rowid >= 0) {
+                Uri uri = Uri.withAppendedPath(CimonContentProvider.METRICS_URI,
+                        String.valueOf(id));
+                notifier.notifyChange(uri);
+            }
+            return rowid;
+        } finally {
+            writeLock.unlock();
         }
-        return rowid;
     }
 
     /**
@@ -136,29 +304,41 @@ public final class CimonDatabaseAdapter {
      *
      * @param metric    id of metric
      * @param monitor   id of monitor
-     * @param timestamp timestamp measured from uptime (milliseconds)
+     * @param timestamp timestamp measured from elapsed realtime (nanoseconds)
      * @param value     value of reading
      * @return rowid of inserted row, -1 on failure
      * @see DataTable
      */
-    public synchronized long insertData(int metric, int monitor, long timestamp,
+    public long insertData(int metric, int monitor, long timestamp,
                                         float value) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.insertData - insert into Data table: metric-" + metric);
-        ContentValues values = new ContentValues();
-        values.put(DataTable.COLUMN_METRIC_ID, metric);
-        values.put(DataTable.COLUMN_MONITOR_ID, monitor);
-        values.put(DataTable.COLUMN_TIMESTAMP, this.upTimeToRealTime(timestamp));
-        //values.put(DataTable.COLUMN_TIMESTAMP, timestamp);
-        values.put(DataTable.COLUMN_VALUE, value);
-
-        long rowid = database.insert(DataTable.TABLE_DATA, null, values);
-        if (rowid >= 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.DATA_URI,
-                    String.valueOf(rowid));
-            context.getContentResolver().notifyChange(uri, null);
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.insertData - insert into Data table: metric-" + metric);
+            long rowid;
+            try {
+                SQLiteStatement statement = partitions.insertData(monitor, timestamp);
+                statement.bindLong(2, metric);
+                statement.bindLong(3, monitor);
+                statement.bindLong(4, timestamp);
+                bindValue(statement, 5, value, stepOf(monitor, metric));
+                rowid = statement.executeInsert();
+            } catch (SQLException e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error on insert: " + e.toString());
+                rowid = -1;
+            }
+            if (rowid >= 0) {
+                // per-row URIs would defeat coalescing, notify table and series instead
+                notifier.notifyChange(CimonContentProvider.DATA_URI);
+                notifier.notifyChange(Uri.withAppendedPath(CimonContentProvider.METRIC_DATA_URI,
+                        String.valueOf(metric)));
+                notifier.notifyChange(Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
+                        String.valueOf(monitor)));
+            }
+            return rowid;
+        } finally {
+            writeLock.unlock();
         }
-        return rowid;
     }
 
     /**
@@ -168,140 +348,498 @@ public final class CimonDatabaseAdapter {
      * @param metric  id of metric
      * @param monitor id of monitor
      * @param data    array list of {@link DataEntry} pairs
-     * @return number of rows inserted (should equal size of _data_ array list on success)
+     * @return number of rows inserted (should equal size of _data_ array list on success),
+     *         -1 if the batch was rolled back
      * @see DataTable
+     * @see RollupTable
      */
-    public synchronized long insertBatchData(int metric, int monitor,
+    public long insertBatchData(int metric, int monitor,
                                              ArrayList<DataEntry> data) {
-//        if (DebugLog.DEBUG)
-        Log.d(TAG, "CimonDatabaseAdapter.insertBatchData - insert into Data table: " +
-                "metric-" + metric);
-        long rowsInserted = 0;
-        ContentValues values = new ContentValues();
-        values.put(DataTable.COLUMN_METRIC_ID, metric);
-        values.put(DataTable.COLUMN_MONITOR_ID, monitor);
-
-        database.beginTransaction();
+        lockWriter();
         try {
-            for (DataEntry entry : data) {
-                ContentValues contentValues = new ContentValues(values);
-                contentValues.put(DataTable.COLUMN_TIMESTAMP, this.upTimeToRealTime(entry.timestamp));
-
-                if (entry.isByte()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Byte) entry.value);
+    //        if (DebugLog.DEBUG)
+            Log.d(TAG, "CimonDatabaseAdapter.insertBatchData - insert into Data table: " +
+                    "metric-" + metric);
+            long rowsInserted = 0;
+            long startTime = SystemClock.elapsedRealtime();
+            // partitions are created outside of the batch transaction
+            try {
+                for (DataEntry entry : data) {
+                    partitions.prepare(monitor, entry.timestamp);
                 }
-                else if (entry.isDouble()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Double) entry.value);
-                }
-                else if (entry.isFloat()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Float) entry.value);
+            } catch (SQLException e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error creating partition: " + e.toString());
+                return -1;
+            }
+
+            double step = stepOf(monitor, metric);
+
+            boolean successful = false;
+            database.beginTransaction();
+            try {
+                rollups.begin(monitor, partitions.offsetOf(monitor));
+                for (DataEntry entry : data) {
+                    SQLiteStatement statement = partitions.insertData(monitor, entry.timestamp);
+                    statement.bindLong(2, metric);
+                    statement.bindLong(3, monitor);
+                    statement.bindLong(4, entry.timestamp);
+                    Object value = entry.value;
+                    if (value instanceof Float || value instanceof Double) {
+                        bindValue(statement, 5, ((Number) value).doubleValue(), step);
+                    }
+                    else if (value instanceof Number) {
+                        statement.bindLong(5, ((Number) value).longValue());
+                    }
+                    else if (value instanceof String) {
+                        statement.bindString(5, (String) value);
+                    }
+                    else {
+                        statement.bindNull(5);
+                    }
+                    if (statement.executeInsert() >= 0) {
+                        rowsInserted++;
+                        if (value instanceof Number) {
+                            rollups.add(metric, entry.timestamp, ((Number) value).doubleValue());
+                        }
+                    }
+    //                if (DebugLog.DEBUG) Log.d(TAG, "insertBatchData: " + metric + " t: " + entry.timestamp + " - v: " + entry.value);
                 }
-                else if (entry.isInteger()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Integer) entry.value);
+                rollups.end();
+                // Transaction is successful and all the records have been inserted
+                database.setTransactionSuccessful();
+                successful = true;
+            } catch (Exception e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error on batch insert: " + e.toString());
+            } finally {
+                //End the transaction
+                if (!endBatch(successful)) {
+                    rollups.abort();
+                    // partitions created by the failed transaction are gone
+                    partitions.reload();
+                    // nothing of the batch is stored
+                    rowsInserted = -1;
                 }
-                else if (entry.isLong()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Long) entry.value);
+            }
+            if (rowsInserted > 0) {
+                logInsertRate("insertBatchData", rowsInserted, startTime);
+                notifier.notifyChange(Uri.withAppendedPath(CimonContentProvider.METRIC_DATA_URI,
+                        String.valueOf(metric)));
+                notifier.notifyChange(Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
+                        String.valueOf(monitor)));
+            }
+            return rowsInserted;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Insert batch of new data for multiple metrics into Data and VectorData tables.
+     * Batch comes as {@link SampleBuffer} of metric - timestamp - value readings.
+     * Multi-axis readings are stored as a single row of VectorData table.
+     *
+     * @param monitor id of monitor
+     * @param data    buffer of readings
+     * @return number of rows inserted, less than size of _data_ buffer if duplicate
+     *         readings were ignored, -1 if the batch was rolled back
+     * @see DataTable
+     * @see VectorDataTable
+     * @see RollupTable
+     */
+    public long insertBatchGroupData(int monitor, SampleBuffer data) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.insertBatchGroupData " + System.currentTimeMillis());
+            long rowsInserted = 0;
+            long rowsIgnored = 0;
+            long startTime = SystemClock.elapsedRealtime();
+            // partitions are created outside of the batch transaction
+            try {
+                for (int i = 0; i < data.size(); i ++) {
+                    partitions.prepare(monitor, data.timestamp[i]);
                 }
-                else if (entry.isString()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (String) entry.value);
+            } catch (SQLException e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error creating partition: " + e.toString());
+                return -1;
+            }
+
+            boolean successful = false;
+            database.beginTransaction();
+            try {
+                rollups.begin(monitor, partitions.offsetOf(monitor));
+                for (int i = 0; i < data.size(); i ++) {
+                    long rowid;
+                    SQLiteStatement statement;
+                    if (data.vector[i]) {
+                        statement = partitions.insertVectorData(monitor, data.timestamp[i]);
+                        statement.bindLong(2, data.metricId[i]);
+                        statement.bindLong(3, monitor);
+                        statement.bindLong(4, data.timestamp[i]);
+                        double step = stepOf(monitor, data.metricId[i]);
+                        bindValue(statement, 5, data.value[i], step);
+                        bindValue(statement, 6, data.valueY[i], step);
+                        bindValue(statement, 7, data.valueZ[i], step);
+                        // duplicate readings are ignored, returning -1
+                        rowid = statement.executeInsert();
+                    }
+                    else {
+                        statement = partitions.insertData(monitor, data.timestamp[i]);
+                        statement.bindLong(2, data.metricId[i]);
+                        statement.bindLong(3, monitor);
+                        statement.bindLong(4, data.timestamp[i]);
+                        bindValue(statement, 5, data.value[i], stepOf(monitor, data.metricId[i]));
+                        rowid = statement.executeInsert();
+                    }
+                    if (rowid >= 0) {
+                        rowsInserted++;
+                        addRollup(data, i);
+                    }
+                    else {
+                        rowsIgnored++;
+                    }
                 }
-                if (database.insert(DataTable.TABLE_DATA, null, contentValues) >= 0) {
-                    rowsInserted++;
+                rollups.end();
+                // Transaction is successful and all the records have been inserted
+                database.setTransactionSuccessful();
+                successful = true;
+            } catch (Exception e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error on batch insert: " + e.toString());
+            } finally {
+                //End the transaction
+                if (!endBatch(successful)) {
+                    rollups.abort();
+                    // partitions created by the failed transaction are gone
+                    partitions.reload();
+                    // nothing of the batch is stored
+                    rowsInserted = -1;
                 }
-//                if (DebugLog.DEBUG) Log.d(TAG, "insertBatchData: " + metric + " t: " + this.upTimeToRealTime(entry.timestamp) + " - v: " + entry.value);
             }
-            // Transaction is successful and all the records have been inserted
-            database.setTransactionSuccessful();
-        } catch (Exception e) {
-            if (DebugLog.ERROR) Log.e(TAG, "Error on batch insert: " + e.toString());
+            if (rowsInserted >= 0 && rowsIgnored > 0) {
+                ignoredRows.addAndGet(rowsIgnored);
+                if (DebugLog.WARNING) Log.w(TAG, "CimonDatabaseAdapter.insertBatchGroupData - "
+                        + rowsIgnored + " readings with duplicate timestamp ignored, total: "
+                        + ignoredRows.get());
+            }
+            if (rowsInserted > 0) {
+                logInsertRate("insertBatchGroupData", rowsInserted, startTime);
+                Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
+                        String.valueOf(monitor));
+                notifier.notifyChange(uri);
+            }
+            return rowsInserted;
         } finally {
-            //End the transaction
-            database.endTransaction();
+            writeLock.unlock();
         }
-        if (rowsInserted > 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
-                    String.valueOf(monitor));
-            context.getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Get quantization step of metric of monitor.
+     *
+     * @return    step, 0 if readings of metric are stored as floats
+     * @see QuantizationTable
+     */
+    private double stepOf(int monitor, int metric) {
+        if (monitor != stepsMonitor) {
+            steps.clear();
+            Cursor cursor = database.query(QuantizationTable.TABLE_QUANTIZATION,
+                    new String[]{QuantizationTable.COLUMN_METRIC_ID, QuantizationTable.COLUMN_STEP},
+                    QuantizationTable.COLUMN_MONITOR_ID + " = " + monitor, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    steps.put(cursor.getInt(0), cursor.getDouble(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            stepsMonitor = monitor;
         }
-        return rowsInserted;
+        Double step = steps.get(metric);
+        return step == null ? 0 : step;
     }
 
-    public synchronized long insertBatchGroupData(int monitor, ArrayList<DataEntry> data) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.insertBatchGroupData " + System.currentTimeMillis());
-        long rowsInserted = 0;
-        ContentValues values = new ContentValues();
-        values.put(DataTable.COLUMN_MONITOR_ID, monitor);
+    /**
+     * Bind value of reading, as number of steps if metric is quantized.
+     * Values which are not finite are stored as they are, and read back unchanged.
+     */
+    private static void bindValue(SQLiteStatement statement, int index, double value,
+                                  double step) {
+        if (step > 0 && !Double.isNaN(value) && !Double.isInfinite(value)) {
+            statement.bindLong(index, Math.round(value / step));
+        }
+        else {
+            statement.bindDouble(index, value);
+        }
+    }
 
-        database.beginTransaction();
+    /**
+     * Aggregate row of batch into Rollup table.
+     */
+    private void addRollup(SampleBuffer data, int i) {
+        if (data.vector[i]) {
+            rollups.add(data.metricId[i], data.timestamp[i], data.value[i], data.valueY[i],
+                    data.valueZ[i]);
+        }
+        else {
+            rollups.add(data.metricId[i], data.timestamp[i], data.value[i]);
+        }
+    }
+
+    /**
+     * Insert batch of new data for multiple metrics into Chunk table.
+     * Readings of each series in the batch are encoded into blocks of at most
+     * {@value #CHUNK_CAPACITY} readings, so each batch adds one row per series.
+     *
+     * @param monitor id of monitor
+     * @param data    buffer of readings
+     * @return number of readings inserted (should equal size of _data_ buffer on success),
+     *         -1 if the batch was rolled back
+     * @see ChunkTable
+     * @see SeriesEncoder
+     * @see RollupTable
+     */
+    public long insertBatchChunks(int monitor, SampleBuffer data) {
+        lockWriter();
         try {
-            for (int i = 0; i < data.size(); i ++) {
-                DataEntry entry = data.get(i);
-                ContentValues contentValues = new ContentValues(values);
-                contentValues.put(DataTable.COLUMN_METRIC_ID, entry.metricId);
-                contentValues.put(DataTable.COLUMN_TIMESTAMP, this.upTimeToRealTime(entry.timestamp));
-
-                if (entry.isByte()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Byte) entry.value);
-                }
-                else if (entry.isDouble()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Double) entry.value);
-                }
-                else if (entry.isFloat()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Float) entry.value);
-                }
-                else if (entry.isInteger()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Integer) entry.value);
-                }
-                else if (entry.isLong()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (Long) entry.value);
+            long rowsInserted = 0;
+            long startTime = SystemClock.elapsedRealtime();
+            insertChunkStatement.bindLong(1, monitor);
+
+            boolean successful = false;
+            database.beginTransaction();
+            try {
+                rollups.begin(monitor, partitions.offsetOf(monitor));
+                openEncoders.clear();
+                for (int i = 0; i < data.size(); i ++) {
+                    int axes = data.vector[i] ? 3 : 1;
+                    SeriesEncoder encoder = encoders.get(data.metricId[i]);
+                    if (encoder == null || encoder.getAxes() != axes) {
+                        encoder = new SeriesEncoder(axes, CHUNK_CAPACITY);
+                        encoders.put(data.metricId[i], encoder);
+                    }
+                    if (!openEncoders.contains(encoder)) {
+                        encoder.reset();
+                        openEncoders.add(encoder);
+                    }
+                    else if (encoder.isFull()) {
+                        rowsInserted += insertChunk(data.metricId[i], encoder);
+                        encoder.reset();
+                    }
+                    encoder.append(data.timestamp[i], data.value[i], data.valueY[i], data.valueZ[i]);
+                    addRollup(data, i);
                 }
-                else if (entry.isString()) {
-                    contentValues.put(DataTable.COLUMN_VALUE, (String) entry.value);
+                for (Map.Entry<Integer, SeriesEncoder> entry : encoders.entrySet()) {
+                    if (openEncoders.contains(entry.getValue())) {
+                        rowsInserted += insertChunk(entry.getKey(), entry.getValue());
+                    }
                 }
-                if (database.insert(DataTable.TABLE_DATA, null, contentValues) >= 0) {
-                    rowsInserted++;
+                rollups.end();
+                // Transaction is successful and all the records have been inserted
+                database.setTransactionSuccessful();
+                successful = true;
+            } catch (Exception e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error on batch insert: " + e.toString());
+            } finally {
+                //End the transaction
+                if (!endBatch(successful)) {
+                    rollups.abort();
+                    // nothing of the batch is stored
+                    rowsInserted = -1;
                 }
-//                if (DebugLog.DEBUG) Log.d(TAG, "insertBatchData: " + metric + " t: " + this.upTimeToRealTime(entry.timestamp) + " - v: " + entry.value);
             }
-            // Transaction is successful and all the records have been inserted
-            database.setTransactionSuccessful();
-        } catch (Exception e) {
-            if (DebugLog.ERROR) Log.e(TAG, "Error on batch insert: " + e.toString());
+            if (rowsInserted > 0) {
+                logInsertRate("insertBatchChunks", rowsInserted, startTime);
+                Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
+                        String.valueOf(monitor));
+                notifier.notifyChange(uri);
+            }
+            return rowsInserted;
         } finally {
-            //End the transaction
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Insert encoded block into Chunk table, monitor must already be bound.
+     *
+     * @return number of readings in block, 0 on failure
+     */
+    private int insertChunk(int series, SeriesEncoder encoder) {
+        insertChunkStatement.bindLong(2, series);
+        insertChunkStatement.bindLong(3, encoder.getAxes());
+        insertChunkStatement.bindLong(4, encoder.getFirstTimestamp());
+        insertChunkStatement.bindLong(5, encoder.getLastTimestamp());
+        insertChunkStatement.bindLong(6, encoder.getCount());
+        insertChunkStatement.bindBlob(7, encoder.toByteArray());
+        return insertChunkStatement.executeInsert() >= 0 ? encoder.getCount() : 0;
+    }
+
+    /**
+     * End transaction of batch insert, committing it if it was marked successful.
+     *
+     * @param successful    true if all rows of batch were inserted
+     * @return    true if batch was committed
+     */
+    private boolean endBatch(boolean successful) {
+        try {
             database.endTransaction();
+            return successful;
+        } catch (SQLException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error on batch commit: " + e.toString());
+            return false;
         }
-        if (rowsInserted > 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_DATA_URI,
-                    String.valueOf(monitor));
-            context.getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Log insert throughput of a batch, for comparing batch sizes and insert paths.
+     *
+     * @param method       name of inserting method
+     * @param rows         number of rows inserted
+     * @param startTime    elapsed realtime when batch started (milliseconds)
+     */
+    private static void logInsertRate(String method, long rows, long startTime) {
+        if (DebugLog.DEBUG) {
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+            Log.d(TAG, "CimonDatabaseAdapter." + method + " - " + rows + " rows in " + elapsed
+                    + "ms (" + (rows * 1000 / elapsed) + " rows/s)");
         }
-        return rowsInserted;
     }
 
     /**
      * Insert new monitor into Monitor table, automatically generating monitor id.
      *
      * @param offsettime time offset to apply to data table times to acquire time
-     *                   from epoch, in milliseconds
+     *                   from epoch, in nanoseconds
      * @return new monitor id
      * @see MonitorTable
      */
-    public synchronized int insertMonitor(long offsettime) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.insertMonitor - insert into Monitor table: time-" + offsettime);
+    public int insertMonitor(long offsettime) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.insertMonitor - insert into Monitor table: time-" + offsettime);
+            ContentValues values = new ContentValues();
+            values.put(MonitorTable.COLUMN_TIME_OFFSET, offsettime);
+            values.put(MonitorTable.COLUMN_ENDTIME, 0);
+
+            long rowid = database.insert(MonitorTable.TABLE_MONITOR, null, values);
+            if (rowid >= 0) {
+                Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_URI,
+                        String.valueOf(rowid));
+                notifier.notifyChange(uri);
+            }
+            return (int) rowid;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Store readings of monitor quantized to the resolution of their sensor,
+     * as recorded in MetricInfo table. Must be called before the first reading
+     * of the monitor is inserted, sensors without resolution are stored as floats.
+     *
+     * @param monitor    id of monitor
+     * @return number of metrics quantized
+     * @see QuantizationTable
+     */
+    public int quantizeMonitor(int monitor) {
+        lockWriter();
+        try {
+            int quantized = 0;
+            Cursor groups = database.query(MetricInfoTable.TABLE_METRICINFO,
+                    new String[]{MetricInfoTable.COLUMN_ID, MetricInfoTable.COLUMN_RESOLUTION},
+                    MetricInfoTable.COLUMN_TYPE + " = " + Metrics.TYPE_SENSOR,
+                    null, null, null, null);
+            database.beginTransaction();
+            try {
+                while (groups.moveToNext()) {
+                    double step = QuantizationTable.parseStep(groups.getString(1));
+                    if (step == 0) {
+                        continue;
+                    }
+                    int group = groups.getInt(0);
+                    // vector readings are stored under group, single readings under metric
+                    quantized += insertStep(monitor, group, step);
+                    Cursor metrics = database.query(MetricsTable.TABLE_METRICS,
+                            new String[]{MetricsTable.COLUMN_ID},
+                            MetricsTable.COLUMN_INFO_ID + " = " + group + " AND "
+                                    + MetricsTable.COLUMN_ID + " != " + group,
+                            null, null, null, null);
+                    while (metrics.moveToNext()) {
+                        quantized += insertStep(monitor, metrics.getInt(0), step);
+                    }
+                    metrics.close();
+                }
+                if (quantized > 0) {
+                    // steps are built into the views
+                    DataView.rebuild(database);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                groups.close();
+            }
+            stepsMonitor = -1;
+            if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseAdapter.quantizeMonitor - monitor "
+                    + monitor + ": " + quantized + " metrics");
+            return quantized;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int insertStep(int monitor, int metric, double step) {
         ContentValues values = new ContentValues();
-        values.put(MonitorTable.COLUMN_TIME_OFFSET, offsettime);
-        values.put(MonitorTable.COLUMN_ENDTIME, 0);
+        values.put(QuantizationTable.COLUMN_MONITOR_ID, monitor);
+        values.put(QuantizationTable.COLUMN_METRIC_ID, metric);
+        values.put(QuantizationTable.COLUMN_STEP, step);
+        return database.replace(QuantizationTable.TABLE_QUANTIZATION, null, values) >= 0 ? 1 : 0;
+    }
+
+    /**
+     * Insert change of sampling period into RateLog table.
+     *
+     * @param monitor   id of monitor
+     * @param group     id of metric group
+     * @param timestamp time of change (nanoseconds, elapsed realtime)
+     * @param period    new sampling period (microseconds)
+     * @return rowid of inserted row, -1 on failure
+     * @see RateLogTable
+     */
+    public long insertRateChange(int monitor, int group, long timestamp, int period) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.insertRateChange - insert into RateLog table: group-" + group
+                        + " period-" + period);
+            ContentValues values = new ContentValues();
+            values.put(RateLogTable.COLUMN_MONITOR_ID, monitor);
+            values.put(RateLogTable.COLUMN_METRIC_ID, group);
+            values.put(RateLogTable.COLUMN_TIMESTAMP, timestamp);
+            values.put(RateLogTable.COLUMN_PERIOD, period);
 
-        long rowid = database.insert(MonitorTable.TABLE_MONITOR, null, values);
-        if (rowid >= 0) {
-            Uri uri = Uri.withAppendedPath(CimonContentProvider.MONITOR_URI,
-                    String.valueOf(rowid));
-            context.getContentResolver().notifyChange(uri, null);
+            return database.insert(RateLogTable.TABLE_RATE_LOG, null, values);
+        } finally {
+            writeLock.unlock();
         }
-        return (int) rowid;
+    }
+
+    /**
+     * Insert change of sampling period into RateLog table on the maintenance thread,
+     * so that the caller never waits for the writer lock. Changes are inserted in
+     * the order they are posted.
+     *
+     * @see #insertRateChange(int, int, long, int)
+     */
+    public void postRateChange(final int monitor, final int group, final long timestamp,
+                               final int period) {
+        maintenance.post(new Runnable() {
+            @Override
+            public void run() {
+                insertRateChange(monitor, group, timestamp, period);
+            }
+        }, 0);
     }
 
     /**
@@ -311,16 +849,21 @@ public final class CimonDatabaseAdapter {
      * @return number of rows deleted (should be 0 or 1)
      * @see MetricInfoTable
      */
-    public synchronized int deleteMetricInfo(int metric) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.deleteInfo - delete from MetricInfo table: metric-" + metric);
-//		SQLiteDatabase sqlDB = database.getWritableDatabase();
-        int rowsdeleted = database.delete(MetricInfoTable.TABLE_METRICINFO,
-                MetricInfoTable.COLUMN_ID + " = " + metric, null);
-        Uri uri = Uri.withAppendedPath(CimonContentProvider.INFO_URI,
-                String.valueOf(metric));
-        context.getContentResolver().notifyChange(uri, null);
-        return rowsdeleted;
+    public int deleteMetricInfo(int metric) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.deleteInfo - delete from MetricInfo table: metric-" + metric);
+    //		SQLiteDatabase sqlDB = database.getWritableDatabase();
+            int rowsdeleted = database.delete(MetricInfoTable.TABLE_METRICINFO,
+                    MetricInfoTable.COLUMN_ID + " = " + metric, null);
+            Uri uri = Uri.withAppendedPath(CimonContentProvider.INFO_URI,
+                    String.valueOf(metric));
+            notifier.notifyChange(uri);
+            return rowsdeleted;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -330,36 +873,316 @@ public final class CimonDatabaseAdapter {
      * @return number of rows deleted
      * @see MetricsTable
      */
-    public synchronized int deleteMetrics(int group) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.deleteMetrics - delete from Metrics table: group-" + group);
-        int rowsdeleted = database.delete(MetricsTable.TABLE_METRICS,
-                MetricsTable.COLUMN_INFO_ID + " = " + group, null);
-        Uri uri = Uri.withAppendedPath(CimonContentProvider.GRP_METRICS_URI,
-                String.valueOf(group));
-        context.getContentResolver().notifyChange(uri, null);
-        return rowsdeleted;
+    public int deleteMetrics(int group) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.deleteMetrics - delete from Metrics table: group-" + group);
+            int rowsdeleted = database.delete(MetricsTable.TABLE_METRICS,
+                    MetricsTable.COLUMN_INFO_ID + " = " + group, null);
+            Uri uri = Uri.withAppendedPath(CimonContentProvider.GRP_METRICS_URI,
+                    String.valueOf(group));
+            notifier.notifyChange(uri);
+            return rowsdeleted;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
-     * Purge old data from Data table.
+     * Purge old data from Data, VectorData, Chunk and RateLog tables.
      * Any records related to monitors older than the provided monitorID will be removed.
      *
      * @param monitorID oldest monitor that should remain in Data table after purge
      * @return number of rows deleted
      * @see DataTable
+     * @see VectorDataTable
+     * @see ChunkTable
+     * @see RateLogTable
+     */
+    public int purgeData(int monitorID) {
+        lockWriter();
+        try {
+            if (DebugLog.DEBUG)
+                Log.d(TAG, "CimonDatabaseAdapter.purgeData - delete old records from Data table: monitorID-" + monitorID);
+            int rowsdeleted = 0;
+            for (String table : partitions.getDataTables()) {
+                rowsdeleted += database.delete(table,
+                        DataTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
+            }
+            for (String table : partitions.getVectorTables()) {
+                rowsdeleted += database.delete(table,
+                        VectorDataTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
+            }
+            rowsdeleted += database.delete(ChunkTable.TABLE_CHUNK,
+                    ChunkTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
+            rowsdeleted += database.delete(RateLogTable.TABLE_RATE_LOG,
+                    RateLogTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
+            database.delete(QuantizationTable.TABLE_QUANTIZATION,
+                    QuantizationTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
+            notifier.notifyChange(CimonContentProvider.DATA_URI);
+            return rowsdeleted;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Set storage budget of database, enforced by evicting uploaded rows, then
+     * the oldest raw readings.
+     *
+     * @param bytes    maximum size of used pages, 0 for no limit (bytes)
+     * @see StorageGovernor
      */
-    public synchronized int purgeData(int monitorID) {
-        if (DebugLog.DEBUG)
-            Log.d(TAG, "CimonDatabaseAdapter.purgeData - delete old records from Data table: monitorID-" + monitorID);
-        int rowsdeleted = database.delete(DataTable.TABLE_DATA,
-                DataTable.COLUMN_MONITOR_ID + " < " + monitorID, null);
-        context.getContentResolver().notifyChange(CimonContentProvider.DATA_URI, null);
-        return rowsdeleted;
+    public void setStorageBudget(long bytes) {
+        governor.setBudget(bytes);
+    }
+
+    /**
+     * Record rows of table uploaded to server, so they are evicted first when
+     * storage runs over budget.
+     *
+     * @param table        name of table
+     * @param watermark    highest _id uploaded, all rows up to it are uploaded
+     */
+    public void markUploaded(String table, long watermark) {
+        governor.setUploaded(table, watermark);
+    }
+
+    /**
+     * Set age after which raw readings are purged, keeping their rollups.
+     * Purge runs hourly on the maintenance thread.
+     *
+     * @param days    retention (days), 0 to keep raw readings
+     * @see #purgeRawData(long)
+     */
+    public void setRawRetention(int days) {
+        lockWriter();
+        try {
+            retentionDays = days;
+            if (days > 0 && !retentionScheduled) {
+                maintenance.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        int days = retentionDays;
+                        if (days > 0) {
+                            purgeRawData(System.currentTimeMillis() * 1000000L
+                                    - days * 24L * 60 * 60 * 1000000000L);
+                        }
+                    }
+                }, RETENTION_PERIOD);
+                retentionScheduled = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Purge raw readings taken before given time from Data, VectorData and Chunk
+     * tables, along with rollups of the finest resolution. Coarser rollups are
+     * kept for long-term trends.
+     * <p>
+     * Partitions of days before given time are dropped whole, readings of the
+     * day it falls in are kept until that day has passed. Rows are only deleted
+     * from the unpartitioned tables.
+     *
+     * @param before    system time from epoch (nanoseconds)
+     * @return number of rows deleted, not counting dropped partitions
+     * @see RollupTable
+     * @see PartitionManager#dropBefore(long)
+     */
+    public int purgeRawData(long before) {
+        lockWriter();
+        try {
+            int rowsdeleted = 0;
+            Cursor cursor = database.query(MonitorTable.TABLE_MONITOR,
+                    new String[]{MonitorTable.COLUMN_ID, MonitorTable.COLUMN_TIME_OFFSET},
+                    null, null, null, null, null);
+            database.beginTransaction();
+            try {
+                while (cursor.moveToNext()) {
+                    String monitor = String.valueOf(cursor.getInt(0));
+                    // timestamps of readings are relative to offset of their monitor
+                    String limit = String.valueOf(before - cursor.getLong(1));
+                    rowsdeleted += database.delete(DataTable.TABLE_DATA,
+                            DataTable.COLUMN_MONITOR_ID + " = ? AND "
+                                    + DataTable.COLUMN_TIMESTAMP + " < ?",
+                            new String[]{monitor, limit});
+                    rowsdeleted += database.delete(VectorDataTable.TABLE_VECTOR_DATA,
+                            VectorDataTable.COLUMN_MONITOR_ID + " = ? AND "
+                                    + VectorDataTable.COLUMN_TIMESTAMP + " < ?",
+                            new String[]{monitor, limit});
+                    rowsdeleted += database.delete(ChunkTable.TABLE_CHUNK,
+                            ChunkTable.COLUMN_MONITOR_ID + " = ? AND "
+                                    + ChunkTable.COLUMN_END_TIME + " < ?",
+                            new String[]{monitor, limit});
+                    // buckets are on system time
+                    rowsdeleted += database.delete(RollupTable.TABLE_ROLLUP,
+                            RollupTable.COLUMN_MONITOR_ID + " = ? AND "
+                                    + RollupTable.COLUMN_RESOLUTION + " = "
+                                    + RollupTable.RESOLUTIONS[0] + " AND "
+                                    + RollupTable.COLUMN_BUCKET + " < ?",
+                            new String[]{monitor, String.valueOf(before)});
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                cursor.close();
+            }
+            int dropped = partitions.dropBefore(PartitionTable.dayOf(before));
+            if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseAdapter.purgeRawData - deleted "
+                    + rowsdeleted + " rows, dropped " + dropped + " partitions");
+            if (rowsdeleted > 0 || dropped > 0) {
+                notifier.notifyChange(CimonContentProvider.DATA_URI);
+            }
+            return rowsdeleted;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Insert row into table.
+     *
+     * @param table     name of table
+     * @param values    values of columns
+     * @return rowid of inserted row, -1 on failure
+     */
+    public long insert(String table, ContentValues values) {
+        lockWriter();
+        try {
+            return database.insert(table, null, values);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Delete rows of table with _id up to watermark, in ranges of at most
+     * {@value #DELETE_RANGE} ids, so that the writer lock is held briefly.
+     * Rows of Data and VectorData tables are deleted from all their partitions.
+     *
+     * @param table        name of table
+     * @param watermark    highest _id deleted
+     * @return number of rows deleted
+     */
+    public int deleteThrough(String table, long watermark) {
+        ArrayList<String> tables;
+        lockWriter();
+        try {
+            if (table.equals(DataTable.TABLE_DATA)) {
+                tables = partitions.getDataTables();
+            }
+            else if (table.equals(VectorDataTable.TABLE_VECTOR_DATA)) {
+                tables = partitions.getVectorTables();
+            }
+            else {
+                tables = new ArrayList<String>();
+                tables.add(table);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        int deleted = 0;
+        for (String name : tables) {
+            try {
+                Cursor cursor = database.rawQuery("SELECT min(_id), max(_id) FROM " + name, null);
+                long low;
+                long last;
+                try {
+                    if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                        // empty table
+                        continue;
+                    }
+                    low = cursor.getLong(0) - 1;
+                    last = Math.min(cursor.getLong(1), watermark);
+                } finally {
+                    cursor.close();
+                }
+                // partitions entirely above watermark are skipped, deletes stop at
+                // last row of partition rather than at watermark
+                while (low < last) {
+                    long high = Math.min(low + DELETE_RANGE, last);
+                    lockWriter();
+                    try {
+                        deleted += database.delete(name, "_id > ? AND _id <= ?",
+                                new String[]{Long.toString(low), Long.toString(high)});
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    low = high;
+                }
+            } catch (SQLException e) {
+                // partition dropped by retention meanwhile
+                if (DebugLog.WARNING) Log.w(TAG, "CimonDatabaseAdapter.deleteThrough - "
+                        + name + ": " + e.toString());
+            }
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseAdapter.deleteThrough - " + table
+                + " deleted " + deleted + " rows up to _id " + watermark);
+        return deleted;
+    }
+
+    /**
+     * Get value of Metadata table.
+     *
+     * @param key    key of value
+     * @return value, null if none is stored
+     * @see MetadataTable
+     */
+    public String getMetadata(String key) {
+        Cursor cursor = database.query(MetadataTable.TABLE_METADATA,
+                new String[]{MetadataTable.COLUMN_VALUE}, MetadataTable.COLUMN_KEY + " = ?",
+                new String[]{key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store value in Metadata table, replacing any previous value.
+     *
+     * @param key      key of value
+     * @param value    value
+     * @see MetadataTable
+     */
+    public void putMetadata(String key, String value) {
+        lockWriter();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(MetadataTable.COLUMN_KEY, key);
+            values.put(MetadataTable.COLUMN_VALUE, value);
+            database.replace(MetadataTable.TABLE_METADATA, null, values);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get minimum possible interval between readings of metric group.
+     *
+     * @param group id of metric group
+     * @return minimum interval (milliseconds), -1 if metric group is unknown
+     * @see MetricInfoTable
+     */
+    public int getMinInterval(int group) {
+        Cursor cursor = database.query(MetricInfoTable.TABLE_METRICINFO,
+                new String[]{MetricInfoTable.COLUMN_MININTERVAL},
+                MetricInfoTable.COLUMN_ID + " = " + group, null, null, null, null);
+        int mininterval = -1;
+        if (cursor.moveToFirst()) {
+            mininterval = cursor.getInt(0);
+        }
+        cursor.close();
+        return mininterval;
     }
 
     /**
      * Perform query on database using pre-constructed query builder.
+     * Takes no lock, with write-ahead logging queries run alongside batch inserts.
      *
      * @param queryBuilder  query to perform on database
      * @param projection    the list of columns to put into the cursor. If null all
@@ -373,22 +1196,25 @@ public final class CimonDatabaseAdapter {
      *                      the provider is free to define the sort order
      * @return a Cursor or null
      */
-    public synchronized Cursor query(SQLiteQueryBuilder queryBuilder, String[] projection,
-                                     String selection, String[] selectionArgs, String sortOrder) {
-        Cursor cursor = queryBuilder.query(database, projection, selection, selectionArgs,
-                null, null, sortOrder);
-
-        return cursor;
+    public Cursor query(SQLiteQueryBuilder queryBuilder, String[] projection,
+                        String selection, String[] selectionArgs, String sortOrder) {
+        return query(queryBuilder, projection, selection, selectionArgs, sortOrder, null);
     }
 
     /**
-     * Convert uptime to real time
-     *
-     * @param upTime System up time
+     * Perform query on database using pre-constructed query builder, returning
+     * at most a number of rows.
      *
-     * */
-    private long upTimeToRealTime(long upTime) {
-        return System.currentTimeMillis() - SystemClock.elapsedRealtime() + upTime;
+     * @param limit    maximum number of rows, null for no limit
+     * @see #query(SQLiteQueryBuilder, String[], String, String[], String)
+     */
+    public Cursor query(SQLiteQueryBuilder queryBuilder, String[] projection,
+                        String selection, String[] selectionArgs, String sortOrder,
+                        String limit) {
+        Cursor cursor = queryBuilder.query(database, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+
+        return cursor;
     }
 
 }
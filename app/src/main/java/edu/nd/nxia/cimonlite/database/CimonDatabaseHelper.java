@@ -1,14 +1,19 @@
 package edu.nd.nxia.cimonlite.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
 import edu.nd.nxia.cimonlite.DebugLog;
 
 /**
- * Database helper
+ * Database helper.
+ * Database is opened in write-ahead log mode, so that readers proceed while
+ * sensor batches are written. Automatic checkpoints are pushed far out, and
+ * regular checkpoints are left to {@link DatabaseMaintenance}.
  *
  * @author ningxia
  */
@@ -16,8 +21,15 @@ public class CimonDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "NDroid";
 
-    private static final String DATABASE_NAME = "cimon.db";
-    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "cimon.db";
+    private static final int DATABASE_VERSION = 14;
+
+    /** Page size of new databases (bytes). */
+    private static final int PAGE_SIZE = 4096;
+    /** Page cache per connection (pages), 2MB with default page size. */
+    private static final int CACHE_SIZE = 512;
+    /** Log size which forces a checkpoint from the writer, if background ones fall behind (pages). */
+    private static final int WAL_AUTOCHECKPOINT = 10000;
 
     public CimonDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -25,6 +37,51 @@ public class CimonDatabaseHelper extends SQLiteOpenHelper {
                 + DATABASE_NAME + " version " + DATABASE_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // called from Jelly Bean, before tables are created
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+    }
+
+    /**
+     * Set journal mode and pragmas suited to append-heavy time series.
+     * Page size and auto-vacuum only take effect for a database without tables,
+     * existing databases keep reusing free pages without returning them.
+     *
+     * @param db    database being opened
+     */
+    private void configure(SQLiteDatabase db) {
+        pragma(db, "page_size = " + PAGE_SIZE);
+        // free pages are returned in small steps by the storage governor
+        pragma(db, "auto_vacuum = INCREMENTAL");
+        if (!db.enableWriteAheadLogging()) {
+            if (DebugLog.INFO) Log.i(TAG, "CimonDatabaseHelper.configure - write-ahead logging not enabled");
+        }
+        // in WAL mode only a power loss can drop the last commits, the database stays consistent
+        pragma(db, "synchronous = NORMAL");
+        pragma(db, "cache_size = " + CACHE_SIZE);
+        pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
+    }
+
+    /**
+     * Run pragma statement, discarding any result row.
+     *
+     * @param db        database
+     * @param pragma    pragma and its value
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseHelper.onCreate - creating tables");
@@ -32,14 +89,29 @@ public class CimonDatabaseHelper extends SQLiteOpenHelper {
         MetricsTable.onCreate(db);
         MonitorTable.onCreate(db);
         DataTable.onCreate(db);
+        VectorDataTable.onCreate(db);
+        RateLogTable.onCreate(db);
+        ChunkTable.onCreate(db);
+        RollupTable.onCreate(db);
+        PartitionTable.onCreate(db);
+        QuantizationTable.onCreate(db);
+        MetadataTable.onCreate(db);
+        DataView.onCreate(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (DebugLog.DEBUG) Log.d(TAG, "CimonDatabaseHelper.onUpgrade - upgrading tables");
-        MetricInfoTable.onUpgrade(db, oldVersion, newVersion);
-        MetricsTable.onUpgrade(db, oldVersion, newVersion);
+        // metric information is unchanged since version 1, keep it
         MonitorTable.onUpgrade(db, oldVersion, newVersion);
         DataTable.onUpgrade(db, oldVersion, newVersion);
+        VectorDataTable.onUpgrade(db, oldVersion, newVersion);
+        RateLogTable.onUpgrade(db, oldVersion, newVersion);
+        ChunkTable.onUpgrade(db, oldVersion, newVersion);
+        RollupTable.onUpgrade(db, oldVersion, newVersion);
+        PartitionTable.onUpgrade(db, oldVersion, newVersion);
+        QuantizationTable.onUpgrade(db, oldVersion, newVersion);
+        MetadataTable.onUpgrade(db, oldVersion, newVersion);
+        DataView.onUpgrade(db, oldVersion, newVersion);
     }
 }
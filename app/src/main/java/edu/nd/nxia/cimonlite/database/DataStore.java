@@ -0,0 +1,127 @@
+package edu.nd.nxia.cimonlite.database;
+
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+/**
+ * Storage backend of readings, labels and upload state.
+ * Writers, the uploader and the labeling reminder go through this interface
+ * instead of opening databases themselves, so backends can be swapped and
+ * compared.
+ * <p>
+ * Rows of a table have a unique, increasing _id. Tables are named as in
+ * the SQLite database, readings are stored in {@link DataTable#TABLE_DATA}
+ * and {@link VectorDataTable#TABLE_VECTOR_DATA} with the columns of those
+ * tables. Implementations must be thread safe.
+ *
+ * @author ningxia
+ *
+ * @see SQLiteDataStore
+ * @see LogDataStore
+ * @see DataStoreFactory
+ *
+ */
+public interface DataStore {
+
+    /**
+     * Rows read from a store, in _id order.
+     */
+    interface Rows {
+
+        /**
+         * Get names of columns, including _id.
+         */
+        String[] getColumns();
+
+        /**
+         * Move to next row, the first call moves to the first row.
+         *
+         * @return false if there are no more rows
+         */
+        boolean next();
+
+        /**
+         * Get value of column of current row.
+         *
+         * @param column    index of column
+         * @return    Long, Double, String, byte[] or null
+         */
+        Object get(int column);
+
+        void close();
+    }
+
+    /**
+     * Append batch of readings of monitor. The batch is stored as a whole or
+     * not at all.
+     *
+     * @param monitor    id of monitor
+     * @param batch      buffer of readings
+     * @return number of readings stored, which may be less than the size of the
+     *         batch if duplicate readings are ignored, -1 on failure
+     */
+    long appendBatch(int monitor, SampleBuffer batch);
+
+    /**
+     * Append row to table, assigning its _id.
+     *
+     * @param table      name of table
+     * @param columns    names of columns, excluding _id
+     * @param values     values of columns: Number, String, byte[] or null
+     * @return _id of row, -1 on failure
+     */
+    long append(String table, String[] columns, Object[] values);
+
+    /**
+     * Read rows of table above an _id.
+     *
+     * @param table      name of table
+     * @param afterId    rows with _id up to this one are skipped
+     * @param limit      maximum number of rows
+     * @return    rows in _id order, to be closed by caller
+     */
+    Rows scan(String table, long afterId, int limit);
+
+    /**
+     * Count rows of table with value of column in range.
+     *
+     * @param table     name of table
+     * @param column    name of integer column
+     * @param from      lowest value counted
+     * @param to        value above highest value counted
+     * @return    number of rows
+     */
+    int count(String table, String column, long from, long to);
+
+    /**
+     * Delete rows of table with _id up to watermark.
+     *
+     * @param table        name of table
+     * @param watermark    highest _id deleted
+     * @return number of rows deleted
+     */
+    int deleteThrough(String table, long watermark);
+
+    /**
+     * Get metadata value.
+     *
+     * @param key    key of value
+     * @return    value, null if none is stored
+     */
+    String getMetadata(String key);
+
+    /**
+     * Store metadata value, replacing any previous value.
+     *
+     * @param key      key of value
+     * @param value    value
+     */
+    void putMetadata(String key, String value);
+
+    /**
+     * Get string summarizing counters of store, for logging.
+     */
+    String getStatistics();
+
+    void close();
+
+}
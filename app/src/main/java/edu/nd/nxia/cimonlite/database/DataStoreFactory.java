@@ -0,0 +1,74 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Opens the data store selected by the application preferences.
+ * The backend is chosen by preference {@value #DATA_STORE}, either
+ * {@value #STORE_SQLITE} (default) or {@value #STORE_LOG}. Readings already
+ * stored are not moved when the backend is changed.
+ * <p>
+ * Only writers, the uploader and the labeling reminder go through the data
+ * store. The content provider, the Rollup table and the Chunk table are read
+ * from and maintained in the SQLite database, so under {@value #STORE_LOG}
+ * they see no new readings; {@value #CHUNK_STORAGE} only applies to SQLite.
+ *
+ * @author ningxia
+ *
+ * @see DataStore
+ *
+ */
+public final class DataStoreFactory {
+
+    private static final String TAG = "NDroid";
+    private static final String SHARED_PREFS = "CimonSharedPrefs";
+    /** Backend of data store. */
+    public static final String DATA_STORE = "data_store";
+    public static final String STORE_SQLITE = "sqlite";
+    public static final String STORE_LOG = "log";
+    /** Store readings as compressed blocks of Chunk table instead of one row per reading. */
+    public static final String CHUNK_STORAGE = "chunk_storage";
+    /** Directory of log store, within files directory of application. */
+    private static final String LOG_DIRECTORY = "datastore";
+
+    private static LogDataStore logStore;
+
+    private DataStoreFactory() {
+    }
+
+    /**
+     * Get data store selected by preferences. The log store is opened once and
+     * shared, SQLite stores share the single database adapter.
+     *
+     * @param context    context of application
+     * @return    data store, the SQLite store if the log store cannot be opened
+     */
+    public static synchronized DataStore getInstance(Context context) {
+        SharedPreferences appPrefs = context.getSharedPreferences(SHARED_PREFS,
+                Context.MODE_PRIVATE);
+        if (STORE_LOG.equals(appPrefs.getString(DATA_STORE, STORE_SQLITE))) {
+            if (logStore == null) {
+                File directory = new File(context.getFilesDir(), LOG_DIRECTORY);
+                try {
+                    logStore = new LogDataStore(directory);
+                } catch (IOException e) {
+                    if (DebugLog.ERROR) Log.e(TAG, "DataStoreFactory.getInstance - log store "
+                            + "unavailable, using SQLite: " + e.toString());
+                }
+            }
+            if (logStore != null) {
+                return logStore;
+            }
+        }
+        return new SQLiteDataStore(CimonDatabaseAdapter.getInstance(context),
+                LabelingHistory.getInstance(context), appPrefs.getBoolean(CHUNK_STORAGE, false));
+    }
+
+}
@@ -7,6 +7,8 @@ import edu.nd.nxia.cimonlite.DebugLog;
 /**
  * Defines the layout of the Data table of the database.
  * This table stores data for all readings of cimon metrics.
+ * Rows are indexed by monitor, metric and timestamp, so that queries for a
+ * monitor, a metric of a monitor, or a time range of either avoid full scans.
  * Links to {@link MetricsTable} for metric information.
  *
  * @author ningxia
@@ -28,33 +30,60 @@ public final class DataTable {
     /** Index of monitor that registered metric (Long).
      *  Use this field to filter data for an individual monitor. */
     public static final String COLUMN_MONITOR_ID = "monitorid";
-    /** Time of reading, from system uptime in milliseconds (Long). */
+    /** Time of reading, from elapsed realtime in nanoseconds (Long).
+     *  Add time offset of monitor to acquire nanoseconds from epoch. */
     public static final String COLUMN_TIMESTAMP = "timestamp";
     /** Value of reading (Float). */
     public static final String COLUMN_VALUE = "value";
 
     // Database creation SQL statement
-    private static final String DATABASE_CREATE = "create table "
-            + TABLE_DATA
-            + "("
-            + COLUMN_ID + " integer primary key autoincrement, "
-            + COLUMN_METRIC_ID + " integer not null, "
-            + COLUMN_MONITOR_ID + " integer not null,"
-            + COLUMN_TIMESTAMP + " integer not null,"
-            + COLUMN_VALUE + " real not null"
-            + ");";
+    private static String tableCreate(String table) {
+        return "create table "
+                + table
+                + "("
+                + COLUMN_ID + " integer primary key autoincrement, "
+                + COLUMN_METRIC_ID + " integer not null, "
+                + COLUMN_MONITOR_ID + " integer not null,"
+                + COLUMN_TIMESTAMP + " integer not null,"
+                + COLUMN_VALUE + " real not null"
+                + ");";
+    }
+
+    private static String indexCreate(String table) {
+        return "create index if not exists "
+                + table + "_key on " + table
+                + "(" + COLUMN_MONITOR_ID + ", " + COLUMN_METRIC_ID + ", " + COLUMN_TIMESTAMP + ");";
+    }
 
     public static void onCreate(SQLiteDatabase database) {
-        database.execSQL(DATABASE_CREATE);
+        createTable(database, TABLE_DATA);
+    }
+
+    /**
+     * Create table with the layout and index of Data table, for partitions.
+     *
+     * @param database    open database
+     * @param table       name of table
+     * @see PartitionTable
+     */
+    public static void createTable(SQLiteDatabase database, String table) {
+        database.execSQL(tableCreate(table));
+        database.execSQL(indexCreate(table));
     }
 
     public static void onUpgrade(SQLiteDatabase database, int oldVersion,
                                  int newVersion) {
         if (DebugLog.DEBUG) Log.i(TAG, TABLE_DATA + ": Upgrading database from version "
-                + oldVersion + " to " + newVersion
-                + ", which will destroy all old data");
-        database.execSQL("DROP TABLE IF EXISTS " + TABLE_DATA);
-        onCreate(database);
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 2) {
+            // version 1 stored time from epoch in milliseconds
+            database.execSQL("UPDATE " + TABLE_DATA + " SET "
+                    + COLUMN_TIMESTAMP + " = " + COLUMN_TIMESTAMP + " * 1000000");
+        }
+        if (oldVersion < 6) {
+            // existing rows are kept, index is built over them
+            database.execSQL(indexCreate(TABLE_DATA));
+        }
     }
 
 }
@@ -0,0 +1,210 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+import edu.nd.nxia.cimonlite.DerivedMetrics;
+
+/**
+ * Defines the per-metric view of all readings.
+ * Rows of {@link VectorDataTable} are split into one row per axis, and combined
+ * with rows of {@link DataTable}, so the view has the same layout as the Data table.
+ * Row ids are those of the underlying tables, and are therefore not unique within
+ * the view. Derived metrics (magnitude) are not stored; the view computes them from
+ * the vector readings with the expression of
+ * {@link edu.nd.nxia.cimonlite.DerivedMetrics#getExpression}, so their value in the
+ * view is the squared magnitude, finished when rows are read.
+ * <p>
+ * Readings are partitioned by day, so two more views combine the partitions of
+ * each table, in the layout of that table. Views are rebuilt whenever a
+ * partition is added or dropped. SQLite limits a compound select to 500
+ * terms, so the number of partitions is bounded by {@link PartitionManager}.
+ * <p>
+ * Values of metrics stored quantized are multiplied by their step from
+ * {@link QuantizationTable}, so all views return readings in their units.
+ * Steps are written into the views as constants when they are rebuilt, rather
+ * than joined, so every term of the compound select stays a plain scan of its
+ * partition, which SQLite flattens and pushes conditions on timestamp, monitor
+ * and metric down into. Views are rebuilt when a monitor is quantized.
+ *
+ * @author ningxia
+ *
+ * @see DataTable
+ * @see VectorDataTable
+ * @see PartitionTable
+ * @see edu.nd.nxia.cimonlite.DerivedMetrics
+ *
+ */
+public final class DataView {
+
+    private static final String TAG = "NDroid";
+
+    // Database views
+    public static final String VIEW_DATA = "dataview";
+    /** Rows of all partitions of Data table. */
+    public static final String VIEW_SCALAR_DATA = "scalardataview";
+    /** Rows of all partitions of VectorData table. */
+    public static final String VIEW_VECTOR_DATA = "vectordataview";
+
+    private static final String DATA_COLUMNS = DataTable.COLUMN_ID + ", "
+            + DataTable.COLUMN_METRIC_ID + ", "
+            + DataTable.COLUMN_MONITOR_ID + ", "
+            + DataTable.COLUMN_TIMESTAMP + ", "
+            + DataTable.COLUMN_VALUE;
+
+    /**
+     * Select rows of partition of Data table, restoring quantized values.
+     */
+    private static String scalar(String table, String steps) {
+        return "select " + DataTable.COLUMN_ID + ", "
+                + DataTable.COLUMN_METRIC_ID + ", "
+                + DataTable.COLUMN_MONITOR_ID + ", "
+                + DataTable.COLUMN_TIMESTAMP + ", "
+                + dequantize(DataTable.COLUMN_VALUE, steps)
+                + " from " + table;
+    }
+
+    /**
+     * Select rows of partition of VectorData table, restoring quantized values.
+     */
+    private static String vector(String table, String steps) {
+        return "select " + VectorDataTable.COLUMN_ID + ", "
+                + VectorDataTable.COLUMN_METRIC_ID + ", "
+                + VectorDataTable.COLUMN_MONITOR_ID + ", "
+                + VectorDataTable.COLUMN_TIMESTAMP + ", "
+                + dequantize(VectorDataTable.COLUMN_X, steps) + ", "
+                + dequantize(VectorDataTable.COLUMN_Y, steps) + ", "
+                + dequantize(VectorDataTable.COLUMN_Z, steps)
+                + " from " + table;
+    }
+
+    /**
+     * Expression restoring value of column.
+     *
+     * @param column    stored column
+     * @param steps     cases of {@link #getSteps}, empty if no metric is quantized
+     */
+    private static String dequantize(String column, String steps) {
+        if (steps.length() == 0) {
+            return column;
+        }
+        return "case" + steps.replace("?", column) + " else " + column + " end as " + column;
+    }
+
+    /**
+     * Get cases multiplying value by step of each quantized metric, with ? in place
+     * of the column holding the value.
+     *
+     * @param database    open database
+     * @return    when clauses of case expression, empty if no metric is quantized
+     */
+    private static String getSteps(SQLiteDatabase database) {
+        StringBuilder steps = new StringBuilder();
+        Cursor cursor = database.query(QuantizationTable.TABLE_QUANTIZATION,
+                new String[]{QuantizationTable.COLUMN_MONITOR_ID,
+                        QuantizationTable.COLUMN_METRIC_ID, QuantizationTable.COLUMN_STEP},
+                null, null, null, null,
+                QuantizationTable.COLUMN_MONITOR_ID + ", " + QuantizationTable.COLUMN_METRIC_ID);
+        try {
+            while (cursor.moveToNext()) {
+                steps.append(" when ").append(DataTable.COLUMN_MONITOR_ID).append(" = ")
+                        .append(cursor.getLong(0)).append(" and ")
+                        .append(DataTable.COLUMN_METRIC_ID).append(" = ")
+                        .append(cursor.getLong(1)).append(" then ? * ")
+                        .append(cursor.getDouble(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return steps.toString();
+    }
+
+    private static String axis(int offset, String column, String view) {
+        return " union all select " + VectorDataTable.COLUMN_ID + ", "
+                + VectorDataTable.COLUMN_METRIC_ID + " + " + offset + ", "
+                + VectorDataTable.COLUMN_MONITOR_ID + ", "
+                + VectorDataTable.COLUMN_TIMESTAMP + ", "
+                + column
+                + " from " + view;
+    }
+
+    private static String derived(int metric, String view) {
+        return " union all select " + VectorDataTable.COLUMN_ID + ", "
+                + metric + ", "
+                + VectorDataTable.COLUMN_MONITOR_ID + ", "
+                + VectorDataTable.COLUMN_TIMESTAMP + ", "
+                + DerivedMetrics.getExpression(metric, VectorDataTable.COLUMN_X,
+                        VectorDataTable.COLUMN_Y, VectorDataTable.COLUMN_Z)
+                + " from " + view
+                + " where " + VectorDataTable.COLUMN_METRIC_ID + " = "
+                + DerivedMetrics.getGroup(metric);
+    }
+
+    public static void onCreate(SQLiteDatabase database) {
+        rebuild(database);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, VIEW_DATA + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        // views hold no data, recreate them from current table layout
+        rebuild(database);
+    }
+
+    /**
+     * Recreate views over the unpartitioned tables and the partitions in
+     * the Partition table, with the steps in the Quantization table.
+     *
+     * @param database    open database
+     */
+    public static void rebuild(SQLiteDatabase database) {
+        ArrayList<String> dataTables = new ArrayList<String>();
+        ArrayList<String> vectorTables = new ArrayList<String>();
+        dataTables.add(DataTable.TABLE_DATA);
+        vectorTables.add(VectorDataTable.TABLE_VECTOR_DATA);
+        for (long day : PartitionTable.getDays(database)) {
+            dataTables.add(PartitionTable.dataTableOf(day));
+            vectorTables.add(PartitionTable.vectorTableOf(day));
+        }
+
+        String steps = getSteps(database);
+
+        StringBuilder scalarTerms = new StringBuilder();
+        for (String table : dataTables) {
+            if (scalarTerms.length() > 0) {
+                scalarTerms.append(" union all ");
+            }
+            scalarTerms.append(scalar(table, steps));
+        }
+        StringBuilder vectorTerms = new StringBuilder();
+        for (String table : vectorTables) {
+            if (vectorTerms.length() > 0) {
+                vectorTerms.append(" union all ");
+            }
+            vectorTerms.append(vector(table, steps));
+        }
+
+        database.execSQL("DROP VIEW IF EXISTS " + VIEW_DATA);
+        database.execSQL("DROP VIEW IF EXISTS " + VIEW_SCALAR_DATA);
+        database.execSQL("DROP VIEW IF EXISTS " + VIEW_VECTOR_DATA);
+        database.execSQL("create view " + VIEW_SCALAR_DATA + " as " + scalarTerms + ";");
+        database.execSQL("create view " + VIEW_VECTOR_DATA + " as " + vectorTerms + ";");
+        StringBuilder derivedTerms = new StringBuilder();
+        for (int metric : DerivedMetrics.getMetrics()) {
+            derivedTerms.append(derived(metric, VIEW_VECTOR_DATA));
+        }
+        database.execSQL("create view " + VIEW_DATA + " as "
+                + "select " + DATA_COLUMNS + " from " + VIEW_SCALAR_DATA
+                + axis(0, VectorDataTable.COLUMN_X, VIEW_VECTOR_DATA)
+                + axis(1, VectorDataTable.COLUMN_Y, VIEW_VECTOR_DATA)
+                + axis(2, VectorDataTable.COLUMN_Z, VIEW_VECTOR_DATA)
+                + derivedTerms
+                + ";");
+        if (DebugLog.DEBUG) Log.d(TAG, "DataView.rebuild - " + dataTables.size() + " partitions");
+    }
+
+}
@@ -0,0 +1,127 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Background thread for database housekeeping.
+ * Write-ahead log checkpoints are run here on a fixed schedule, so that
+ * they do not run inside sensor batch transactions. Checkpoints are passive,
+ * they never wait for readers or writers. Other periodic housekeeping, such
+ * as data retention, is scheduled on the same thread.
+ *
+ * @author ningxia
+ *
+ * @see CimonDatabaseHelper
+ *
+ */
+public class DatabaseMaintenance {
+
+    private static final String TAG = "NDroid";
+    private static final String THREADTAG = "NDroidDbMaintenance";
+
+    /** Interval between checkpoints (milliseconds). */
+    private static final long CHECKPOINT_PERIOD = 30 * 1000;
+
+    private final SQLiteDatabase database;
+    private final HandlerThread thread;
+    private Handler handler;
+
+    /**
+     * Background thread for database housekeeping.
+     *
+     * @param database    database to maintain
+     */
+    public DatabaseMaintenance(SQLiteDatabase database) {
+        this.database = database;
+        this.thread = new HandlerThread(THREADTAG, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    public synchronized void start() {
+        if (handler != null) return;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.postDelayed(checkpoint, CHECKPOINT_PERIOD);
+    }
+
+    public synchronized void stop() {
+        if (handler == null) return;
+        handler.removeCallbacks(checkpoint);
+        thread.quit();
+        handler = null;
+    }
+
+    /**
+     * Run task periodically on maintenance thread, until maintenance is stopped.
+     *
+     * @param task      housekeeping task
+     * @param period    interval between runs, also delay of first run (milliseconds)
+     */
+    public synchronized void schedule(final Runnable task, final long period) {
+        if (handler == null) return;
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    if (DebugLog.ERROR) Log.e(TAG, "DatabaseMaintenance.schedule - task failed: " + e.toString());
+                }
+                synchronized (DatabaseMaintenance.this) {
+                    if (handler != null) {
+                        handler.postDelayed(this, period);
+                    }
+                }
+            }
+        }, period);
+    }
+
+    /**
+     * Run task once on maintenance thread.
+     *
+     * @param task     housekeeping task
+     * @param delay    delay before task runs (milliseconds)
+     */
+    public synchronized void post(Runnable task, long delay) {
+        if (handler == null) return;
+        handler.postDelayed(task, delay);
+    }
+
+    /**
+     * Copy committed pages from write-ahead log back into database file,
+     * as far as possible without blocking.
+     */
+    public void checkpoint() {
+        if (!database.isOpen()) return;
+        Cursor cursor = database.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        if (cursor.moveToFirst() && DebugLog.DEBUG) {
+            // busy, pages in log, pages checkpointed
+            Log.d(TAG, "DatabaseMaintenance.checkpoint - busy:" + cursor.getInt(0) +
+                    " log:" + cursor.getInt(1) + " checkpointed:" + cursor.getInt(2));
+        }
+        cursor.close();
+    }
+
+    private Runnable checkpoint = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                checkpoint();
+            } catch (Exception e) {
+                if (DebugLog.ERROR) Log.e(TAG, "DatabaseMaintenance.checkpoint - failed: " + e.toString());
+            }
+            synchronized (DatabaseMaintenance.this) {
+                if (handler != null) {
+                    handler.postDelayed(this, CHECKPOINT_PERIOD);
+                }
+            }
+        }
+    };
+
+}
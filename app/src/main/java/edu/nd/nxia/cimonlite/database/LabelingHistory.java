@@ -1,8 +1,11 @@
 package edu.nd.nxia.cimonlite.database;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.io.File;
+
 /**
  * Database to labeling history
  *
@@ -20,18 +23,32 @@ public class LabelingHistory {
             + COLUMN_STATE + " text not null, " + COLUMN_START
             + " integer not null," + COLUMN_END + " integer not null" + ");";
     private static final String DATABASE_DROP = "DROP TABLE " + TABLE_NAME + ";";
-    private static final String PATH = "/data/data/edu.nd.nxia.cimonlite/databases/labellinghistory";
-    public static SQLiteDatabase db;
+    static final String DATABASE_NAME = "labellinghistory";
 
-    public LabelingHistory() {
-        this.open();
-    }
+    private static LabelingHistory mInstance = null;
+    private final SQLiteDatabase db;
 
-    public static void open() {
-        db = SQLiteDatabase.openOrCreateDatabase(PATH, null);
+    /**
+     * Labeling history in database file. Tests use it to get a database of their own.
+     *
+     * @param path    path of database file
+     */
+    LabelingHistory(File path) {
+        db = SQLiteDatabase.openOrCreateDatabase(path, null);
         db.execSQL(DATABASE_CREATE);
     }
 
+    public static synchronized LabelingHistory getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new LabelingHistory(context.getDatabasePath(DATABASE_NAME));
+        }
+        return mInstance;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return db;
+    }
+
     public void insertData(String state, Long startTime, Long endTime) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_STATE, state);
@@ -0,0 +1,799 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+/**
+ * Data store of append-only segment files, without SQLite.
+ * Each table is a sequence of segments named after the table and the _id of
+ * their first row. Rows are appended to the last segment, which is closed
+ * once it exceeds {@value #SEGMENT_SIZE} bytes. Segments are flushed after
+ * each append, but not synced, so a crash loses at most the rows still held
+ * by the operating system.
+ * <p>
+ * Each row is stored as a record of its length, a CRC32 checksum and the
+ * _id and values of the row, each value tagged with its type. A record torn
+ * by a crash fails its checksum, and is truncated when the store is opened.
+ * Deleting through a watermark removes whole segments, rows of the segment
+ * holding the watermark are hidden until the rest of it is deleted.
+ * <p>
+ * A batch or row whose append fails is removed again, so appends are all or
+ * nothing.
+ * <p>
+ * Readings are stored as they are: duplicate vector readings are kept,
+ * values are not quantized and rollups are not maintained. Metadata is kept
+ * in a properties file, replaced atomically on each change.
+ *
+ * @author ningxia
+ *
+ * @see DataStore
+ * @see SQLiteDataStore
+ *
+ */
+public class LogDataStore implements DataStore {
+
+    private static final String TAG = "NDroid";
+
+    /** Size of segment file after which a new segment is started (bytes). */
+    public static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x4e444c47;
+    private static final int VERSION = 1;
+    /** Size of record above which a record is taken as torn (bytes). */
+    private static final int MAX_RECORD = 1024 * 1024;
+    private static final String SUFFIX = ".seg";
+    private static final String METADATA_FILE = "metadata.properties";
+    private static final String FLOOR_KEY = "floor.";
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+    private static final byte TYPE_FLOAT = 5;
+
+    private static final String[] DATA_COLUMNS = {DataTable.COLUMN_ID,
+            DataTable.COLUMN_METRIC_ID, DataTable.COLUMN_MONITOR_ID,
+            DataTable.COLUMN_TIMESTAMP, DataTable.COLUMN_VALUE};
+    private static final String[] VECTOR_COLUMNS = {VectorDataTable.COLUMN_ID,
+            VectorDataTable.COLUMN_METRIC_ID, VectorDataTable.COLUMN_MONITOR_ID,
+            VectorDataTable.COLUMN_TIMESTAMP, VectorDataTable.COLUMN_X,
+            VectorDataTable.COLUMN_Y, VectorDataTable.COLUMN_Z};
+
+    /**
+     * Segment file of a table.
+     */
+    private static class Segment {
+        final File file;
+        final long firstId;
+        long lastId;
+        int rows;
+        /** Length of valid records, including header (bytes). */
+        long length;
+        /** Output stream of last segment of table, null once closed. */
+        DataOutputStream out;
+
+        Segment(File file, long firstId) {
+            this.file = file;
+            this.firstId = firstId;
+            this.lastId = firstId - 1;
+        }
+
+        void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Segments and state of a table.
+     */
+    private static class Table {
+        final String name;
+        String[] columns;
+        final ArrayList<Segment> segments = new ArrayList<Segment>();
+        long lastId;
+        /** Highest _id deleted, rows up to this one are hidden. */
+        long floor;
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        Segment last() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * End of a table before an append, restored if the append fails.
+     */
+    private static class Mark {
+        final Table table;
+        final long lastId;
+        final int segments;
+        final long segmentLastId;
+        final int segmentRows;
+        final long segmentLength;
+
+        Mark(Table table) {
+            this.table = table;
+            this.lastId = table.lastId;
+            this.segments = table.segments.size();
+            Segment segment = table.last();
+            this.segmentLastId = segment == null ? 0 : segment.lastId;
+            this.segmentRows = segment == null ? 0 : segment.rows;
+            this.segmentLength = segment == null ? 0 : segment.length;
+        }
+    }
+
+    /**
+     * Record buffer exposing its bytes, so records are checksummed and
+     * written without copying.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private final File directory;
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+    private final Properties metadata = new Properties();
+    private final RecordBuffer recordBytes = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private long appendedRows;
+    private long truncatedBytes;
+
+    /**
+     * Open data store in directory, creating it if needed.
+     *
+     * @param directory    directory of segment and metadata files
+     * @throws IOException    if directory or its files cannot be read
+     */
+    public LogDataStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File metadataFile = new File(directory, METADATA_FILE);
+        if (metadataFile.exists()) {
+            FileInputStream in = new FileInputStream(metadataFile);
+            try {
+                metadata.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        load();
+    }
+
+    /**
+     * Open segments of all tables, truncating torn records.
+     */
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list directory " + directory);
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.lastIndexOf('-');
+            if (!name.endsWith(SUFFIX) || separator <= 0) {
+                continue;
+            }
+            long firstId;
+            try {
+                firstId = Long.parseLong(name.substring(separator + 1,
+                        name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Table table = table(name.substring(0, separator));
+            Segment segment = new Segment(file, firstId);
+            String[] columns = open(segment);
+            if (columns == null) {
+                // header was torn before any row was written
+                if (!file.delete() && DebugLog.WARNING) Log.w(TAG,
+                        "LogDataStore.load - cannot delete " + file);
+                continue;
+            }
+            if (table.columns == null) {
+                table.columns = columns;
+            }
+            table.segments.add(segment);
+            table.lastId = Math.max(table.lastId, segment.lastId);
+        }
+        for (Table table : tables.values()) {
+            table.floor = getFloor(table.name);
+            table.lastId = Math.max(table.lastId, table.floor);
+        }
+        if (DebugLog.DEBUG) Log.d(TAG, "LogDataStore.load - " + getStatistics());
+    }
+
+    private Table table(String name) {
+        Table table = tables.get(name);
+        if (table == null) {
+            table = new Table(name);
+            table.floor = getFloor(name);
+            table.lastId = table.floor;
+            tables.put(name, table);
+        }
+        return table;
+    }
+
+    private long getFloor(String table) {
+        String floor = metadata.getProperty(FLOOR_KEY + table);
+        return floor == null ? 0 : Long.parseLong(floor);
+    }
+
+    /**
+     * Read header and records of segment, truncating it after its last valid record.
+     *
+     * @return    names of columns, null if header is incomplete
+     */
+    private String[] open(Segment segment) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.file)));
+        String[] columns;
+        try {
+            try {
+                columns = readHeader(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            segment.length = headerLength(columns);
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 8 || length > MAX_RECORD) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                segment.lastId = new DataInputStream(
+                        new ByteArrayInputStream(payload, 0, 8)).readLong();
+                segment.rows++;
+                segment.length += 8 + length;
+            }
+        } finally {
+            in.close();
+        }
+        long fileLength = segment.file.length();
+        if (fileLength > segment.length) {
+            RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            try {
+                file.setLength(segment.length);
+            } finally {
+                file.close();
+            }
+            truncatedBytes += fileLength - segment.length;
+            if (DebugLog.WARNING) Log.w(TAG, "LogDataStore.open - truncated "
+                    + (fileLength - segment.length) + " bytes of " + segment.file.getName());
+        }
+        return columns;
+    }
+
+    private static String[] readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a segment file");
+        }
+        String[] columns = new String[in.readInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.readUTF();
+        }
+        return columns;
+    }
+
+    private static void writeHeader(DataOutputStream out, String[] columns) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(columns.length);
+        for (String column : columns) {
+            out.writeUTF(column);
+        }
+    }
+
+    private static long headerLength(String[] columns) throws IOException {
+        DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+        writeHeader(out, columns);
+        return out.size();
+    }
+
+    /**
+     * Get table rows are appended to, checking its columns.
+     */
+    private Table appendTable(String name, String[] columns) {
+        Table table = table(name);
+        if (table.columns == null) {
+            table.columns = columns;
+        }
+        else if (!Arrays.equals(table.columns, columns)) {
+            throw new IllegalArgumentException("Columns of " + name + " are "
+                    + Arrays.toString(table.columns));
+        }
+        return table;
+    }
+
+    /**
+     * Start record of row, values are written to {@link #record} after this call.
+     *
+     * @return    _id of row
+     */
+    private long beginRecord(Table table) throws IOException {
+        recordBytes.reset();
+        record.writeLong(table.lastId + 1);
+        return table.lastId + 1;
+    }
+
+    /**
+     * Write record to last segment of table, starting a new segment if needed.
+     */
+    private void endRecord(Table table, long id) throws IOException {
+        Segment segment = table.last();
+        if (segment == null || segment.out == null) {
+            segment = new Segment(new File(directory,
+                    String.format("%s-%019d%s", table.name, id, SUFFIX)), id);
+            segment.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(segment.file)));
+            writeHeader(segment.out, table.columns);
+            segment.length = segment.out.size();
+            table.segments.add(segment);
+        }
+        int length = recordBytes.size();
+        crc.reset();
+        crc.update(recordBytes.bytes(), 0, length);
+        segment.out.writeInt(length);
+        segment.out.writeInt((int) crc.getValue());
+        segment.out.write(recordBytes.bytes(), 0, length);
+        segment.length += 8 + length;
+        segment.lastId = id;
+        segment.rows++;
+        table.lastId = id;
+        appendedRows++;
+    }
+
+    /**
+     * Flush last segment of table, closing it if it is full.
+     */
+    private void flush(Table table) throws IOException {
+        Segment segment = table.last();
+        if (segment == null || segment.out == null) {
+            return;
+        }
+        if (segment.length >= SEGMENT_SIZE) {
+            segment.close();
+        }
+        else {
+            segment.out.flush();
+        }
+    }
+
+    /**
+     * Remove rows appended to table since mark. Segments started since are deleted,
+     * the last segment before is truncated and closed, so appends start a new segment.
+     */
+    private void rollback(Mark mark) {
+        Table table = mark.table;
+        while (table.segments.size() > mark.segments) {
+            Segment segment = table.segments.remove(table.segments.size() - 1);
+            appendedRows -= segment.rows;
+            closeQuietly(segment);
+            if (!segment.file.delete() && DebugLog.WARNING) Log.w(TAG,
+                    "LogDataStore.rollback - cannot delete " + segment.file);
+        }
+        Segment segment = table.last();
+        if (segment != null && segment.length > mark.segmentLength) {
+            appendedRows -= segment.rows - mark.segmentRows;
+            closeQuietly(segment);
+            try {
+                RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+                try {
+                    file.setLength(mark.segmentLength);
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                // rows left behind are read back when the store is opened again
+                if (DebugLog.ERROR) Log.e(TAG, "Error truncating " + segment.file + ": "
+                        + e.toString());
+            }
+            segment.length = mark.segmentLength;
+            segment.lastId = mark.segmentLastId;
+            segment.rows = mark.segmentRows;
+        }
+        table.lastId = mark.lastId;
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            // stream is closed even if buffered bytes could not be written
+            segment.out = null;
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            record.writeByte(TYPE_NULL);
+        }
+        else if (value instanceof Float) {
+            record.writeByte(TYPE_FLOAT);
+            record.writeFloat((Float) value);
+        }
+        else if (value instanceof Double) {
+            record.writeByte(TYPE_DOUBLE);
+            record.writeDouble((Double) value);
+        }
+        else if (value instanceof Number) {
+            record.writeByte(TYPE_LONG);
+            record.writeLong(((Number) value).longValue());
+        }
+        else if (value instanceof byte[]) {
+            byte[] blob = (byte[]) value;
+            record.writeByte(TYPE_BLOB);
+            record.writeInt(blob.length);
+            record.write(blob);
+        }
+        else {
+            record.writeByte(TYPE_STRING);
+            record.writeUTF(value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return (double) in.readFloat();
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_BLOB:
+                byte[] blob = new byte[in.readInt()];
+                in.readFully(blob);
+                return blob;
+            default:
+                throw new IOException("Unknown value type");
+        }
+    }
+
+    @Override
+    public synchronized long appendBatch(int monitor, SampleBuffer batch) {
+        Table data = appendTable(DataTable.TABLE_DATA, DATA_COLUMNS);
+        Table vectors = appendTable(VectorDataTable.TABLE_VECTOR_DATA, VECTOR_COLUMNS);
+        Mark dataMark = new Mark(data);
+        Mark vectorsMark = new Mark(vectors);
+        long rows = 0;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Table table = batch.vector[i] ? vectors : data;
+                long id = beginRecord(table);
+                record.writeByte(TYPE_LONG);
+                record.writeLong(batch.metricId[i]);
+                record.writeByte(TYPE_LONG);
+                record.writeLong(monitor);
+                record.writeByte(TYPE_LONG);
+                record.writeLong(batch.timestamp[i]);
+                record.writeByte(TYPE_FLOAT);
+                record.writeFloat(batch.value[i]);
+                if (batch.vector[i]) {
+                    record.writeByte(TYPE_FLOAT);
+                    record.writeFloat(batch.valueY[i]);
+                    record.writeByte(TYPE_FLOAT);
+                    record.writeFloat(batch.valueZ[i]);
+                }
+                endRecord(table, id);
+                rows++;
+            }
+            flush(data);
+            flush(vectors);
+        } catch (IOException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error on batch append: " + e.toString());
+            // nothing of the batch is stored
+            rollback(dataMark);
+            rollback(vectorsMark);
+            return -1;
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized long append(String name, String[] columns, Object[] values) {
+        String[] tableColumns = new String[columns.length + 1];
+        tableColumns[0] = DataTable.COLUMN_ID;
+        System.arraycopy(columns, 0, tableColumns, 1, columns.length);
+        Table table = appendTable(name, tableColumns);
+        Mark mark = new Mark(table);
+        try {
+            long id = beginRecord(table);
+            for (Object value : values) {
+                writeValue(value);
+            }
+            endRecord(table, id);
+            flush(table);
+            return id;
+        } catch (IOException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error on append to " + name + ": " + e.toString());
+            rollback(mark);
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized Rows scan(String name, long afterId, int limit) {
+        Table table = tables.get(name);
+        if (table == null) {
+            return new ListRows(new String[]{DataTable.COLUMN_ID},
+                    Collections.<Object[]>emptyList());
+        }
+        long after = Math.max(afterId, table.floor);
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        try {
+            for (Segment segment : table.segments) {
+                if (rows.size() >= limit) {
+                    break;
+                }
+                if (segment.lastId > after) {
+                    read(table, segment, after, limit, rows);
+                }
+            }
+        } catch (IOException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error on scan of " + name + ": " + e.toString());
+        }
+        return new ListRows(table.columns, rows);
+    }
+
+    /**
+     * Read rows of segment above an _id, until rows holds limit rows.
+     */
+    private void read(Table table, Segment segment, long after, int limit,
+                      ArrayList<Object[]> rows) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.file)));
+        try {
+            long position = headerLength(table.columns);
+            skip(in, position);
+            while (position < segment.length && rows.size() < limit) {
+                int length = in.readInt();
+                in.readInt();
+                position += 8 + length;
+                long id = in.readLong();
+                if (id <= after) {
+                    skip(in, length - 8);
+                    continue;
+                }
+                Object[] row = new Object[table.columns.length];
+                row[0] = id;
+                for (int i = 1; i < row.length; i++) {
+                    row[i] = readValue(in);
+                }
+                rows.add(row);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void skip(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            bytes -= skipped;
+        }
+    }
+
+    @Override
+    public synchronized int count(String name, String column, long from, long to) {
+        Table table = tables.get(name);
+        if (table == null) {
+            return 0;
+        }
+        int index = Arrays.asList(table.columns).indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("No column " + column + " in " + name);
+        }
+        int count = 0;
+        long after = table.floor;
+        while (true) {
+            Rows rows = scan(name, after, 1000);
+            boolean empty = true;
+            while (rows.next()) {
+                empty = false;
+                after = (Long) rows.get(0);
+                Object value = rows.get(index);
+                if (value instanceof Number) {
+                    long number = ((Number) value).longValue();
+                    if (number >= from && number < to) {
+                        count++;
+                    }
+                }
+            }
+            rows.close();
+            if (empty) {
+                return count;
+            }
+        }
+    }
+
+    @Override
+    public synchronized int deleteThrough(String name, long watermark) {
+        Table table = tables.get(name);
+        if (table == null || watermark <= table.floor) {
+            return 0;
+        }
+        int deleted = 0;
+        try {
+            while (!table.segments.isEmpty() && table.segments.get(0).lastId <= watermark) {
+                Segment segment = table.segments.remove(0);
+                segment.close();
+                if (!segment.file.delete() && DebugLog.WARNING) Log.w(TAG,
+                        "LogDataStore.deleteThrough - cannot delete " + segment.file);
+                deleted += segment.rows;
+            }
+        } catch (IOException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error on delete from " + name + ": " + e.toString());
+        }
+        // keeps rows hidden, and ids increasing once all segments are gone
+        table.floor = watermark;
+        table.lastId = Math.max(table.lastId, watermark);
+        putMetadata(FLOOR_KEY + name, Long.toString(watermark));
+        if (DebugLog.DEBUG) Log.d(TAG, "LogDataStore.deleteThrough - " + name + ": deleted "
+                + deleted + " rows through " + watermark);
+        return deleted;
+    }
+
+    @Override
+    public synchronized String getMetadata(String key) {
+        return metadata.getProperty(key);
+    }
+
+    @Override
+    public synchronized void putMetadata(String key, String value) {
+        metadata.setProperty(key, value);
+        File file = new File(directory, METADATA_FILE);
+        File temp = new File(directory, METADATA_FILE + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                metadata.store(out, null);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            if (DebugLog.ERROR) Log.e(TAG, "Error storing metadata: " + e.toString());
+        }
+    }
+
+    @Override
+    public synchronized String getStatistics() {
+        int segments = 0;
+        long bytes = 0;
+        for (Table table : tables.values()) {
+            segments += table.segments.size();
+            for (Segment segment : table.segments) {
+                bytes += segment.length;
+            }
+        }
+        return String.format("Log store tables: %d, segments: %d (%d bytes), rows appended: %d, "
+                + "torn bytes truncated: %d", tables.size(), segments, bytes, appendedRows,
+                truncatedBytes);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Table table : tables.values()) {
+            Segment segment = table.last();
+            if (segment == null) {
+                continue;
+            }
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (DebugLog.ERROR) Log.e(TAG, "Error closing " + segment.file + ": "
+                        + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Rows read into memory.
+     */
+    private static class ListRows implements Rows {
+
+        private final String[] columns;
+        private final List<Object[]> rows;
+        private int position = -1;
+
+        ListRows(String[] columns, List<Object[]> rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        @Override
+        public String[] getColumns() {
+            return columns;
+        }
+
+        @Override
+        public boolean next() {
+            if (position + 1 >= rows.size()) {
+                return false;
+            }
+            position++;
+            return true;
+        }
+
+        @Override
+        public Object get(int column) {
+            return rows.get(position)[column];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
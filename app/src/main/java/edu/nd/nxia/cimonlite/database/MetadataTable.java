@@ -0,0 +1,53 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the Metadata table of the database.
+ * This table holds key - value pairs of state which must survive restarts,
+ * such as upload watermarks.
+ *
+ * @author ningxia
+ *
+ * @see SQLiteDataStore
+ *
+ */
+public final class MetadataTable {
+
+    private static final String TAG = "NDroid";
+
+    // Database table
+    public static final String TABLE_METADATA = "metadata";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Key of value (String). */
+    public static final String COLUMN_KEY = "key";
+    /** Value (String). */
+    public static final String COLUMN_VALUE = "value";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_METADATA
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_KEY + " text not null unique, "
+            + COLUMN_VALUE + " text"
+            + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_METADATA + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 11) {
+            onCreate(database);
+        }
+    }
+
+}
@@ -9,8 +9,8 @@ import edu.nd.nxia.cimonlite.DebugLog;
  * This table generates a unique id for all new monitoring requests. This id
  * is used in the Data table to allow later filtering per monitor. This table
  * also provides a time offset per monitor.  This offset can be applied to
- * the times entered in the Data table (which are based on uptime) to acquire
- * the system time from epoch in milliseconds.
+ * the times entered in the Data table (which are based on elapsed realtime) to
+ * acquire the system time from epoch in nanoseconds.
  *
  * @author ningxia
  *
@@ -27,7 +27,7 @@ public final class MonitorTable {
     /** Unique id (Long) */
     public static final String COLUMN_ID = "_id";
     /** Offset for monitor data times to acquire system time
-     *  [as milliseconds from epoch] (Long). */
+     *  [as nanoseconds from epoch] (Long). */
     public static final String COLUMN_TIME_OFFSET = "timeoffset";
     /** End time of monitor, system time in milliseconds from epoch (Long). */
     public static final String COLUMN_ENDTIME = "endtime";
@@ -48,10 +48,11 @@ public final class MonitorTable {
     public static void onUpgrade(SQLiteDatabase database, int oldVersion,
                                  int newVersion) {
         if (DebugLog.INFO) Log.i(TAG, TABLE_MONITOR + ": Upgrading database from version "
-                + oldVersion + " to " + newVersion
-                + ", which will destroy all old data");
-        database.execSQL("DROP TABLE IF EXISTS " + TABLE_MONITOR);
-        onCreate(database);
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 2) {
+            // version 1 data times are already from epoch
+            database.execSQL("UPDATE " + TABLE_MONITOR + " SET " + COLUMN_TIME_OFFSET + " = 0");
+        }
     }
 
 }
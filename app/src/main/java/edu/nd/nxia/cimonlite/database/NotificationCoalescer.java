@@ -0,0 +1,229 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Coalesces change notifications of the content provider.
+ * Changed URIs are marked dirty by the database adapter, and notified from a
+ * background thread at most once per interval for each URI, so that observers
+ * are not woken for every inserted row or batch.
+ * <p>
+ * In quiet mode, dirty URIs are collected but not notified until quiet mode
+ * ends, for bulk loading.
+ *
+ * @author ningxia
+ *
+ * @see CimonDatabaseAdapter
+ *
+ */
+public class NotificationCoalescer {
+
+    private static final String TAG = "NDroid";
+    private static final String THREADTAG = "NDroidNotify";
+
+    /** Default minimum time between notifications of the same URI (milliseconds). */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    private final ContentResolver resolver;
+    private final HandlerThread thread;
+    private Handler handler;
+    private long interval;
+    /** Nesting depth of quiet mode. */
+    private int quietDepth;
+    private final Set<Uri> dirty = new LinkedHashSet<Uri>();
+    /** Time each URI was last notified (uptime milliseconds). */
+    private final Map<Uri, Long> lastNotified = new HashMap<Uri, Long>();
+    /** Time pending drain is due (uptime milliseconds), -1 if none is pending. */
+    private long scheduledAt = -1;
+    private long requested;
+    private long notified;
+
+    /**
+     * Coalescer of change notifications.
+     *
+     * @param resolver    content resolver notifications are sent through
+     * @param interval    minimum time between notifications of the same URI (milliseconds)
+     */
+    public NotificationCoalescer(ContentResolver resolver, long interval) {
+        this.resolver = resolver;
+        this.interval = interval;
+        this.thread = new HandlerThread(THREADTAG, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    public synchronized void start() {
+        if (handler != null) return;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Notify pending URIs and stop background thread.
+     */
+    public void stop() {
+        ArrayList<Uri> uris = new ArrayList<Uri>();
+        synchronized (this) {
+            if (handler == null) return;
+            handler.removeCallbacks(drain);
+            scheduledAt = -1;
+            quietDepth = 0;
+            collectDirty(true, uris);
+            thread.quit();
+            handler = null;
+            if (DebugLog.DEBUG) Log.d(TAG, "NotificationCoalescer.stop - requested:" + requested +
+                    " notified:" + notified);
+        }
+        dispatch(uris);
+    }
+
+    /**
+     * Set minimum time between notifications of the same URI.
+     *
+     * @param interval    interval (milliseconds), 0 to notify on every drain
+     */
+    public synchronized void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Mark URI as changed, observers are notified once its interval has passed.
+     *
+     * @param uri    changed URI
+     */
+    public void notifyChange(Uri uri) {
+        ArrayList<Uri> uris;
+        synchronized (this) {
+            requested++;
+            if (!dirty.add(uri) || quietDepth > 0) {
+                return;
+            }
+            uris = schedule(delayOf(uri, SystemClock.uptimeMillis()));
+        }
+        dispatch(uris);
+    }
+
+    /**
+     * Hold back notifications, for bulk loading. Calls may be nested, and
+     * must be matched by {@link #endQuiet()}.
+     */
+    public synchronized void beginQuiet() {
+        quietDepth++;
+    }
+
+    /**
+     * Leave quiet mode, notifying URIs changed meanwhile once the outermost
+     * quiet mode ends.
+     */
+    public void endQuiet() {
+        ArrayList<Uri> uris;
+        synchronized (this) {
+            if (quietDepth == 0 || --quietDepth > 0 || dirty.isEmpty()) {
+                return;
+            }
+            uris = schedule(0);
+        }
+        dispatch(uris);
+    }
+
+    private long delayOf(Uri uri, long now) {
+        Long last = lastNotified.get(uri);
+        return last == null ? 0 : Math.max(0, last + interval - now);
+    }
+
+    /**
+     * Post drain unless one is already due earlier. Must hold coalescer lock.
+     *
+     * @return    URIs to notify on caller thread once the lock is released, if the
+     *            background thread is not running, null otherwise
+     */
+    private ArrayList<Uri> schedule(long delay) {
+        if (handler == null) {
+            // not started or already stopped, notify on caller thread
+            ArrayList<Uri> uris = new ArrayList<Uri>();
+            collectDirty(true, uris);
+            return uris;
+        }
+        long at = SystemClock.uptimeMillis() + delay;
+        if (scheduledAt >= 0 && scheduledAt <= at) {
+            return null;
+        }
+        handler.removeCallbacks(drain);
+        handler.postDelayed(drain, delay);
+        scheduledAt = at;
+        return null;
+    }
+
+    /**
+     * Collect dirty URIs whose interval has passed.
+     *
+     * @param all     true to collect all dirty URIs regardless of interval
+     * @param uris    list receiving URIs to notify
+     * @return    delay until next URI is due (milliseconds), -1 if none is left dirty
+     */
+    private long collectDirty(boolean all, ArrayList<Uri> uris) {
+        long now = SystemClock.uptimeMillis();
+        long next = -1;
+        Iterator<Uri> iterator = dirty.iterator();
+        while (iterator.hasNext()) {
+            Uri uri = iterator.next();
+            long delay = all ? 0 : delayOf(uri, now);
+            if (delay > 0) {
+                next = next < 0 ? delay : Math.min(next, delay);
+                continue;
+            }
+            iterator.remove();
+            lastNotified.put(uri, now);
+            notified++;
+            uris.add(uri);
+        }
+        return next;
+    }
+
+    /**
+     * Notify observers, outside of the coalescer lock.
+     *
+     * @param uris    URIs to notify, may be null
+     */
+    private void dispatch(ArrayList<Uri> uris) {
+        if (uris == null) {
+            return;
+        }
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    private Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Uri> uris = new ArrayList<Uri>();
+            synchronized (NotificationCoalescer.this) {
+                scheduledAt = -1;
+                if (quietDepth > 0) {
+                    return;
+                }
+                long next = collectDirty(false, uris);
+                if (next >= 0 && handler != null) {
+                    handler.postDelayed(this, next);
+                    scheduledAt = SystemClock.uptimeMillis() + next;
+                }
+            }
+            dispatch(uris);
+        }
+    };
+
+}
@@ -0,0 +1,378 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Routes readings to the daily partitions of the Data and VectorData tables.
+ * Partitions are created as readings of a new day arrive, and dropped whole
+ * by retention, after which the views over them are rebuilt.
+ * <p>
+ * Row ids are assigned here, in one sequence per table across all of its
+ * partitions, so ids stay unique and increasing within the views, as they
+ * were within the unpartitioned tables.
+ * <p>
+ * Partitions must be created outside of a batch transaction, see
+ * {@link #prepare(int, long)}, since a rolled back transaction would take the
+ * new tables with it. Not thread safe, used under the writer lock of
+ * {@link CimonDatabaseAdapter}.
+ *
+ * @author ningxia
+ *
+ * @see PartitionTable
+ * @see DataView
+ *
+ */
+public class PartitionManager {
+
+    private static final String TAG = "NDroid";
+
+    /** Maximum number of partitions, so views stay within the compound select limit of SQLite. */
+    public static final int MAX_PARTITIONS = 400;
+
+    private static final String INSERT_DATA = "INSERT INTO %s ("
+            + DataTable.COLUMN_ID + ", "
+            + DataTable.COLUMN_METRIC_ID + ", " + DataTable.COLUMN_MONITOR_ID + ", "
+            + DataTable.COLUMN_TIMESTAMP + ", " + DataTable.COLUMN_VALUE
+            + ") VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_VECTOR_DATA = "INSERT OR IGNORE INTO %s ("
+            + VectorDataTable.COLUMN_ID + ", "
+            + VectorDataTable.COLUMN_METRIC_ID + ", " + VectorDataTable.COLUMN_MONITOR_ID + ", "
+            + VectorDataTable.COLUMN_TIMESTAMP + ", " + VectorDataTable.COLUMN_X + ", "
+            + VectorDataTable.COLUMN_Y + ", " + VectorDataTable.COLUMN_Z
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Tables and compiled insert statements of one day.
+     */
+    private static class Partition {
+        final long day;
+        final SQLiteStatement insertData;
+        final SQLiteStatement insertVector;
+
+        Partition(SQLiteDatabase database, long day) {
+            this.day = day;
+            insertData = database.compileStatement(String.format(INSERT_DATA,
+                    PartitionTable.dataTableOf(day)));
+            insertVector = database.compileStatement(String.format(INSERT_VECTOR_DATA,
+                    PartitionTable.vectorTableOf(day)));
+        }
+
+        void close() {
+            insertData.close();
+            insertVector.close();
+        }
+    }
+
+    private final SQLiteDatabase database;
+    private final TreeMap<Long, Partition> partitions = new TreeMap<Long, Partition>();
+    /** Time offset of each monitor (nanoseconds). */
+    private final Map<Integer, Long> offsets = new HashMap<Integer, Long>();
+    /** Partition of the last reading routed, readings mostly arrive in order. */
+    private Partition current;
+    private long lastDataId;
+    private long lastVectorId;
+
+    /**
+     * Partition manager of database, opening existing partitions.
+     *
+     * @param database    open database
+     */
+    public PartitionManager(SQLiteDatabase database) {
+        this.database = database;
+        load();
+    }
+
+    private void load() {
+        for (long day : PartitionTable.getDays(database)) {
+            partitions.put(day, new Partition(database, day));
+        }
+        lastDataId = lastSequence(getDataTables());
+        lastVectorId = lastSequence(getVectorTables());
+        if (DebugLog.DEBUG) Log.d(TAG, "PartitionManager.load - " + partitions.size()
+                + " partitions, last ids " + lastDataId + "/" + lastVectorId);
+    }
+
+    /**
+     * Close insert statements of partitions.
+     */
+    public void close() {
+        for (Partition partition : partitions.values()) {
+            partition.close();
+        }
+        partitions.clear();
+        current = null;
+    }
+
+    /**
+     * Reopen partitions from Partition table, after a transaction that may
+     * have created some was rolled back.
+     */
+    public void reload() {
+        close();
+        load();
+    }
+
+    /**
+     * Get highest row id ever assigned in any of the tables.
+     */
+    private long lastSequence(ArrayList<String> tables) {
+        StringBuilder names = new StringBuilder();
+        for (String table : tables) {
+            names.append(names.length() > 0 ? ", '" : "'").append(table).append("'");
+        }
+        Cursor cursor = database.rawQuery("SELECT max(seq) FROM sqlite_sequence WHERE name IN ("
+                + names + ")", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Raise autoincrement sequence of table to at least given id.
+     */
+    private void keepSequence(String table, long id) {
+        SQLiteStatement update = database.compileStatement(
+                "UPDATE sqlite_sequence SET seq = max(seq, ?) WHERE name = ?");
+        try {
+            update.bindLong(1, id);
+            update.bindString(2, table);
+            if (update.executeUpdateDelete() == 0) {
+                ContentValues values = new ContentValues();
+                values.put("name", table);
+                values.put("seq", id);
+                database.insert("sqlite_sequence", null, values);
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Get day of partition holding reading of monitor.
+     *
+     * @param monitor      id of monitor
+     * @param timestamp    timestamp of reading, from elapsed realtime (nanoseconds)
+     * @return    day from epoch
+     */
+    public long dayOf(int monitor, long timestamp) {
+        return PartitionTable.dayOf(timestamp + offsetOf(monitor));
+    }
+
+    /**
+     * Get time offset of monitor, converting its timestamps to system time from epoch.
+     *
+     * @param monitor    id of monitor
+     * @return    offset (nanoseconds), 0 if monitor is unknown
+     */
+    public long offsetOf(int monitor) {
+        Long offset = offsets.get(monitor);
+        if (offset == null) {
+            Cursor cursor = database.query(MonitorTable.TABLE_MONITOR,
+                    new String[]{MonitorTable.COLUMN_TIME_OFFSET},
+                    MonitorTable.COLUMN_ID + " = " + monitor, null, null, null, null);
+            try {
+                offset = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+            offsets.put(monitor, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Create partition for reading if it does not exist yet. Called before a
+     * batch transaction begins, for each day the batch covers.
+     *
+     * @param monitor      id of monitor
+     * @param timestamp    timestamp of reading, from elapsed realtime (nanoseconds)
+     */
+    public void prepare(int monitor, long timestamp) {
+        partitionOf(monitor, timestamp);
+    }
+
+    /**
+     * Get insert statement of Data partition for reading, with next row id bound.
+     * Caller binds metric, monitor, timestamp and value (parameters 2 to 5).
+     *
+     * @param monitor      id of monitor
+     * @param timestamp    timestamp of reading, from elapsed realtime (nanoseconds)
+     * @return    compiled insert statement
+     */
+    public SQLiteStatement insertData(int monitor, long timestamp) {
+        SQLiteStatement statement = partitionOf(monitor, timestamp).insertData;
+        statement.bindLong(1, ++lastDataId);
+        return statement;
+    }
+
+    /**
+     * Get insert statement of VectorData partition for reading, with next row id
+     * bound. Caller binds metric group, monitor, timestamp and axis values
+     * (parameters 2 to 7). Duplicate readings are ignored.
+     *
+     * @param monitor      id of monitor
+     * @param timestamp    timestamp of reading, from elapsed realtime (nanoseconds)
+     * @return    compiled insert statement
+     */
+    public SQLiteStatement insertVectorData(int monitor, long timestamp) {
+        SQLiteStatement statement = partitionOf(monitor, timestamp).insertVector;
+        statement.bindLong(1, ++lastVectorId);
+        return statement;
+    }
+
+    private Partition partitionOf(int monitor, long timestamp) {
+        long day = dayOf(monitor, timestamp);
+        if (current != null && current.day == day) {
+            return current;
+        }
+        current = partitions.get(day);
+        if (current == null) {
+            current = create(day);
+        }
+        return current;
+    }
+
+    /**
+     * Create tables of day, folding the oldest partition into the
+     * unpartitioned tables if there are too many.
+     */
+    private Partition create(long day) {
+        String dataTable = PartitionTable.dataTableOf(day);
+        String vectorTable = PartitionTable.vectorTableOf(day);
+        database.beginTransaction();
+        try {
+            DataTable.createTable(database, dataTable);
+            VectorDataTable.createTable(database, vectorTable);
+            ContentValues values = new ContentValues();
+            values.put(PartitionTable.COLUMN_DAY, day);
+            values.put(PartitionTable.COLUMN_DATA_TABLE, dataTable);
+            values.put(PartitionTable.COLUMN_VECTOR_TABLE, vectorTable);
+            database.insertOrThrow(PartitionTable.TABLE_PARTITION, null, values);
+            if (partitions.size() >= MAX_PARTITIONS) {
+                fold(partitions.firstKey());
+            }
+            DataView.rebuild(database);
+            database.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            database.endTransaction();
+            reload();
+            throw e;
+        }
+        database.endTransaction();
+        Partition partition = new Partition(database, day);
+        partitions.put(day, partition);
+        if (DebugLog.DEBUG) Log.d(TAG, "PartitionManager.create - day " + day);
+        return partition;
+    }
+
+    /**
+     * Move rows of partition into the unpartitioned tables, and drop it.
+     */
+    private void fold(long day) {
+        database.execSQL("INSERT INTO " + DataTable.TABLE_DATA + " SELECT * FROM "
+                + PartitionTable.dataTableOf(day));
+        database.execSQL("INSERT OR IGNORE INTO " + VectorDataTable.TABLE_VECTOR_DATA
+                + " SELECT * FROM " + PartitionTable.vectorTableOf(day));
+        drop(day);
+        if (DebugLog.INFO) Log.i(TAG, "PartitionManager.fold - day " + day);
+    }
+
+    /**
+     * Drop tables of day, views must be rebuilt afterwards.
+     */
+    private void drop(long day) {
+        Partition partition = partitions.remove(day);
+        if (partition != null) {
+            partition.close();
+        }
+        if (current == partition) {
+            current = null;
+        }
+        database.execSQL("DROP TABLE IF EXISTS " + PartitionTable.dataTableOf(day));
+        database.execSQL("DROP TABLE IF EXISTS " + PartitionTable.vectorTableOf(day));
+        database.delete(PartitionTable.TABLE_PARTITION,
+                PartitionTable.COLUMN_DAY + " = " + day, null);
+    }
+
+    /**
+     * Drop partitions of days before given day, in constant time per partition.
+     *
+     * @param day    first day to keep, from epoch
+     * @return    number of partitions dropped
+     */
+    public int dropBefore(long day) {
+        int dropped = 0;
+        database.beginTransaction();
+        try {
+            for (long old : new ArrayList<Long>(partitions.headMap(day).keySet())) {
+                drop(old);
+                dropped++;
+            }
+            if (dropped > 0) {
+                // sequences of dropped tables are gone, keep ids increasing after restart
+                keepSequence(DataTable.TABLE_DATA, lastDataId);
+                keepSequence(VectorDataTable.TABLE_VECTOR_DATA, lastVectorId);
+                DataView.rebuild(database);
+            }
+            database.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            database.endTransaction();
+            reload();
+            throw e;
+        }
+        database.endTransaction();
+        if (DebugLog.DEBUG) Log.d(TAG, "PartitionManager.dropBefore - dropped " + dropped
+                + " partitions before day " + day);
+        return dropped;
+    }
+
+    /**
+     * Drop oldest partition, unless it is the only one left.
+     *
+     * @return    true if a partition was dropped
+     */
+    public boolean dropOldest() {
+        if (partitions.size() < 2) {
+            return false;
+        }
+        return dropBefore(partitions.firstKey() + 1) > 0;
+    }
+
+    /**
+     * Get names of Data table and its partitions, oldest first.
+     */
+    public ArrayList<String> getDataTables() {
+        ArrayList<String> tables = new ArrayList<String>();
+        tables.add(DataTable.TABLE_DATA);
+        for (long day : partitions.keySet()) {
+            tables.add(PartitionTable.dataTableOf(day));
+        }
+        return tables;
+    }
+
+    /**
+     * Get names of VectorData table and its partitions, oldest first.
+     */
+    public ArrayList<String> getVectorTables() {
+        ArrayList<String> tables = new ArrayList<String>();
+        tables.add(VectorDataTable.TABLE_VECTOR_DATA);
+        for (long day : partitions.keySet()) {
+            tables.add(PartitionTable.vectorTableOf(day));
+        }
+        return tables;
+    }
+
+}
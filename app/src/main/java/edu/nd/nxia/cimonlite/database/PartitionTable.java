@@ -0,0 +1,115 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the Partition table of the database.
+ * This table is the catalog of partitions of the Data and VectorData tables.
+ * Readings are stored in one pair of tables per day, named after the table
+ * they partition and the day, with the layout and index of that table. Rows
+ * stored before partitioning remain in the Data and VectorData tables, which
+ * are read as one more partition.
+ * <p>
+ * Days are counted from epoch, readings fall into the day of their timestamp
+ * plus the time offset of their monitor. Retention drops the tables of whole
+ * days, instead of deleting their rows.
+ *
+ * @author ningxia
+ *
+ * @see PartitionManager
+ * @see DataView
+ *
+ */
+public final class PartitionTable {
+
+    private static final String TAG = "NDroid";
+
+    /** Length of partition (nanoseconds). */
+    public static final long DAY = 24L * 60 * 60 * 1000000000L;
+
+    // Database table
+    public static final String TABLE_PARTITION = "datapartition";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Day of partition, from epoch (Long). */
+    public static final String COLUMN_DAY = "day";
+    /** Name of partition of Data table (String). */
+    public static final String COLUMN_DATA_TABLE = "datatable";
+    /** Name of partition of VectorData table (String). */
+    public static final String COLUMN_VECTOR_TABLE = "vectortable";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_PARTITION
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_DAY + " integer not null unique, "
+            + COLUMN_DATA_TABLE + " text not null,"
+            + COLUMN_VECTOR_TABLE + " text not null"
+            + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_PARTITION + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 9) {
+            // existing readings stay in the unpartitioned tables
+            onCreate(database);
+        }
+    }
+
+    /**
+     * Get day of partition holding reading.
+     *
+     * @param epochTime    time of reading from epoch (nanoseconds)
+     * @return    day from epoch
+     */
+    public static long dayOf(long epochTime) {
+        return epochTime / DAY;
+    }
+
+    /**
+     * Get name of partition of Data table for day.
+     */
+    public static String dataTableOf(long day) {
+        return DataTable.TABLE_DATA + "_" + day;
+    }
+
+    /**
+     * Get name of partition of VectorData table for day.
+     */
+    public static String vectorTableOf(long day) {
+        return VectorDataTable.TABLE_VECTOR_DATA + "_" + day;
+    }
+
+    /**
+     * Get days of existing partitions.
+     *
+     * @param database    open database
+     * @return    days from epoch, in ascending order
+     */
+    public static ArrayList<Long> getDays(SQLiteDatabase database) {
+        ArrayList<Long> days = new ArrayList<Long>();
+        Cursor cursor = database.query(TABLE_PARTITION, new String[]{COLUMN_DAY},
+                null, null, null, null, COLUMN_DAY);
+        try {
+            while (cursor.moveToNext()) {
+                days.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+}
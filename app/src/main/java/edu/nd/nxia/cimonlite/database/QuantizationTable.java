@@ -0,0 +1,92 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the Quantization table of the database.
+ * This table holds the step to which values of a metric are quantized, for
+ * monitors storing readings as integers. Such readings are stored as the
+ * nearest multiple of the step, in number of steps. SQLite stores integral
+ * values of REAL columns as variable-length integers of 1 to 4 bytes for
+ * typical sensor readings, instead of 8-byte floats.
+ * <p>
+ * Steps are taken from the resolution declared in {@link MetricInfoTable},
+ * so no precision beyond that of the sensor is lost. {@link DataView} builds
+ * the steps of this table into its views to restore values on read, metrics
+ * without a step are stored as floats.
+ *
+ * @author ningxia
+ *
+ * @see DataView
+ *
+ */
+public final class QuantizationTable {
+
+    private static final String TAG = "NDroid";
+
+    // Database table
+    public static final String TABLE_QUANTIZATION = "quantization";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Index of monitor storing quantized readings (Long). */
+    public static final String COLUMN_MONITOR_ID = "monitorid";
+    /** Index of metric, or of metric group for VectorData table (Long). */
+    public static final String COLUMN_METRIC_ID = "metricid";
+    /** Quantization step, stored value times step gives the reading (Float). */
+    public static final String COLUMN_STEP = "step";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_QUANTIZATION
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_MONITOR_ID + " integer not null,"
+            + COLUMN_METRIC_ID + " integer not null, "
+            + COLUMN_STEP + " real not null"
+            + ");";
+    private static final String INDEX_CREATE = "create unique index if not exists "
+            + TABLE_QUANTIZATION + "_key on " + TABLE_QUANTIZATION
+            + "(" + COLUMN_MONITOR_ID + ", " + COLUMN_METRIC_ID + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+        database.execSQL(INDEX_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_QUANTIZATION + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 10) {
+            // readings stored before this version are floats
+            onCreate(database);
+        }
+    }
+
+    /**
+     * Get quantization step from resolution of MetricInfo table.
+     *
+     * @param resolution    resolution, a number followed by units
+     * @return    step, 0 if resolution holds no positive number
+     */
+    public static double parseStep(String resolution) {
+        if (resolution == null) {
+            return 0;
+        }
+        String number = resolution.trim();
+        int end = number.indexOf(' ');
+        if (end > 0) {
+            number = number.substring(0, end);
+        }
+        try {
+            double step = Double.parseDouble(number);
+            return step > 0 && !Double.isInfinite(step) ? step : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
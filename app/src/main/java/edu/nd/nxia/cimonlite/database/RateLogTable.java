@@ -0,0 +1,63 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the RateLog table of the database.
+ * This table records every change of the sampling period of a metric group,
+ * so that the effective sampling rate of stored readings can be recovered.
+ * A row applies from its timestamp until the next row of the same monitor
+ * and metric group.
+ *
+ * @author ningxia
+ *
+ * @see DataTable
+ * @see VectorDataTable
+ *
+ */
+public final class RateLogTable {
+
+    private static final String TAG = "NDroid";
+
+    // Database table
+    public static final String TABLE_RATE_LOG = "ratelog";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Index of monitor that registered metric (Long). */
+    public static final String COLUMN_MONITOR_ID = "monitorid";
+    /** Index of metric group in MetricInfo table (Long). */
+    public static final String COLUMN_METRIC_ID = "metricid";
+    /** Time of change, from elapsed realtime in nanoseconds (Long).
+     *  Add time offset of monitor to acquire nanoseconds from epoch. */
+    public static final String COLUMN_TIMESTAMP = "timestamp";
+    /** Requested sampling period in microseconds, 0 for fastest (Long). */
+    public static final String COLUMN_PERIOD = "period";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_RATE_LOG
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_MONITOR_ID + " integer not null,"
+            + COLUMN_METRIC_ID + " integer not null, "
+            + COLUMN_TIMESTAMP + " integer not null,"
+            + COLUMN_PERIOD + " integer not null"
+            + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_RATE_LOG + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 5) {
+            onCreate(database);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.nd.nxia.cimonlite.DerivedMetrics;
+
+/**
+ * Aggregates readings of a batch into buckets of the Rollup table.
+ * Buckets are aligned on system time, timestamps of readings are moved from
+ * elapsed realtime with the time offset of their monitor.
+ * Readings of each metric arrive in timestamp order, so only the current
+ * bucket of each metric and resolution is held in memory. A bucket is merged
+ * into the table when a reading falls into the next bucket, and open buckets
+ * are merged when the batch ends, within the insert transaction of the batch.
+ * <p>
+ * Not thread safe, used under the writer lock of {@link CimonDatabaseAdapter}.
+ *
+ * @author ningxia
+ *
+ * @see RollupTable
+ *
+ */
+public class RollupAccumulator {
+
+    private static final String UPDATE_ROLLUP = "UPDATE " + RollupTable.TABLE_ROLLUP + " SET "
+            + RollupTable.COLUMN_COUNT + " = " + RollupTable.COLUMN_COUNT + " + ?, "
+            + RollupTable.COLUMN_MIN + " = min(" + RollupTable.COLUMN_MIN + ", ?), "
+            + RollupTable.COLUMN_MAX + " = max(" + RollupTable.COLUMN_MAX + ", ?), "
+            + RollupTable.COLUMN_SUM + " = " + RollupTable.COLUMN_SUM + " + ?, "
+            + RollupTable.COLUMN_SUMSQ + " = " + RollupTable.COLUMN_SUMSQ + " + ? WHERE "
+            + RollupTable.COLUMN_MONITOR_ID + " = ? AND " + RollupTable.COLUMN_METRIC_ID + " = ? AND "
+            + RollupTable.COLUMN_RESOLUTION + " = ? AND " + RollupTable.COLUMN_BUCKET + " = ?";
+    private static final String INSERT_ROLLUP = "INSERT INTO " + RollupTable.TABLE_ROLLUP + " ("
+            + RollupTable.COLUMN_COUNT + ", " + RollupTable.COLUMN_MIN + ", "
+            + RollupTable.COLUMN_MAX + ", " + RollupTable.COLUMN_SUM + ", "
+            + RollupTable.COLUMN_SUMSQ + ", " + RollupTable.COLUMN_MONITOR_ID + ", "
+            + RollupTable.COLUMN_METRIC_ID + ", " + RollupTable.COLUMN_RESOLUTION + ", "
+            + RollupTable.COLUMN_BUCKET + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int RESOLUTIONS = RollupTable.RESOLUTIONS.length;
+
+    /**
+     * Current buckets of one metric, one per resolution.
+     */
+    private static class Series {
+        final long[] bucket = new long[RESOLUTIONS];
+        final long[] count = new long[RESOLUTIONS];
+        final double[] min = new double[RESOLUTIONS];
+        final double[] max = new double[RESOLUTIONS];
+        final double[] sum = new double[RESOLUTIONS];
+        final double[] sumsq = new double[RESOLUTIONS];
+    }
+
+    private final SQLiteStatement updateStatement;
+    private final SQLiteStatement insertStatement;
+    private final Map<Integer, Series> series = new HashMap<Integer, Series>();
+    /** Time offset of monitor of current batch (nanoseconds). */
+    private long offset;
+    private long merged;
+
+    /**
+     * Compile statements of accumulator on database.
+     *
+     * @param database    open database
+     */
+    public RollupAccumulator(SQLiteDatabase database) {
+        updateStatement = database.compileStatement(UPDATE_ROLLUP);
+        insertStatement = database.compileStatement(INSERT_ROLLUP);
+    }
+
+    public void close() {
+        updateStatement.close();
+        insertStatement.close();
+    }
+
+    /**
+     * Start aggregating a batch of monitor.
+     *
+     * @param monitor    id of monitor
+     * @param offset     time offset of monitor, from elapsed realtime to system time (nanoseconds)
+     * @see MonitorTable#COLUMN_TIME_OFFSET
+     */
+    public void begin(int monitor, long offset) {
+        this.offset = offset;
+        updateStatement.bindLong(6, monitor);
+        insertStatement.bindLong(6, monitor);
+    }
+
+    /**
+     * Add reading of single metric.
+     *
+     * @param metric       id of metric
+     * @param timestamp    timestamp of reading, from elapsed realtime (nanoseconds)
+     * @param value        value of reading
+     */
+    public void add(int metric, long timestamp, double value) {
+        long time = timestamp + offset;
+        Series current = series.get(metric);
+        if (current == null) {
+            current = new Series();
+            series.put(metric, current);
+        }
+        for (int i = 0; i < RESOLUTIONS; i++) {
+            long length = RollupTable.RESOLUTIONS[i] * 1000000000L;
+            long bucket = time - time % length;
+            if (current.count[i] > 0 && bucket != current.bucket[i]) {
+                merge(metric, i, current);
+            }
+            if (current.count[i] == 0) {
+                current.bucket[i] = bucket;
+                current.min[i] = value;
+                current.max[i] = value;
+            }
+            else {
+                current.min[i] = Math.min(current.min[i], value);
+                current.max[i] = Math.max(current.max[i], value);
+            }
+            current.count[i]++;
+            current.sum[i] += value;
+            current.sumsq[i] += value * value;
+        }
+    }
+
+    /**
+     * Add reading of multi-axis sensor, aggregating each axis and derived metric.
+     *
+     * @param group        id of metric group
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param x            x-axis value
+     * @param y            y-axis value
+     * @param z            z-axis value
+     */
+    public void add(int group, long timestamp, float x, float y, float z) {
+        add(group, timestamp, x);
+        add(group + 1, timestamp, y);
+        add(group + 2, timestamp, z);
+        for (int metric : DerivedMetrics.getDerived(group)) {
+            add(metric, timestamp, DerivedMetrics.compute(metric, x, y, z));
+        }
+    }
+
+    /**
+     * Merge open buckets of batch into Rollup table.
+     *
+     * @return    number of buckets merged since accumulator was created
+     */
+    public long end() {
+        for (Map.Entry<Integer, Series> entry : series.entrySet()) {
+            Series current = entry.getValue();
+            for (int i = 0; i < RESOLUTIONS; i++) {
+                if (current.count[i] > 0) {
+                    merge(entry.getKey(), i, current);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Discard open buckets, after the batch transaction failed.
+     */
+    public void abort() {
+        series.clear();
+    }
+
+    /**
+     * Merge bucket into existing row, or insert it if there is none.
+     */
+    private void merge(int metric, int resolution, Series current) {
+        bind(updateStatement, metric, resolution, current);
+        if (updateStatement.executeUpdateDelete() == 0) {
+            bind(insertStatement, metric, resolution, current);
+            insertStatement.executeInsert();
+        }
+        current.count[resolution] = 0;
+        current.sum[resolution] = 0;
+        current.sumsq[resolution] = 0;
+        merged++;
+    }
+
+    /**
+     * Bind bucket to update or insert statement, monitor is already bound.
+     */
+    private static void bind(SQLiteStatement statement, int metric, int resolution,
+                             Series current) {
+        statement.bindLong(1, current.count[resolution]);
+        statement.bindDouble(2, current.min[resolution]);
+        statement.bindDouble(3, current.max[resolution]);
+        statement.bindDouble(4, current.sum[resolution]);
+        statement.bindDouble(5, current.sumsq[resolution]);
+        statement.bindLong(7, metric);
+        statement.bindLong(8, RollupTable.RESOLUTIONS[resolution]);
+        statement.bindLong(9, current.bucket[resolution]);
+    }
+
+}
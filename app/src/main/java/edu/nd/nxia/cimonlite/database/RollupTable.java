@@ -0,0 +1,95 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the Rollup table of the database.
+ * This table holds aggregates of readings per metric over fixed time buckets,
+ * at several resolutions. Aggregates are updated as batches are inserted, and
+ * are kept when raw readings are discarded by the retention policy, so trends
+ * over hours or days are read from a few rows per bucket.
+ * <p>
+ * Mean is sum / count, variance is sumsq / count - mean * mean.
+ *
+ * @author ningxia
+ *
+ * @see RollupAccumulator
+ *
+ */
+public final class RollupTable {
+
+    private static final String TAG = "NDroid";
+
+    /** Bucket lengths of rollups (seconds). */
+    public static final int[] RESOLUTIONS = {1, 60, 3600};
+
+    // Database table
+    public static final String TABLE_ROLLUP = "rollup";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Index of monitor that registered metric (Long). */
+    public static final String COLUMN_MONITOR_ID = "monitorid";
+    /** Index of metric, including derived metrics (Long). */
+    public static final String COLUMN_METRIC_ID = "metricid";
+    /** Length of bucket, one of {@link #RESOLUTIONS} (seconds) (Long). */
+    public static final String COLUMN_RESOLUTION = "resolution";
+    /** Start of bucket, system time from epoch in nanoseconds (Long). */
+    public static final String COLUMN_BUCKET = "bucket";
+    /** Number of readings in bucket (Long). */
+    public static final String COLUMN_COUNT = "count";
+    /** Minimum value (Float). */
+    public static final String COLUMN_MIN = "min";
+    /** Maximum value (Float). */
+    public static final String COLUMN_MAX = "max";
+    /** Sum of values (Float). */
+    public static final String COLUMN_SUM = "sum";
+    /** Sum of squared values (Float). */
+    public static final String COLUMN_SUMSQ = "sumsq";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table "
+            + TABLE_ROLLUP
+            + "("
+            + COLUMN_ID + " integer primary key autoincrement, "
+            + COLUMN_MONITOR_ID + " integer not null,"
+            + COLUMN_METRIC_ID + " integer not null, "
+            + COLUMN_RESOLUTION + " integer not null,"
+            + COLUMN_BUCKET + " integer not null,"
+            + COLUMN_COUNT + " integer not null,"
+            + COLUMN_MIN + " real not null,"
+            + COLUMN_MAX + " real not null,"
+            + COLUMN_SUM + " real not null,"
+            + COLUMN_SUMSQ + " real not null"
+            + ");";
+    private static final String INDEX_CREATE = "create unique index if not exists "
+            + TABLE_ROLLUP + "_key on " + TABLE_ROLLUP
+            + "(" + COLUMN_MONITOR_ID + ", " + COLUMN_METRIC_ID + ", " + COLUMN_RESOLUTION
+            + ", " + COLUMN_BUCKET + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        database.execSQL(DATABASE_CREATE);
+        database.execSQL(INDEX_CREATE);
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_ROLLUP + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 8) {
+            // readings stored before this version are not aggregated
+            onCreate(database);
+        }
+        else if (oldVersion < 14) {
+            // buckets were on elapsed realtime, move them to system time of their monitor
+            database.execSQL("UPDATE " + TABLE_ROLLUP + " SET " + COLUMN_BUCKET + " = "
+                    + COLUMN_BUCKET + " + ifnull((SELECT " + MonitorTable.COLUMN_TIME_OFFSET
+                    + " FROM " + MonitorTable.TABLE_MONITOR + " WHERE " + MonitorTable.TABLE_MONITOR
+                    + "." + MonitorTable.COLUMN_ID + " = " + TABLE_ROLLUP + "." + COLUMN_MONITOR_ID
+                    + "), 0)");
+        }
+    }
+
+}
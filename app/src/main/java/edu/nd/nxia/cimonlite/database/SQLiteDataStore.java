@@ -0,0 +1,225 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+/**
+ * Data store backed by the SQLite database of {@link CimonDatabaseAdapter}.
+ * Labels are kept in the separate database of {@link LabelingHistory}.
+ * Readings are scanned through the views of {@link DataView}, which combine
+ * daily partitions and restore quantized values.
+ *
+ * @author ningxia
+ *
+ * @see DataStore
+ *
+ */
+public class SQLiteDataStore implements DataStore {
+
+    /** Maximum range of ids deleted per statement from LabelingHistory table. */
+    private static final int DELETE_RANGE = 500;
+
+    private final CimonDatabaseAdapter database;
+    private final LabelingHistory labels;
+    private final boolean chunked;
+
+    /**
+     * Data store of database adapter.
+     *
+     * @param database    database adapter
+     * @param labels      labeling history
+     * @param chunked     true to store readings as compressed blocks of Chunk table
+     */
+    public SQLiteDataStore(CimonDatabaseAdapter database, LabelingHistory labels,
+                           boolean chunked) {
+        this.database = database;
+        this.labels = labels;
+        this.chunked = chunked;
+    }
+
+    @Override
+    public long appendBatch(int monitor, SampleBuffer batch) {
+        return chunked ? database.insertBatchChunks(monitor, batch)
+                : database.insertBatchGroupData(monitor, batch);
+    }
+
+    @Override
+    public long append(String table, String[] columns, Object[] values) {
+        ContentValues row = new ContentValues();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                row.putNull(columns[i]);
+            }
+            else if (value instanceof Float || value instanceof Double) {
+                row.put(columns[i], ((Number) value).doubleValue());
+            }
+            else if (value instanceof Number) {
+                row.put(columns[i], ((Number) value).longValue());
+            }
+            else if (value instanceof byte[]) {
+                row.put(columns[i], (byte[]) value);
+            }
+            else {
+                row.put(columns[i], value.toString());
+            }
+        }
+        if (table.equals(LabelingHistory.TABLE_NAME)) {
+            return labels().insert(table, null, row);
+        }
+        return database.insert(table, row);
+    }
+
+    @Override
+    public Rows scan(String table, long afterId, int limit) {
+        String selection = "_id > ?";
+        String[] args = {Long.toString(afterId)};
+        Cursor cursor;
+        if (table.equals(LabelingHistory.TABLE_NAME)) {
+            cursor = labels().query(table, null, selection, args, null, null, "_id",
+                    Integer.toString(limit));
+        }
+        else {
+            SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+            queryBuilder.setTables(sourceOf(table));
+            cursor = database.query(queryBuilder, null, selection, args, "_id",
+                    Integer.toString(limit));
+        }
+        return new CursorRows(cursor);
+    }
+
+    @Override
+    public int count(String table, String column, long from, long to) {
+        String selection = column + " >= ? AND " + column + " < ?";
+        String[] args = {Long.toString(from), Long.toString(to)};
+        Cursor cursor;
+        if (table.equals(LabelingHistory.TABLE_NAME)) {
+            cursor = labels().query(table, new String[]{"count(*)"}, selection, args,
+                    null, null, null);
+        }
+        else {
+            SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+            queryBuilder.setTables(sourceOf(table));
+            cursor = database.query(queryBuilder, new String[]{"count(*)"}, selection, args,
+                    null);
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public int deleteThrough(String table, long watermark) {
+        if (!table.equals(LabelingHistory.TABLE_NAME)) {
+            return database.deleteThrough(table, watermark);
+        }
+        SQLiteDatabase db = labels();
+        Cursor cursor = db.rawQuery("SELECT min(_id), max(_id) FROM " + table, null);
+        long low = 0;
+        long last = 0;
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            low = cursor.getLong(0) - 1;
+            last = Math.min(cursor.getLong(1), watermark);
+        }
+        cursor.close();
+        int deleted = 0;
+        while (low < last) {
+            long high = Math.min(low + DELETE_RANGE, last);
+            deleted += db.delete(table, "_id > ? AND _id <= ?",
+                    new String[]{Long.toString(low), Long.toString(high)});
+            low = high;
+        }
+        return deleted;
+    }
+
+    @Override
+    public String getMetadata(String key) {
+        return database.getMetadata(key);
+    }
+
+    @Override
+    public void putMetadata(String key, String value) {
+        database.putMetadata(key, value);
+    }
+
+    @Override
+    public String getStatistics() {
+        return database.getLockStatistics() + "; duplicate readings ignored: "
+                + database.getIgnoredRows();
+    }
+
+    /**
+     * Database adapter and labeling history are shared by the application, and are
+     * not closed with the store.
+     */
+    @Override
+    public void close() {
+    }
+
+    private SQLiteDatabase labels() {
+        return labels.getDatabase();
+    }
+
+    /**
+     * Get table or view rows of table are read from.
+     */
+    private static String sourceOf(String table) {
+        if (table.equals(DataTable.TABLE_DATA)) {
+            return DataView.VIEW_SCALAR_DATA;
+        }
+        if (table.equals(VectorDataTable.TABLE_VECTOR_DATA)) {
+            return DataView.VIEW_VECTOR_DATA;
+        }
+        return table;
+    }
+
+    /**
+     * Rows of cursor.
+     */
+    private static class CursorRows implements Rows {
+
+        private final Cursor cursor;
+
+        CursorRows(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public String[] getColumns() {
+            return cursor.getColumnNames();
+        }
+
+        @Override
+        public boolean next() {
+            return cursor.moveToNext();
+        }
+
+        @Override
+        public Object get(int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_STRING:
+                    return cursor.getString(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+}
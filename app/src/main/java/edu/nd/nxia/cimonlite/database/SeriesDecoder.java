@@ -0,0 +1,121 @@
+package edu.nd.nxia.cimonlite.database;
+
+/**
+ * Decoder of a block of readings of one series, stored in the Chunk table.
+ * Readings are decoded one at a time, in timestamp order.
+ *
+ * @author ningxia
+ *
+ * @see SeriesEncoder
+ * @see ChunkTable
+ *
+ */
+public class SeriesDecoder {
+
+    private final byte[] data;
+    private final int axes;
+    private final int count;
+    /** Number of bits read. */
+    private int position;
+    private int index;
+    private long timestamp;
+    private long delta;
+    private final int[] values;
+    private final int[] leadingZeros;
+    private final int[] trailingZeros;
+
+    /**
+     * Decoder of a block of readings of one series.
+     *
+     * @param data     encoded block
+     * @param axes     number of values per reading
+     * @param count    number of readings in block
+     */
+    public SeriesDecoder(byte[] data, int axes, int count) {
+        this.data = data;
+        this.axes = axes;
+        this.count = count;
+        this.values = new int[axes];
+        this.leadingZeros = new int[axes];
+        this.trailingZeros = new int[axes];
+    }
+
+    /**
+     * Decode next reading.
+     *
+     * @return false if all readings have been decoded
+     */
+    public boolean next() {
+        if (index == count) {
+            return false;
+        }
+        if (index == 0) {
+            timestamp = readBits(64);
+        }
+        else {
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+        }
+        for (int axis = 0; axis < axes; axis++) {
+            readValue(axis);
+        }
+        index++;
+        return true;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get value of current reading.
+     *
+     * @param axis    index of axis, 0 for single metrics
+     * @return    value of axis
+     */
+    public float getValue(int axis) {
+        return Float.intBitsToFloat(values[axis]);
+    }
+
+    private long readDeltaOfDelta() {
+        if (readBits(1) == 0) {
+            return 0;
+        }
+        if (readBits(1) == 0) {
+            return signExtend(readBits(SeriesEncoder.DOD_SHORT_BITS), SeriesEncoder.DOD_SHORT_BITS);
+        }
+        if (readBits(1) == 0) {
+            return signExtend(readBits(SeriesEncoder.DOD_MEDIUM_BITS), SeriesEncoder.DOD_MEDIUM_BITS);
+        }
+        return readBits(64);
+    }
+
+    private static long signExtend(long value, int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+
+    private void readValue(int axis) {
+        if (readBits(1) == 0) {
+            return;
+        }
+        if (readBits(1) == 1) {
+            leadingZeros[axis] = (int) readBits(5);
+            trailingZeros[axis] = 32 - leadingZeros[axis] - ((int) readBits(5) + 1);
+        }
+        int length = 32 - leadingZeros[axis] - trailingZeros[axis];
+        int xor = (int) readBits(length) << trailingZeros[axis];
+        values[axis] ^= xor;
+    }
+
+    private long readBits(int bits) {
+        long value = 0;
+        for (int i = 0; i < bits; i++) {
+            int bit = (data[position >>> 3] >>> (7 - (position & 7))) & 1;
+            value = (value << 1) | bit;
+            position++;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,210 @@
+package edu.nd.nxia.cimonlite.database;
+
+import java.util.Arrays;
+
+/**
+ * Encoder of a block of readings of one series, for the Chunk table.
+ * Timestamps are stored as delta-of-delta, values as XOR with the previous
+ * value of the same axis (Gorilla encoding). Regular sampling with slowly
+ * changing values encodes to a few bits per value.
+ * <p>
+ * Layout of each reading, after the first timestamp (64 bits):
+ * <ul>
+ * <li>timestamp delta-of-delta: '0' for zero, '10' + 20 bits, '110' + 32 bits,
+ * or '111' + 64 bits</li>
+ * <li>each axis: '0' if equal to previous value, '10' + meaningful bits if
+ * they fit the previous window of leading/trailing zeros, or '11' + 5 bits
+ * of leading zeros + 5 bits of length - 1 + meaningful bits</li>
+ * </ul>
+ * The first value of each axis is encoded against zero.
+ *
+ * @author ningxia
+ *
+ * @see SeriesDecoder
+ * @see ChunkTable
+ *
+ */
+public class SeriesEncoder {
+
+    static final int DOD_SHORT_BITS = 20;
+    static final int DOD_MEDIUM_BITS = 32;
+
+    private final int axes;
+    private final int capacity;
+    private byte[] buffer = new byte[256];
+    /** Number of bits written. */
+    private int position;
+    private int count;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long lastDelta;
+    private final int[] lastValues;
+    private final int[] leadingZeros;
+    private final int[] trailingZeros;
+
+    /**
+     * Encoder of a block of readings of one series.
+     *
+     * @param axes        number of values per reading (1 for single metrics, 3 for vectors)
+     * @param capacity    maximum number of readings per block
+     */
+    public SeriesEncoder(int axes, int capacity) {
+        this.axes = axes;
+        this.capacity = capacity;
+        this.lastValues = new int[axes];
+        this.leadingZeros = new int[axes];
+        this.trailingZeros = new int[axes];
+        reset();
+    }
+
+    /**
+     * Discard encoded readings, buffer is reused for next block.
+     */
+    public void reset() {
+        position = 0;
+        count = 0;
+        lastDelta = 0;
+        Arrays.fill(lastValues, 0);
+        // no previous window, forces full window on first value
+        Arrays.fill(leadingZeros, Integer.MAX_VALUE);
+        Arrays.fill(trailingZeros, 0);
+    }
+
+    public int getAxes() {
+        return axes;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isFull() {
+        return count == capacity;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Append reading to block.
+     *
+     * @param timestamp    timestamp of reading (nanoseconds)
+     * @param x            value, or x-axis value
+     * @param y            y-axis value, ignored for single metrics
+     * @param z            z-axis value, ignored for single metrics
+     * @return false if block is already full
+     */
+    public boolean append(long timestamp, float x, float y, float z) {
+        if (count == capacity) {
+            return false;
+        }
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            writeBits(timestamp, 64);
+        }
+        else {
+            long delta = timestamp - lastTimestamp;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+        }
+        lastTimestamp = timestamp;
+        writeValue(0, x);
+        if (axes > 1) {
+            writeValue(1, y);
+            writeValue(2, z);
+        }
+        count++;
+        return true;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            writeBits(0, 1);
+        }
+        else if (fits(dod, DOD_SHORT_BITS)) {
+            writeBits(0x2, 2);
+            writeBits(dod, DOD_SHORT_BITS);
+        }
+        else if (fits(dod, DOD_MEDIUM_BITS)) {
+            writeBits(0x6, 3);
+            writeBits(dod, DOD_MEDIUM_BITS);
+        }
+        else {
+            writeBits(0x7, 3);
+            writeBits(dod, 64);
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        long limit = 1L << (bits - 1);
+        return value >= -limit && value < limit;
+    }
+
+    private void writeValue(int axis, float value) {
+        int bits = Float.floatToIntBits(value);
+        int xor = bits ^ lastValues[axis];
+        lastValues[axis] = bits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        int leading = Integer.numberOfLeadingZeros(xor);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        // leading zero count is stored in 5 bits
+        if (leading > 31) leading = 31;
+        if (leading >= leadingZeros[axis] && trailing >= trailingZeros[axis]) {
+            writeBits(0x2, 2);
+            int length = 32 - leadingZeros[axis] - trailingZeros[axis];
+            writeBits(xor >>> trailingZeros[axis], length);
+        }
+        else {
+            int length = 32 - leading - trailing;
+            writeBits(0x3, 2);
+            writeBits(leading, 5);
+            writeBits(length - 1, 5);
+            writeBits(xor >>> trailing, length);
+            leadingZeros[axis] = leading;
+            trailingZeros[axis] = trailing;
+        }
+    }
+
+    /**
+     * Write lowest bits of value, most significant first.
+     */
+    private void writeBits(long value, int bits) {
+        ensureCapacity(position + bits);
+        for (int i = bits - 1; i >= 0; i--) {
+            if (((value >>> i) & 1) != 0) {
+                buffer[position >>> 3] |= (byte) (0x80 >>> (position & 7));
+            }
+            position++;
+        }
+    }
+
+    private void ensureCapacity(int bits) {
+        int bytes = (bits + 7) >>> 3;
+        if (bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(bytes, buffer.length * 2));
+        }
+        // bytes past the old position may hold bits of a previous block
+        int clearFrom = (position + 7) >>> 3;
+        if (clearFrom < bytes) {
+            Arrays.fill(buffer, clearFrom, bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Get encoded block.
+     *
+     * @return    copy of encoded bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, (position + 7) >>> 3);
+    }
+
+}
@@ -0,0 +1,317 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Keeps the database within a storage budget.
+ * Used space is checked periodically on the maintenance thread. Over budget,
+ * rows already uploaded are evicted first, then the oldest raw readings,
+ * whose trends remain in the Rollup table. Raw readings are only evicted up to
+ * the latest rollup bucket of their monitor, so none is lost without its
+ * aggregate. Rows of Data and VectorData tables are evicted from all their
+ * partitions. Daily partitions of raw readings are dropped whole, oldest
+ * first, down to the partition of the latest day.
+ * Freed pages are returned to the file system by incremental vacuum, a few
+ * pages at a time whenever the writer lock is free, never by a full VACUUM.
+ * <p>
+ * Incremental vacuum needs auto-vacuum, which only new databases have.
+ * Existing databases reuse freed pages for new readings instead.
+ *
+ * @author ningxia
+ *
+ * @see DatabaseMaintenance
+ * @see RollupTable
+ *
+ */
+public class StorageGovernor implements Runnable {
+
+    private static final String TAG = "NDroid";
+
+    /** Interval between budget checks (milliseconds). */
+    public static final long CHECK_PERIOD = 5 * 60 * 1000;
+    /** Rows deleted per eviction step. */
+    private static final int EVICT_ROWS = 2000;
+    /** Maximum eviction steps per budget check. */
+    private static final int MAX_EVICT_STEPS = 100;
+    /** Pages returned per incremental vacuum step. */
+    private static final int VACUUM_PAGES = 256;
+    /** Delay between vacuum steps, and retry delay while writer is busy (milliseconds). */
+    private static final long VACUUM_DELAY = 1000;
+    /** Value of auto_vacuum pragma for incremental mode. */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Raw reading tables, in eviction order. */
+    private static final String[] RAW_TABLES = {
+            ChunkTable.TABLE_CHUNK, VectorDataTable.TABLE_VECTOR_DATA, DataTable.TABLE_DATA};
+    /** Column compared with rollup coverage, by raw reading table. */
+    private static final String[] RAW_TIME_COLUMNS = {
+            ChunkTable.COLUMN_END_TIME, VectorDataTable.COLUMN_TIMESTAMP, DataTable.COLUMN_TIMESTAMP};
+
+    private final SQLiteDatabase database;
+    private final ReentrantLock writeLock;
+    private final DatabaseMaintenance maintenance;
+    private final PartitionManager partitions;
+    private final boolean incremental;
+    /** Maximum size of used pages, 0 for no limit (bytes). */
+    private volatile long budget;
+    /** Highest _id uploaded from each table. */
+    private final Map<String, Long> uploaded = new ConcurrentHashMap<String, Long>();
+    private boolean vacuumPending;
+    private long evictedRows;
+    private long vacuumedPages;
+
+    /**
+     * Storage governor of database.
+     *
+     * @param database       open database
+     * @param writeLock      writer lock of database adapter, held while deleting or vacuuming
+     * @param maintenance    maintenance thread running checks and vacuum steps
+     * @param partitions     partitions of raw readings, guarded by writer lock
+     */
+    public StorageGovernor(SQLiteDatabase database, ReentrantLock writeLock,
+                           DatabaseMaintenance maintenance, PartitionManager partitions) {
+        this.database = database;
+        this.writeLock = writeLock;
+        this.maintenance = maintenance;
+        this.partitions = partitions;
+        this.incremental = pragma("auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+        if (DebugLog.DEBUG) Log.d(TAG, "StorageGovernor - incremental vacuum: " + incremental);
+    }
+
+    /**
+     * Set storage budget, checked every {@value #CHECK_PERIOD} milliseconds.
+     *
+     * @param bytes    maximum size of used pages, 0 for no limit (bytes)
+     */
+    public void setBudget(long bytes) {
+        budget = bytes;
+    }
+
+    /**
+     * Record rows of table uploaded, so they are evicted first.
+     *
+     * @param table        name of table
+     * @param watermark    highest _id uploaded, all rows up to it are uploaded
+     */
+    public void setUploaded(String table, long watermark) {
+        uploaded.put(table, watermark);
+    }
+
+    /**
+     * Get size of pages holding data, excluding free pages.
+     *
+     * @return    used size (bytes)
+     */
+    public long getUsedBytes() {
+        return (pragma("page_count") - pragma("freelist_count")) * pragma("page_size");
+    }
+
+    /**
+     * Check budget, evicting rows while over budget. Runs on maintenance thread.
+     */
+    @Override
+    public void run() {
+        long limit = budget;
+        if (limit > 0 && getUsedBytes() > limit) {
+            int steps = 0;
+            for (Map.Entry<String, Long> entry : uploaded.entrySet()) {
+                for (String table : tablesOf(entry.getKey())) {
+                    while (steps < MAX_EVICT_STEPS && getUsedBytes() > limit
+                            && evict(table, "_id <= " + entry.getValue()) > 0) {
+                        steps++;
+                    }
+                }
+            }
+            Map<Integer, Long> coverage = getRollupCoverage();
+            for (int i = 0; i < RAW_TABLES.length; i++) {
+                steps = evictCovered(RAW_TABLES[i], RAW_TIME_COLUMNS[i], coverage, steps, limit);
+            }
+            while (steps < MAX_EVICT_STEPS && getUsedBytes() > limit && dropOldest()) {
+                steps++;
+            }
+            for (int i = 0; i < RAW_TABLES.length; i++) {
+                for (String table : tablesOf(RAW_TABLES[i])) {
+                    if (!table.equals(RAW_TABLES[i])) {
+                        steps = evictCovered(table, RAW_TIME_COLUMNS[i], coverage, steps, limit);
+                    }
+                }
+            }
+            if (DebugLog.INFO) Log.i(TAG, "StorageGovernor.run - used " + getUsedBytes()
+                    + " of " + limit + " bytes, evicted " + evictedRows + " rows");
+        }
+        if (incremental && !vacuumPending && pragma("freelist_count") > 0) {
+            vacuumPending = true;
+            maintenance.post(vacuum, 0);
+        }
+    }
+
+    /**
+     * Evict oldest rows of table whose readings are aggregated in closed rollup buckets.
+     *
+     * @param table       name of table or partition
+     * @param column      column holding time of reading
+     * @param coverage    start of latest rollup bucket of each monitor
+     * @param steps       eviction steps taken so far
+     * @param limit       storage budget (bytes)
+     * @return    eviction steps taken, including previous ones
+     */
+    private int evictCovered(String table, String column, Map<Integer, Long> coverage,
+                             int steps, long limit) {
+        for (Map.Entry<Integer, Long> entry : coverage.entrySet()) {
+            String selection = DataTable.COLUMN_MONITOR_ID + " = " + entry.getKey() + " AND "
+                    + column + " < " + entry.getValue();
+            while (steps < MAX_EVICT_STEPS && getUsedBytes() > limit
+                    && evict(table, selection) > 0) {
+                steps++;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Get time up to which readings of each monitor are aggregated in closed
+     * buckets: the start of its latest bucket at the finest resolution. Readings
+     * of a metric arrive in time order and are aggregated within their insert
+     * transaction, so buckets before the latest one receive no more readings.
+     * Monitors without rollups are left out, their readings are never covered.
+     *
+     * @return    start of latest bucket by monitor id, on the timestamp base of raw readings
+     */
+    private Map<Integer, Long> getRollupCoverage() {
+        Map<Integer, Long> coverage = new HashMap<Integer, Long>();
+        // buckets are on system time, moved back by the time offset of their monitor
+        Cursor cursor = database.rawQuery("SELECT r." + RollupTable.COLUMN_MONITOR_ID
+                + ", max(r." + RollupTable.COLUMN_BUCKET + ") - m."
+                + MonitorTable.COLUMN_TIME_OFFSET + " FROM " + RollupTable.TABLE_ROLLUP
+                + " r JOIN " + MonitorTable.TABLE_MONITOR + " m ON m." + MonitorTable.COLUMN_ID
+                + " = r." + RollupTable.COLUMN_MONITOR_ID + " WHERE r."
+                + RollupTable.COLUMN_RESOLUTION + " = " + RollupTable.RESOLUTIONS[0]
+                + " GROUP BY r." + RollupTable.COLUMN_MONITOR_ID, null);
+        try {
+            while (cursor.moveToNext()) {
+                coverage.put(cursor.getInt(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return coverage;
+    }
+
+    /**
+     * Get tables rows of table are stored in: Data and VectorData tables with
+     * their partitions, oldest first, or the table itself.
+     */
+    private ArrayList<String> tablesOf(String table) {
+        writeLock.lock();
+        try {
+            if (table.equals(DataTable.TABLE_DATA)) {
+                return partitions.getDataTables();
+            }
+            if (table.equals(VectorDataTable.TABLE_VECTOR_DATA)) {
+                return partitions.getVectorTables();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        ArrayList<String> tables = new ArrayList<String>();
+        tables.add(table);
+        return tables;
+    }
+
+    /**
+     * Delete oldest rows of table matching selection.
+     *
+     * @param table        name of table or partition
+     * @param selection    rows which may be evicted
+     * @return    number of rows deleted
+     */
+    private int evict(String table, String selection) {
+        writeLock.lock();
+        try {
+            int rows = database.delete(table, "_id IN (SELECT _id FROM " + table
+                    + " WHERE " + selection + " ORDER BY _id LIMIT " + EVICT_ROWS + ")",
+                    null);
+            evictedRows += rows;
+            return rows;
+        } catch (SQLException e) {
+            // partition dropped by retention meanwhile
+            if (DebugLog.WARNING) Log.w(TAG, "StorageGovernor.evict - " + table + ": "
+                    + e.toString());
+            return 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drop oldest partition of raw readings, keeping that of the latest day.
+     *
+     * @return    true if a partition was dropped
+     */
+    private boolean dropOldest() {
+        writeLock.lock();
+        try {
+            return partitions.dropOldest();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Return a few free pages to the file system, skipping steps while writer is busy.
+     */
+    private final Runnable vacuum = new Runnable() {
+        @Override
+        public void run() {
+            if (!writeLock.tryLock()) {
+                maintenance.post(this, VACUUM_DELAY);
+                return;
+            }
+            long free;
+            try {
+                long before = pragma("freelist_count");
+                Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")",
+                        null);
+                // pages are freed as rows are stepped
+                cursor.getCount();
+                cursor.close();
+                free = pragma("freelist_count");
+                vacuumedPages += before - free;
+            } catch (Exception e) {
+                if (DebugLog.ERROR) Log.e(TAG, "StorageGovernor.vacuum - failed: " + e.toString());
+                free = 0;
+            } finally {
+                writeLock.unlock();
+            }
+            if (free > 0) {
+                maintenance.post(this, VACUUM_DELAY);
+            }
+            else {
+                vacuumPending = false;
+                if (DebugLog.DEBUG) Log.d(TAG, "StorageGovernor.vacuum - returned "
+                        + vacuumedPages + " pages");
+            }
+        }
+    };
+
+    private long pragma(String pragma) {
+        Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
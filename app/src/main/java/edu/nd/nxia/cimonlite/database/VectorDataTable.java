@@ -0,0 +1,104 @@
+package edu.nd.nxia.cimonlite.database;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import edu.nd.nxia.cimonlite.DebugLog;
+
+/**
+ * Defines the layout of the VectorData table of the database.
+ * This table stores readings of multi-axis sensors (accelerometer, gyroscope),
+ * one row per sensor event with a column per axis, instead of one row per
+ * metric in {@link DataTable}. Rows are keyed by monitor, metric group and timestamp:
+ * an event with the timestamp of a stored event of its group is dropped, and
+ * counted by {@link CimonDatabaseAdapter#getIgnoredRows()}.
+ * Magnitude is not stored, it is derived from the axis values when read.
+ * Links to {@link MetricInfoTable} for metric group information.
+ *
+ * @author ningxia
+ *
+ * @see DataView
+ *
+ */
+public final class VectorDataTable {
+
+    private static final String TAG = "NDroid";
+
+    // Database table
+    public static final String TABLE_VECTOR_DATA = "vectordata";
+    // Table columns
+    /** Unique id (Long) */
+    public static final String COLUMN_ID = "_id";
+    /** Index of metric group in MetricInfo table (Long).
+     *  Equals id of x-axis metric, following axes use consecutive ids. */
+    public static final String COLUMN_METRIC_ID = "metricid";
+    /** Index of monitor that registered metric (Long). */
+    public static final String COLUMN_MONITOR_ID = "monitorid";
+    /** Time of reading, from elapsed realtime in nanoseconds (Long).
+     *  Add time offset of monitor to acquire nanoseconds from epoch. */
+    public static final String COLUMN_TIMESTAMP = "timestamp";
+    /** X-axis value of reading (Float). */
+    public static final String COLUMN_X = "x";
+    /** Y-axis value of reading (Float). */
+    public static final String COLUMN_Y = "y";
+    /** Z-axis value of reading (Float). */
+    public static final String COLUMN_Z = "z";
+
+    // Database creation SQL statement
+    private static String tableCreate(String table) {
+        return "create table "
+                + table
+                + "("
+                + COLUMN_ID + " integer primary key autoincrement, "
+                + COLUMN_METRIC_ID + " integer not null, "
+                + COLUMN_MONITOR_ID + " integer not null,"
+                + COLUMN_TIMESTAMP + " integer not null,"
+                + COLUMN_X + " real not null,"
+                + COLUMN_Y + " real not null,"
+                + COLUMN_Z + " real not null"
+                + ");";
+    }
+
+    private static String indexCreate(String table) {
+        return "create unique index "
+                + table + "_key on " + table
+                + "(" + COLUMN_MONITOR_ID + ", " + COLUMN_METRIC_ID + ", " + COLUMN_TIMESTAMP + ");";
+    }
+
+    public static void onCreate(SQLiteDatabase database) {
+        createTable(database, TABLE_VECTOR_DATA);
+    }
+
+    /**
+     * Create table with the layout and unique key of VectorData table, for partitions.
+     *
+     * @param database    open database
+     * @param table       name of table
+     * @see PartitionTable
+     */
+    public static void createTable(SQLiteDatabase database, String table) {
+        database.execSQL(tableCreate(table));
+        database.execSQL(indexCreate(table));
+    }
+
+    public static void onUpgrade(SQLiteDatabase database, int oldVersion,
+                                 int newVersion) {
+        if (DebugLog.INFO) Log.i(TAG, TABLE_VECTOR_DATA + ": Upgrading database from version "
+                + oldVersion + " to " + newVersion);
+        if (oldVersion < 3) {
+            onCreate(database);
+        }
+        else if (oldVersion < 4) {
+            // version 3 stored magnitude column, copy rows without it
+            String oldTable = TABLE_VECTOR_DATA + "_v3";
+            String columns = COLUMN_ID + ", " + COLUMN_METRIC_ID + ", " + COLUMN_MONITOR_ID + ", "
+                    + COLUMN_TIMESTAMP + ", " + COLUMN_X + ", " + COLUMN_Y + ", " + COLUMN_Z;
+            database.execSQL("DROP INDEX IF EXISTS " + TABLE_VECTOR_DATA + "_key");
+            database.execSQL("ALTER TABLE " + TABLE_VECTOR_DATA + " RENAME TO " + oldTable);
+            onCreate(database);
+            database.execSQL("INSERT INTO " + TABLE_VECTOR_DATA + "(" + columns + ") SELECT "
+                    + columns + " FROM " + oldTable);
+            database.execSQL("DROP TABLE " + oldTable);
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+package edu.nd.nxia.cimonlite.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conformance and throughput tests every {@link DataStore} backend must pass.
+ * Subclasses supply the backend, on storage of the test's own. Throughput of
+ * batch appends and scans is printed to standard output.
+ *
+ * @author ningxia
+ *
+ */
+public abstract class DataStoreTest {
+
+    private static final String[] LABEL_COLUMNS = {LabelingHistory.COLUMN_STATE,
+            LabelingHistory.COLUMN_START, LabelingHistory.COLUMN_END};
+    /** Readings appended by throughput tests. */
+    private static final int THROUGHPUT_ROWS = 100000;
+    private static final int THROUGHPUT_BATCH = 1000;
+    /** Period of readings appended by throughput tests, 200 Hz (nanoseconds). */
+    private static final long PERIOD = 5000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected DataStore store;
+    protected int monitor;
+
+    /**
+     * Create store of backend on empty storage.
+     */
+    protected abstract DataStore createStore() throws IOException;
+
+    /**
+     * Close store and open it again on the same storage, as after a restart.
+     *
+     * @return    reopened store
+     */
+    protected abstract DataStore reopen(DataStore store) throws IOException;
+
+    /**
+     * Get monitor readings are appended for, registering it if the backend needs to.
+     */
+    protected int createMonitor() {
+        return 3;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        store = createStore();
+        monitor = createMonitor();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private void reopen() throws IOException {
+        store = reopen(store);
+    }
+
+    private long label(String state, long start) {
+        return store.append(LabelingHistory.TABLE_NAME, LABEL_COLUMNS,
+                new Object[] {state, start, start + 100});
+    }
+
+    /**
+     * Read all rows of table above an _id, with values in order of columns.
+     */
+    protected List<Object[]> scan(String table, long afterId, String... columns) {
+        DataStore.Rows rows = store.scan(table, afterId, Integer.MAX_VALUE);
+        List<Object[]> result = new ArrayList<Object[]>();
+        try {
+            List<String> names = Arrays.asList(rows.getColumns());
+            while (rows.next()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = rows.get(names.indexOf(columns[i]));
+                }
+                result.add(row);
+            }
+        } finally {
+            rows.close();
+        }
+        return result;
+    }
+
+    protected static SampleBuffer batch() {
+        SampleBuffer batch = new SampleBuffer(3);
+        batch.append(1, 1000L, 0.5f);
+        batch.append(10, 1000L, 1f, 2f, 3f);
+        batch.append(1, 2000L, 1.5f);
+        return batch;
+    }
+
+    @Test
+    public void appendAssignsIncreasingIds() throws IOException {
+        long first = label("walking", 100);
+        long second = label("sitting", 200);
+        assertTrue(first > 0);
+        assertTrue(second > first);
+        reopen();
+        assertTrue(label("running", 300) > second);
+    }
+
+    @Test
+    public void scanReturnsRowsAfterId() throws IOException {
+        long first = label("walking", 100);
+        label("sitting", 200);
+        label("running", 300);
+        reopen();
+
+        List<Object[]> rows = scan(LabelingHistory.TABLE_NAME, first,
+                LabelingHistory.COLUMN_STATE, LabelingHistory.COLUMN_START);
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[] {"sitting", 200L}, rows.get(0));
+        assertArrayEquals(new Object[] {"running", 300L}, rows.get(1));
+
+        DataStore.Rows limited = store.scan(LabelingHistory.TABLE_NAME, 0, 1);
+        try {
+            assertTrue(limited.next());
+            assertTrue(!limited.next());
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void appendBatchSplitsScalarAndVectorReadings() throws IOException {
+        assertEquals(3, store.appendBatch(monitor, batch()));
+        reopen();
+
+        List<Object[]> data = scan(DataTable.TABLE_DATA, 0, DataTable.COLUMN_METRIC_ID,
+                DataTable.COLUMN_MONITOR_ID, DataTable.COLUMN_TIMESTAMP, DataTable.COLUMN_VALUE);
+        assertEquals(2, data.size());
+        assertArrayEquals(new Object[] {1L, (long) monitor, 1000L, 0.5}, data.get(0));
+        assertArrayEquals(new Object[] {1L, (long) monitor, 2000L, 1.5}, data.get(1));
+        List<Object[]> vectors = scan(VectorDataTable.TABLE_VECTOR_DATA, 0,
+                VectorDataTable.COLUMN_METRIC_ID, VectorDataTable.COLUMN_TIMESTAMP,
+                VectorDataTable.COLUMN_X, VectorDataTable.COLUMN_Y, VectorDataTable.COLUMN_Z);
+        assertEquals(1, vectors.size());
+        assertArrayEquals(new Object[] {10L, 1000L, 1.0, 2.0, 3.0}, vectors.get(0));
+
+        assertEquals(0, store.appendBatch(monitor, new SampleBuffer(1)));
+    }
+
+    @Test
+    public void countRowsInRange() {
+        SampleBuffer batch = new SampleBuffer(25);
+        for (long timestamp = 0; timestamp < 2500; timestamp += 100) {
+            batch.append(1, timestamp, 1f);
+        }
+        assertEquals(25, store.appendBatch(monitor, batch));
+        assertEquals(25, store.count(DataTable.TABLE_DATA, DataTable.COLUMN_TIMESTAMP, 0, 2500));
+        assertEquals(10, store.count(DataTable.TABLE_DATA, DataTable.COLUMN_TIMESTAMP,
+                1000, 2000));
+        assertEquals(0, store.count(DataTable.TABLE_DATA, DataTable.COLUMN_TIMESTAMP,
+                5000, 6000));
+        assertEquals(0, store.count(LabelingHistory.TABLE_NAME, LabelingHistory.COLUMN_START,
+                0, 2500));
+    }
+
+    @Test
+    public void deleteThroughHidesRows() throws IOException {
+        assertEquals(3, store.appendBatch(monitor, batch()));
+        List<Object[]> data = scan(DataTable.TABLE_DATA, 0, DataTable.COLUMN_ID);
+        long first = (Long) data.get(0)[0];
+        long second = (Long) data.get(1)[0];
+        assertTrue(second > first);
+        assertEquals(1, scan(DataTable.TABLE_DATA, first, DataTable.COLUMN_ID).size());
+
+        store.deleteThrough(DataTable.TABLE_DATA, first);
+        reopen();
+        data = scan(DataTable.TABLE_DATA, 0, DataTable.COLUMN_ID);
+        assertEquals(1, data.size());
+        assertEquals(second, data.get(0)[0]);
+        // ids are not reused
+        SampleBuffer more = new SampleBuffer(1);
+        more.append(1, 3000L, 2.5f);
+        assertEquals(1, store.appendBatch(monitor, more));
+        assertTrue((Long) scan(DataTable.TABLE_DATA, second, DataTable.COLUMN_ID).get(0)[0]
+                > second);
+    }
+
+    @Test
+    public void metadataIsReplaced() throws IOException {
+        assertNull(store.getMetadata("upload"));
+        store.putMetadata("upload", "41");
+        store.putMetadata("upload", "42");
+        reopen();
+        assertEquals("42", store.getMetadata("upload"));
+    }
+
+    @Test
+    public void appendBatchThroughput() {
+        long rows = appendReadings();
+        assertEquals(THROUGHPUT_ROWS, rows);
+        assertEquals(THROUGHPUT_ROWS, store.count(DataTable.TABLE_DATA,
+                DataTable.COLUMN_TIMESTAMP, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void scanThroughput() {
+        appendReadings();
+        long startTime = System.nanoTime();
+        long rows = 0;
+        long last = 0;
+        while (true) {
+            DataStore.Rows page = store.scan(DataTable.TABLE_DATA, last, THROUGHPUT_BATCH);
+            int read = 0;
+            try {
+                while (page.next()) {
+                    last = ((Number) page.get(0)).longValue();
+                    read++;
+                }
+            } finally {
+                page.close();
+            }
+            if (read == 0) {
+                break;
+            }
+            rows += read;
+        }
+        report("scan", rows, startTime);
+        assertEquals(THROUGHPUT_ROWS, rows);
+    }
+
+    /**
+     * Append readings in batches, as the storage writer does, reporting throughput.
+     *
+     * @return    readings appended
+     */
+    private long appendReadings() {
+        SampleBuffer batch = new SampleBuffer(THROUGHPUT_BATCH);
+        long rows = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_ROWS; i += THROUGHPUT_BATCH) {
+            batch.clear();
+            for (int j = 0; j < THROUGHPUT_BATCH; j++) {
+                long reading = i + j;
+                batch.append(1, reading * PERIOD, (float) Math.sin(reading / 100.0));
+            }
+            long appended = store.appendBatch(monitor, batch);
+            assertTrue(appended >= 0);
+            rows += appended;
+        }
+        report("appendBatch", rows, startTime);
+        return rows;
+    }
+
+    private void report(String operation, long rows, long startTime) {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println(String.format("%s - %s: %d rows in %.2fs, %.0f rows/s",
+                getClass().getSimpleName(), operation, rows, seconds, rows / seconds));
+    }
+
+}
@@ -0,0 +1,196 @@
+package edu.nd.nxia.cimonlite.database;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link LogDataStore}, on a temporary directory: the conformance tests
+ * of {@link DataStoreTest}, and tests of segment files. Stores are reopened to
+ * check what survives a restart.
+ *
+ * @author ningxia
+ *
+ */
+public class LogDataStoreTest extends DataStoreTest {
+
+    private static final String TABLE = "labels";
+    private static final String[] COLUMNS = {"label", "timestamp"};
+
+    private File directory;
+
+    @Override
+    protected DataStore createStore() throws IOException {
+        directory = folder.newFolder("datastore");
+        return new LogDataStore(directory);
+    }
+
+    @Override
+    protected DataStore reopen(DataStore store) throws IOException {
+        store.close();
+        return new LogDataStore(directory);
+    }
+
+    private void reopen() throws IOException {
+        store = reopen(store);
+    }
+
+    private long append(String label, long timestamp) {
+        return store.append(TABLE, COLUMNS, new Object[] {label, timestamp});
+    }
+
+    /**
+     * Read all rows of table above an _id.
+     */
+    private List<Object[]> scan(String table, long afterId) {
+        DataStore.Rows rows = store.scan(table, afterId, Integer.MAX_VALUE);
+        List<Object[]> result = new ArrayList<Object[]>();
+        try {
+            while (rows.next()) {
+                Object[] row = new Object[rows.getColumns().length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rows.get(i);
+                }
+                result.add(row);
+            }
+        } finally {
+            rows.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void scanReturnsIdAndAppendedColumns() throws IOException {
+        assertEquals(1, append("walking", 100));
+        append(null, 200);
+        reopen();
+
+        List<Object[]> rows = scan(TABLE, 0);
+        assertArrayEquals(new Object[] {2L, null, 200L}, rows.get(1));
+        DataStore.Rows limited = store.scan(TABLE, 0, 1);
+        assertArrayEquals(new String[] {DataTable.COLUMN_ID, "label", "timestamp"},
+                limited.getColumns());
+        limited.close();
+
+        assertTrue(scan("missing", 0).isEmpty());
+        assertEquals(0, store.count("missing", "timestamp", 0, 2500));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendRejectsOtherColumns() {
+        append("walking", 100);
+        store.append(TABLE, new String[] {"label"}, new Object[] {"sitting"});
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() throws IOException {
+        SampleBuffer batch = new SampleBuffer(2);
+        batch.append(10, 1000L, 1f, 2f, 3f);
+        batch.append(1, 1000L, 0.5f);
+        // first segment of Data table cannot be created
+        File blocked = new File(directory, String.format("%s-%019d.seg", DataTable.TABLE_DATA, 1));
+        assertTrue(blocked.mkdir());
+        assertEquals(-1, store.appendBatch(monitor, batch));
+        assertTrue(scan(VectorDataTable.TABLE_VECTOR_DATA, 0).isEmpty());
+
+        assertTrue(blocked.delete());
+        assertEquals(2, store.appendBatch(monitor, batch));
+        reopen();
+        assertEquals(1L, scan(VectorDataTable.TABLE_VECTOR_DATA, 0).get(0)[0]);
+        assertEquals(1, scan(DataTable.TABLE_DATA, 0).size());
+    }
+
+    @Test
+    public void deleteThroughHidesRowsAndRemovesSegments() throws IOException {
+        // blobs fill a segment after four rows
+        byte[] blob = new byte[LogDataStore.SEGMENT_SIZE / 4];
+        String[] columns = {"data"};
+        for (int i = 0; i < 6; i++) {
+            store.append(TABLE, columns, new Object[] {blob});
+        }
+        assertEquals(2, segments());
+
+        // rows of a segment still holding rows above the watermark are hidden
+        assertEquals(0, store.deleteThrough(TABLE, 2));
+        assertEquals(3L, scan(TABLE, 0).get(0)[0]);
+        assertEquals(4, scan(TABLE, 0).size());
+
+        assertEquals(4, store.deleteThrough(TABLE, 4));
+        assertEquals(1, segments());
+        assertEquals(0, store.deleteThrough(TABLE, 4));
+
+        // watermark and ids survive removal of all segments
+        assertEquals(2, store.deleteThrough(TABLE, 6));
+        reopen();
+        assertTrue(scan(TABLE, 0).isEmpty());
+        assertEquals(7, store.append(TABLE, columns, new Object[] {blob}));
+    }
+
+    private int segments() {
+        int segments = 0;
+        for (String name : directory.list()) {
+            if (name.startsWith(TABLE + "-")) {
+                segments++;
+            }
+        }
+        return segments;
+    }
+
+    @Test
+    public void tornRecordIsTruncated() throws IOException {
+        append("walking", 100);
+        append("sitting", 200);
+        append("running", 300);
+        store.close();
+        File segment = new File(directory, directory.list()[0]);
+        long length = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(length - 3);
+        } finally {
+            file.close();
+        }
+
+        store = new LogDataStore(directory);
+        List<Object[]> rows = scan(TABLE, 0);
+        assertEquals(2, rows.size());
+        assertEquals(2L, rows.get(1)[0]);
+        assertTrue(segment.length() < length - 3);
+        assertTrue(store.getStatistics().contains("torn bytes truncated: "
+                + (length - 3 - segment.length())));
+        // id of torn row is assigned again
+        assertEquals(3, append("running", 300));
+    }
+
+    @Test
+    public void corruptRecordIsTruncated() throws IOException {
+        append("walking", 100);
+        append("sitting", 200);
+        store.close();
+        File segment = new File(directory, directory.list()[0]);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // last byte of last record
+            file.seek(segment.length() - 1);
+            byte last = file.readByte();
+            file.seek(segment.length() - 1);
+            file.writeByte(last ^ 1);
+        } finally {
+            file.close();
+        }
+
+        store = new LogDataStore(directory);
+        assertEquals(1, scan(TABLE, 0).size());
+    }
+
+}
@@ -0,0 +1,92 @@
+package edu.nd.nxia.cimonlite.database;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import edu.nd.nxia.cimonlite.BuildConfig;
+import edu.nd.nxia.cimonlite.SampleBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link SQLiteDataStore}, on databases of the test's own: the
+ * conformance tests of {@link DataStoreTest}, and tests of the SQLite schema.
+ * They run on the JVM with the SQLite of Robolectric.
+ *
+ * @author ningxia
+ *
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SQLiteDataStoreTest extends DataStoreTest {
+
+    private Context context;
+    private CimonDatabaseAdapter adapter;
+    private LabelingHistory labels;
+
+    @Override
+    protected DataStore createStore() {
+        context = RuntimeEnvironment.application;
+        context.deleteDatabase(CimonDatabaseHelper.DATABASE_NAME);
+        context.deleteDatabase(LabelingHistory.DATABASE_NAME);
+        return open();
+    }
+
+    @Override
+    protected DataStore reopen(DataStore store) {
+        store.close();
+        close();
+        return open();
+    }
+
+    @Override
+    protected int createMonitor() {
+        return adapter.insertMonitor(0);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        close();
+    }
+
+    private DataStore open() {
+        adapter = new CimonDatabaseAdapter(context);
+        labels = new LabelingHistory(context.getDatabasePath(LabelingHistory.DATABASE_NAME));
+        return new SQLiteDataStore(adapter, labels, false);
+    }
+
+    private void close() {
+        adapter.close();
+        labels.close();
+    }
+
+    @Test
+    public void duplicateVectorReadingIsIgnored() {
+        SampleBuffer batch = new SampleBuffer(1);
+        batch.append(10, 1000L, 1f, 2f, 3f);
+        assertEquals(1, store.appendBatch(monitor, batch));
+        long ignored = adapter.getIgnoredRows();
+        // ignored readings are not a failure
+        assertEquals(0, store.appendBatch(monitor, batch));
+        assertEquals(ignored + 1, adapter.getIgnoredRows());
+        assertEquals(1, scan(VectorDataTable.TABLE_VECTOR_DATA, 0,
+                VectorDataTable.COLUMN_ID).size());
+    }
+
+    @Test
+    public void chunkedAppendBatch() {
+        SQLiteDataStore chunked = new SQLiteDataStore(adapter, labels, true);
+        assertEquals(3, chunked.appendBatch(monitor, batch()));
+        assertEquals(2, chunked.count(ChunkTable.TABLE_CHUNK, ChunkTable.COLUMN_MONITOR_ID,
+                monitor, monitor + 1));
+    }
+
+}